@@ -0,0 +1,42 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+
+/**
+ * Decides whether a block is kept.  Filters are put together in a
+ * BlockFilterChain, which counts the blocks each one drops.  The usual
+ * filters are made by BlockFilters.
+ *
+ * @author geoffc
+ */
+public interface BlockFilter {
+
+    /**
+     * @return the name the drop count is reported under.
+     */
+    String getName();
+
+    /**
+     * @param ms the block.
+     * @return true to keep the block, false to drop it.
+     */
+    boolean accept(MiniSeed ms);
+}
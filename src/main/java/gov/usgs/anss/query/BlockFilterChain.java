@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs blocks through a list of BlockFilters in order, counting the blocks
+ * each filter drops.  A block is dropped by the first filter that rejects it,
+ * so the later filters never see it.  Blocks can be passed one at a time with
+ * accept() as they are read, or a whole list filtered in place in one pass
+ * with filter().
+ *
+ * Typical usage would look like:
+ *
+ * BlockFilterChain chain = new BlockFilterChain()
+ *         .add(BlockFilters.quality())
+ *         .add(BlockFilters.empty());
+ * chain.filter(blks);
+ * logger.fine(chain.toString());
+ *
+ * @author geoffc
+ */
+public class BlockFilterChain {
+
+    private final ArrayList<BlockFilter> filters = new ArrayList<BlockFilter>();
+    private int[] dropped = new int[0];
+
+    /**
+     * Add a filter to the end of the chain.
+     *
+     * @return this chain.
+     */
+    public BlockFilterChain add(BlockFilter filter) {
+        filters.add(filter);
+        int[] d = new int[filters.size()];
+        System.arraycopy(dropped, 0, d, 0, dropped.length);
+        dropped = d;
+        return this;
+    }
+
+    /**
+     * @return true if every filter keeps the block.
+     */
+    public boolean accept(MiniSeed ms) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (!filters.get(i).accept(ms)) {
+                dropped[i]++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the blocks any filter drops from blks in one pass, keeping the
+     * order of the rest.
+     *
+     * @return the number of blocks removed.
+     */
+    public int filter(List<MiniSeed> blks) {
+        int n = blks.size();
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            MiniSeed ms = blks.get(i);
+            if (accept(ms)) {
+                if (kept != i) {
+                    blks.set(kept, ms);
+                }
+                kept++;
+            }
+        }
+        // Trim from the end so nothing is shifted.
+        for (int i = n - 1; i >= kept; i--) {
+            blks.remove(i);
+        }
+        return n - kept;
+    }
+
+    /**
+     * @return the number of blocks dropped by the named filter, 0 if there is no such filter.
+     */
+    public int getDropped(String name) {
+        int n = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).getName().equals(name)) {
+                n += dropped[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of blocks dropped by all the filters.
+     */
+    public int getDropped() {
+        int n = 0;
+        for (int d : dropped) {
+            n += d;
+        }
+        return n;
+    }
+
+    /**
+     * Zero the drop counts.
+     */
+    public void reset() {
+        dropped = new int[filters.size()];
+    }
+
+    /**
+     * @return the drop count of each filter, e.g. "quality=0 empty=3".
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(50);
+        for (int i = 0; i < filters.size(); i++) {
+            sb.append(i == 0 ? "" : " ").append(filters.get(i).getName()).append("=").append(dropped[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import edu.iris.Fissures.codec.SteimException;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.GregorianCalendar;
+import java.util.logging.Logger;
+
+/**
+ * The block filters used by the query and the outputters.
+ *
+ * @author geoffc
+ */
+public class BlockFilters {
+
+    private static final Logger logger = Logger.getLogger(BlockFilters.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+
+    private BlockFilters() {
+    }
+
+    /**
+     * Drops blocks whose quality indicator is below "D ", which have been zapped.
+     */
+    public static BlockFilter quality() {
+        return new BlockFilter() {
+
+            public String getName() {
+                return "quality";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                return ms.getIndicator().compareTo("D ") >= 0;
+            }
+        };
+    }
+
+    /**
+     * Drops blocks with no samples or no sample rate.
+     */
+    public static BlockFilter empty() {
+        return new BlockFilter() {
+
+            public String getName() {
+                return "empty";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                return ms.getNsamp() != 0 && ms.getRate() >= 0.0001;
+            }
+        };
+    }
+
+    /**
+     * Before Jan 20, 2007 some HR data had BHN and BHE at 1 hz.  Drops any
+     * BH block at 1 Hz or less.
+     */
+    public static BlockFilter rate() {
+        return new BlockFilter() {
+
+            public String getName() {
+                return "rate";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                double rate = ms.getRate();
+                if (rate < 1.001 && rate > 0.0001 && ms.getSeedName().substring(7, 9).equals("BH")) {
+                    logger.info("DCC rate=1 and BH" + ms.toString());
+                    return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Due to a foul up in data in Nov, Dec 2006 it is possible the Q330s got
+     * the same baler block twice, but the last 7 512's of the block zeroed and
+     * the other correct.  Drops the bad ones.
+     */
+    public static BlockFilter q330() {
+        return new BlockFilter() {
+
+            private final GregorianCalendar jan_01_2007 = new GregorianCalendar(2007, 0, 1);
+
+            public String getName() {
+                return "q330";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                return !(ms.getBlockSize() == 4096 && // Has to be a big block or it does not happen
+                        ms.getGregorianCalendar().compareTo(jan_01_2007) < 0 &&
+                        ms.getUsedFrameCount() < ms.getB1001FrameCount() &&
+                        ms.getUsedFrameCount() <= 7 && ms.getB1001FrameCount() > 7);
+            }
+        };
+    }
+
+    /**
+     * Drops blocks already added to dups, and adds the rest.
+     */
+    public static BlockFilter unique(final DuplicateIndex dups) {
+        return new BlockFilter() {
+
+            public String getName() {
+                return "duplicate";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                return dups.add(ms);
+            }
+        };
+    }
+
+    /**
+     * Drops Steim blocks that cannot be decompressed or do not hold the
+     * samples the header says.  Steim II blocks with a reverse integration
+     * error are fixed and kept.  Blocks in other encodings are kept.
+     */
+    public static BlockFilter decodable() {
+        return new BlockFilter() {
+
+            private final byte[] frames = new byte[4096];
+            private final SteimDecoder steim = new SteimDecoder();
+
+            public String getName() {
+                return "decode";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                int encoding = ms.getEncoding();
+                if (encoding != 10 && encoding != 11) {
+                    return true;
+                }
+                try {
+                    int length = Math.min(ms.getBlockSize() - ms.getDataOffset(), frames.length);
+                    System.arraycopy(ms.getBuf(), ms.getDataOffset(), frames, 0, length);
+                    steim.decode(encoding, frames, ms.getNsamp(), ms.isSwapBytes(), 0);
+                } catch (SteimException e) {
+                    logger.warning("Culling bad Steim decomp blk e=" + e + " ms=" + ms);
+                    return false;
+                }
+                if (encoding == 11) {
+                    if (steim.hadSampleCountError()) {
+                        logger.warning("Culling bad Steim II decomp blk ms=" + ms);
+                        return false;
+                    }
+                    if (steim.hadReverseError()) {
+                        logger.warning("Fix Steim II reverse integration error ms=" + ms);
+                        ms.fixReverseIntegration();
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A list of blocks that knows how much of itself is sorted.  Blocks come from
+ * the CWB almost in order, so as each block is appended it is compared with
+ * the one before and the length of the sorted prefix is kept.  sort() then
+ * does nothing if the list is already in order, and otherwise sorts only the
+ * out of order tail by merging its natural ascending runs, then merges that
+ * with the prefix.  The sort is stable.
+ *
+ * Use BlockList.sort(blks) in place of Collections.sort(blks) so a list that is
+ * known to be sorted is not sorted again.
+ *
+ * @author geoffc
+ */
+public class BlockList extends ArrayList<MiniSeed> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of blocks from the start known to be in order. */
+    private int sorted = 0;
+
+    public BlockList() {
+        super();
+    }
+
+    public BlockList(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    public BlockList(Collection<? extends MiniSeed> blks) {
+        super(blks);
+        rescan();
+    }
+
+    /**
+     * Sort blks, skipping the sort if it is a BlockList known to be sorted or
+     * any other list found to be in order with one pass.
+     */
+    public static void sort(List<MiniSeed> blks) {
+        if (blks instanceof BlockList) {
+            ((BlockList) blks).sort();
+        } else if (sortedLength(blks) < blks.size()) {
+            Collections.sort(blks);
+        }
+    }
+
+    /**
+     * @return true if the list is in order.
+     */
+    public boolean isSorted() {
+        return sorted == size();
+    }
+
+    /**
+     * Sort the list if it is not already in order.
+     */
+    public void sort() {
+        int n = size();
+        if (sorted == n) {
+            return;
+        }
+        MiniSeed[] a = toArray(new MiniSeed[n]);
+        // The run boundaries: the sorted prefix then each natural run in the tail.
+        int[] bounds = new int[n - sorted + 2];
+        int nruns = 0;
+        bounds[nruns++] = 0;
+        int i = sorted;
+        if (i == 0) {
+            i = 1;
+        }
+        for (; i < n; i++) {
+            if (a[i - 1].compareTo(a[i]) > 0) {
+                bounds[nruns++] = i;
+            }
+        }
+        bounds[nruns] = n;
+
+        // Merge neighbouring runs until there is one, left run first on ties.
+        MiniSeed[] tmp = new MiniSeed[n];
+        while (nruns > 1) {
+            int k = 0;
+            for (int r = 0; r < nruns; r += 2) {
+                int lo = bounds[r];
+                if (r + 1 < nruns) {
+                    merge(a, tmp, lo, bounds[r + 1], bounds[r + 2]);
+                } else {
+                    System.arraycopy(a, lo, tmp, lo, bounds[r + 1] - lo);
+                }
+                bounds[k++] = lo;
+            }
+            bounds[k] = n;
+            nruns = k;
+            MiniSeed[] swap = a;
+            a = tmp;
+            tmp = swap;
+        }
+        for (i = 0; i < n; i++) {
+            super.set(i, a[i]);
+        }
+        sorted = n;
+    }
+
+    private static void merge(MiniSeed[] src, MiniSeed[] dst, int lo, int mid, int hi) {
+        int a = lo, b = mid, k = lo;
+        while (a < mid && b < hi) {
+            dst[k++] = src[b].compareTo(src[a]) < 0 ? src[b++] : src[a++];
+        }
+        while (a < mid) {
+            dst[k++] = src[a++];
+        }
+        while (b < hi) {
+            dst[k++] = src[b++];
+        }
+    }
+
+    /**
+     * Sort the list and return it as a TreeSet, which like adding the blocks
+     * to a TreeSet one at a time keeps only the first of blocks that compare
+     * equal.  The set is built in linear time from the sorted list.
+     */
+    public TreeSet<MiniSeed> toTreeSet() {
+        sort();
+        ArrayList<MiniSeed> distinct = new ArrayList<MiniSeed>(size());
+        MiniSeed last = null;
+        for (MiniSeed ms : this) {
+            if (last == null || last.compareTo(ms) != 0) {
+                distinct.add(ms);
+                last = ms;
+            }
+        }
+        return new TreeSet<MiniSeed>(new SortedView(distinct));
+    }
+
+    private static int sortedLength(List<MiniSeed> blks) {
+        int n = blks.size();
+        for (int i = 1; i < n; i++) {
+            if (blks.get(i - 1).compareTo(blks.get(i)) > 0) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    private void rescan() {
+        sorted = sortedLength(this);
+    }
+
+    @Override
+    public boolean add(MiniSeed ms) {
+        int n = size();
+        super.add(ms);
+        if (sorted == n && (n == 0 || get(n - 1).compareTo(ms) <= 0)) {
+            sorted++;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends MiniSeed> blks) {
+        ensureCapacity(size() + blks.size());
+        for (MiniSeed ms : blks) {
+            add(ms);
+        }
+        return !blks.isEmpty();
+    }
+
+    @Override
+    public void add(int index, MiniSeed ms) {
+        super.add(index, ms);
+        if (index <= sorted) {
+            sorted = (fits(index, sorted + 1) ? sorted + 1 : index);
+        }
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends MiniSeed> blks) {
+        boolean changed = super.addAll(index, blks);
+        rescan();
+        return changed;
+    }
+
+    @Override
+    public MiniSeed set(int index, MiniSeed ms) {
+        MiniSeed old = super.set(index, ms);
+        if (index < sorted && !fits(index, sorted)) {
+            sorted = index;
+        }
+        return old;
+    }
+
+    /**
+     * @return true if the block at index is in order with its neighbours in a prefix of length end.
+     */
+    private boolean fits(int index, int end) {
+        MiniSeed ms = get(index);
+        return (index == 0 || get(index - 1).compareTo(ms) <= 0) &&
+                (index + 1 >= end || ms.compareTo(get(index + 1)) <= 0);
+    }
+
+    @Override
+    public MiniSeed remove(int index) {
+        MiniSeed ms = super.remove(index);
+        if (index < sorted) {
+            sorted--;       // removing a block leaves the rest of the prefix in order
+        }
+        return ms;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean changed = super.removeAll(c);
+        rescan();
+        return changed;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean changed = super.retainAll(c);
+        rescan();
+        return changed;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        super.removeRange(fromIndex, toIndex);
+        rescan();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        sorted = 0;
+    }
+
+    /**
+     * Changes made through a sub list are not seen, so the list is taken to be unsorted.
+     */
+    @Override
+    public List<MiniSeed> subList(int fromIndex, int toIndex) {
+        sorted = 0;
+        return super.subList(fromIndex, toIndex);
+    }
+
+    /**
+     * A sorted list of distinct blocks seen as a SortedSet, so a TreeSet can
+     * be built from it without comparing the blocks again.
+     */
+    private static class SortedView extends AbstractSet<MiniSeed> implements SortedSet<MiniSeed> {
+
+        private final List<MiniSeed> blks;
+
+        SortedView(List<MiniSeed> blks) {
+            this.blks = blks;
+        }
+
+        @Override
+        public Iterator<MiniSeed> iterator() {
+            return Collections.unmodifiableList(blks).iterator();
+        }
+
+        @Override
+        public int size() {
+            return blks.size();
+        }
+
+        public Comparator<? super MiniSeed> comparator() {
+            return null;
+        }
+
+        public MiniSeed first() {
+            return blks.get(0);
+        }
+
+        public MiniSeed last() {
+            return blks.get(blks.size() - 1);
+        }
+
+        public SortedSet<MiniSeed> subSet(MiniSeed fromElement, MiniSeed toElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        public SortedSet<MiniSeed> headSet(MiniSeed toElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        public SortedSet<MiniSeed> tailSet(MiniSeed fromElement) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
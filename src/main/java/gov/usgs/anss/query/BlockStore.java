@@ -0,0 +1,317 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.edge.IllegalSeednameException;
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * Holds many raw MiniSEED records compactly.  The records are copied end to
+ * end into large byte slabs and indexed by slab, offset, length, seedname and
+ * time in primitive arrays, so a block costs its record plus a few dozen
+ * bytes of index rather than a MiniSeed object and its buffers.  A MiniSeed is
+ * only made when one is asked for with getMiniSeed().  After clear() the slabs
+ * are reused.  It holds the blocks of mx -notemp; the socket and file readers
+ * still make a MiniSeed for each record as their callers keep MiniSeeds.
+ *
+ * @author geoffc
+ */
+public class BlockStore {
+
+    private static final Logger logger = Logger.getLogger(BlockStore.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    /** The default slab size, 1 MB. */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    private final int slabSize;
+    private final ArrayList<byte[]> slabs = new ArrayList<byte[]>();
+    private int currentSlab = -1;
+    private int slabUsed = 0;
+    private int size = 0;
+    private int[] slab = new int[1024];
+    private int[] offset = new int[1024];
+    private int[] length = new int[1024];
+    private int[] seedname = new int[1024];
+    private int[] nsamp = new int[1024];
+    private long[] start = new long[1024];
+    private long[] end = new long[1024];
+    private final ArrayList<NSCL> seednames = new ArrayList<NSCL>();
+    private final HashMap<NSCL, Integer> seednameIndex = new HashMap<NSCL, Integer>();
+
+    public BlockStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize the size of each slab in bytes.  Records larger than
+     * this get a slab of their own.
+     */
+    public BlockStore(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Copy a block into the store.
+     *
+     * @return the index of the block.
+     */
+    public int add(MiniSeed ms) {
+        return add(ms.getBuf(), 0, ms.getBlockSize());
+    }
+
+    /**
+     * Copy a raw record into the store.
+     *
+     * @param buf the record.
+     * @param off the offset of the record in buf.
+     * @param len the length of the record.
+     * @return the index of the block.
+     */
+    public int add(byte[] buf, int off, int len) {
+        if (len < MiniSeedHeader.FIXED_HEADER) {
+            throw new IllegalArgumentException("Record of " + len + " bytes is shorter than a header.");
+        }
+        if (size == slab.length) {
+            grow();
+        }
+        if (currentSlab < 0 || slabUsed + len > slabs.get(currentSlab).length) {
+            nextSlab(len);
+        }
+        System.arraycopy(buf, off, slabs.get(currentSlab), slabUsed, len);
+
+        slab[size] = currentSlab;
+        offset[size] = slabUsed;
+        length[size] = len;
+        seedname[size] = intern(NSCL.fromRecord(buf, off));
+        nsamp[size] = MiniSeedHeader.getNsamp(buf, off);
+        start[size] = MiniSeedHeader.getStartMillis(buf, off);
+        double rate = MiniSeedHeader.getRate(buf, off);
+        end[size] = start[size];
+        if (rate > 0. && nsamp[size] > 1) {
+            end[size] += (long) ((nsamp[size] - 1) * 1000. / rate + 0.5);
+        }
+        slabUsed += len;
+        return size++;
+    }
+
+    private void nextSlab(int len) {
+        currentSlab++;
+        slabUsed = 0;
+        if (currentSlab < slabs.size() && slabs.get(currentSlab).length >= len) {
+            return;     // reuse a slab from before clear()
+        }
+        byte[] s = new byte[Math.max(slabSize, len)];
+        if (currentSlab < slabs.size()) {
+            slabs.set(currentSlab, s);
+        } else {
+            slabs.add(s);
+        }
+    }
+
+    private void grow() {
+        int n = size * 2;
+        slab = Arrays.copyOf(slab, n);
+        offset = Arrays.copyOf(offset, n);
+        length = Arrays.copyOf(length, n);
+        seedname = Arrays.copyOf(seedname, n);
+        nsamp = Arrays.copyOf(nsamp, n);
+        start = Arrays.copyOf(start, n);
+        end = Arrays.copyOf(end, n);
+    }
+
+    private int intern(NSCL nscl) {
+        Integer id = seednameIndex.get(nscl);
+        if (id == null) {
+            id = seednames.size();
+            seednames.add(nscl);
+            seednameIndex.put(nscl, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of blocks held.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forget all the blocks, keeping the slabs for reuse.
+     */
+    public void clear() {
+        size = 0;
+        currentSlab = -1;
+        slabUsed = 0;
+    }
+
+    /**
+     * @return a new MiniSeed for block i.
+     * @throws IllegalSeednameException
+     */
+    public MiniSeed getMiniSeed(int i) throws IllegalSeednameException {
+        check(i);
+        return new MiniSeed(slabs.get(slab[i]), offset[i], length[i]);
+    }
+
+    /**
+     * Write the raw record of block i.
+     *
+     * @throws IOException
+     */
+    public void write(int i, OutputStream out) throws IOException {
+        check(i);
+        out.write(slabs.get(slab[i]), offset[i], length[i]);
+    }
+
+    /**
+     * Add block i to a DuplicateIndex.
+     *
+     * @return true if the block is new, false if it duplicates one already added.
+     */
+    public boolean addTo(DuplicateIndex dups, int i) {
+        check(i);
+        return dups.add(slabs.get(slab[i]), offset[i], length[i]);
+    }
+
+    public String getSeedName(int i) {
+        check(i);
+        return seednames.get(seedname[i]).toString();
+    }
+
+    public int getLength(int i) {
+        check(i);
+        return length[i];
+    }
+
+    public int getNsamp(int i) {
+        check(i);
+        return nsamp[i];
+    }
+
+    /**
+     * @return the start time of block i in epoch ms.
+     */
+    public long getStartMillis(int i) {
+        check(i);
+        return start[i];
+    }
+
+    /**
+     * @return the time of the last sample of block i in epoch ms.
+     */
+    public long getEndMillis(int i) {
+        check(i);
+        return end[i];
+    }
+
+    /**
+     * @return the sample rate of block i in Hz, read from the record.
+     */
+    public double getRate(int i) {
+        check(i);
+        return MiniSeedHeader.getRate(slabs.get(slab[i]), offset[i]);
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Block " + i + " of " + size);
+        }
+    }
+
+    /**
+     * The blocks in order of end time then seedname, the order of a
+     * multiplexed file.  The sort is stable.
+     *
+     * @return the block indices in order.
+     */
+    public int[] sortByEndTime() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] tmp = new int[size];
+        // Bottom up merge sort of the indices so no boxed Integers are made.
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, size);
+                int a = lo, b = mid, k = lo;
+                while (a < mid && b < hi) {
+                    tmp[k++] = compareEndTime(order[b], order[a]) < 0 ? order[b++] : order[a++];
+                }
+                while (a < mid) {
+                    tmp[k++] = order[a++];
+                }
+                while (b < hi) {
+                    tmp[k++] = order[b++];
+                }
+                System.arraycopy(tmp, lo, order, lo, hi - lo);
+            }
+        }
+        return order;
+    }
+
+    private int compareEndTime(int a, int b) {
+        if (end[a] != end[b]) {
+            return end[a] < end[b] ? -1 : 1;
+        }
+        if (seedname[a] == seedname[b]) {
+            return 0;
+        }
+        return NSCL.LocationComparator.compare(seednames.get(seedname[a]), seednames.get(seedname[b]));
+    }
+
+    /**
+     * @return the approximate heap held by the slabs and index in bytes.
+     */
+    public long getHeapBytes() {
+        long bytes = (long) slab.length * (4 * 5 + 8 * 2);
+        for (byte[] s : slabs) {
+            bytes += s.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes of record data held.
+     */
+    public long getRecordBytes() {
+        long bytes = 0;
+        for (int i = 0; i < size; i++) {
+            bytes += length[i];
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockStore #blks=" + size + " #slabs=" + slabs.size() + " #seednames=" + seednames.size() +
+                " data=" + getRecordBytes() + " heap=" + getHeapBytes();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Supplies the numbered query lines of a command file (or the single line
+ * built from the command line args).  Lines shorter than two characters are
+ * skipped and not counted.  The source may be shared between several query
+ * connections, each taking the next unread line.
+ *
+ * @author geoffc
+ */
+public class CommandSource {
+
+    private final BufferedReader reader;
+    private int nline = 0;
+
+    public CommandSource(Reader reader) {
+        this.reader = new BufferedReader(reader);
+    }
+
+    /**
+     * @return the next query line, or null when there are no more.
+     * @throws IOException
+     */
+    public synchronized CommandLine next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() < 2) {
+                continue;
+            }
+            nline++;
+            return new CommandLine(nline, line);
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of query lines handed out so far.
+     */
+    public synchronized int getLineCount() {
+        return nline;
+    }
+
+    /**
+     * A query line and its (one based) position amongst the query lines.
+     */
+    public static class CommandLine {
+
+        private final int number;
+        private final String text;
+
+        public CommandLine(int number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package gov.usgs.anss.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.Calendar;
@@ -26,8 +27,6 @@ import java.nio.ByteBuffer;
 import java.io.FileOutputStream;
 import java.text.DecimalFormat;
 import java.io.IOException;
-import edu.iris.Fissures.codec.Steim1;
-import edu.iris.Fissures.codec.Steim2;
 import edu.iris.Fissures.codec.SteimException;
 import gov.usgs.anss.edge.*;
 //import gov.usgs.anss.util.*;
@@ -75,10 +74,10 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
     private DecimalFormat df6;
     private FileOutputStream out,  outin;
     private boolean lastPartial;      // Last block added was not a full set of frames, cut off next one
-    private long expected;          // Time in Millis of next expected from
+    private long expected;          // Time in epoch micros of next expected from
     private byte[] rawTime;          // The raw time bytes for the ms being worked on.
     private int frameCount;           // number of frames put in revised buffer
-    private int gapThreshold;         // Threshold in millis for a gap declaration
+    private long gapThreshold;        // Threshold in micros for a gap declaration
     private int minClockQual;         // accumulate the minimum for the timing quality
     private int activityFlags;        // accumulate to OR of activity flags
     private int clockFlags;           // accumulate the OR of clock flags
@@ -95,6 +94,7 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
     private int sequence;
     private int lastSequence;         // sequence of last block processed
     private byte[] frames;
+    private final SteimDecoder steim = new SteimDecoder();
     private byte[] scratch;
     private ByteBuffer bbscratch;
     private int lastReverse;
@@ -138,56 +138,41 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
             return;
         }
 
-        // Before Jan 20, 2007 some HR data had BHN and BHE at 1 hz.  Drop any such packets!
-        // Also cull and packets which cannot be decompressed
-        for (int i = blks.size() - 1; i >= 0; i--) {
-            if (blks.get(i).getRate() < 1.001 && blks.get(i).getRate() > 0.0001) {
-                if (blks.get(i).getSeedName().substring(7, 9).equals("BH")) {
-                    logger.info("DCC rate=1 and BH" + blks.get(i).toString());
-                    blks.remove(i);
-                    continue;
-                }
-            }
-
-            // If a block cannot be decompressed, cull it out
-            boolean steimError = false;
-            try {
-                ms2 = blks.get(i);
-                int reverse = 0;
-                int[] samples = null;
-                System.arraycopy(ms2.getBuf(), ms2.getDataOffset(), frames, 0, ms2.getBlockSize() - ms2.getDataOffset());
+        // Drop any 1 Hz BH packets and blocks which cannot be decompressed in one pass.
+        BlockFilterChain chain = new BlockFilterChain()
+                .add(BlockFilters.rate())
+                .add(BlockFilters.decodable());
+        if (chain.filter(blks) > 0) {
+            logger.info(nscl + " culled " + chain);
+        }
 
-                if (ms2.getEncoding() == 10) {
-                    samples = Steim1.decode(frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
-                }
-                if (ms2.getEncoding() == 11) {
-                    samples = Steim2.decode(frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
-                }
-            } catch (SteimException e) {
-                steimError = true;
-            }
-            if (Steim2.hadSampleCountError() || steimError) {
-                logger.warning("Culling bad decomp blk=" + ms2);
-                blks.remove(i);
-            }
-            if (Steim2.hadReverseError()) {
-                logger.warning("Fix reverse integration error ms=" + ms2);
-                ms2.fixReverseIntegration();
+        // If a block is bigger that 512 bytes, break it into 512s and use these in place of the block
+        int nbig = 0;
+        for (int i = 0; i < blks.size(); i++) {
+            if (blks.get(i).getBlockSize() > 512) {
+                nbig++;
             }
-
-            // If the block is bigger that 512 bytes, break it into 512s add these to the list and drop this block
-            if (ms2.getBlockSize() > 512) {
-                try {
-                    MiniSeed[] blk512 = ms2.toMiniSeed512();
-                    logger.info("Break up 4k " + ms2);
-                    for (int j = 0; j < blk512.length; j++) {
-                        blks.add(blk512[j]);
+        }
+        if (nbig > 0) {
+            ArrayList<MiniSeed> split = new ArrayList<MiniSeed>(blks.size() + nbig * 7);
+            for (int i = 0; i < blks.size(); i++) {
+                ms2 = blks.get(i);
+                if (ms2.getBlockSize() > 512) {
+                    try {
+                        MiniSeed[] blk512 = ms2.toMiniSeed512();
+                        logger.info("Break up 4k " + ms2);
+                        for (int j = 0; j < blk512.length; j++) {
+                            split.add(blk512[j]);
+                        }
+                        continue;
+                    } catch (IllegalSeednameException e) {
+                        logger.severe("Found a > 512 block with an illegal seedname.  This should be impossilble");
                     }
-                    blks.remove(i);     // take the 4096 off the list
-                } catch (IllegalSeednameException e) {
-                    logger.severe("Found a > 512 block with an illegal seedname.  This should be impossilble");
                 }
+                split.add(ms2);
             }
+            blks.clear();
+            blks.addAll(split);
         }
         if (blks.size() == 0) {
             return;      // discarded all the data, do not create a file
@@ -221,18 +206,28 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
 
         filename = filename.replaceAll("[__]", "_");
         out = new FileOutputStream(filename);
-        Collections.sort(blks);
+        BlockList.sort(blks);
 
         // There is a possibility that we have duplicate blocks, especially on IU stations where 4096 reqrequests
         // overlap the telemetry data.  If this is the case, keep the telemetry block (generally with lowest seq #)
-        for (int i = blks.size() - 1; i > 0; i--) {
-            if (blks.get(i).isDuplicate(blks.get(i - 1))) {
-                logger.info("Remove duplicate block " + blks.get(i).toString() + "\n                       " + blks.get(i - 1).toString());
-                if (blks.get(i).getSequence() < blks.get(i - 1).getSequence()) {
-                    blks.set(i - 1, blks.get(i));
+        // Done in one pass, moving each kept block down over the removed ones.
+        int kept = 0;
+        for (int i = 0; i < blks.size(); i++) {
+            ms2 = blks.get(i);
+            if (kept > 0 && ms2.isDuplicate(blks.get(kept - 1))) {
+                logger.info("Remove duplicate block " + ms2.toString() + "\n                       " + blks.get(kept - 1).toString());
+                if (ms2.getSequence() < blks.get(kept - 1).getSequence()) {
+                    blks.set(kept - 1, ms2);
                 }
-                blks.remove(i);
+                continue;
             }
+            if (kept != i) {
+                blks.set(kept, ms2);
+            }
+            kept++;
+        }
+        for (int i = blks.size() - 1; i >= kept; i--) {
+            blks.remove(i);
         }
 
         double rate = -1.;
@@ -242,17 +237,18 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
         // create some number of runs to put together into a  long one.
         for (int i = 0; i < blks.size(); i++) {
             ms2 = (MiniSeed) blks.get(i);
+            long ms2Start = EpochMicros.start(ms2);     // once, not once per run offered it
             boolean found = false;
             if (ms2.getRate() > rate) {
                 rate = ms2.getRate();
                 if (rate < 0.0000000001) {
-                    gapThreshold = 25;
+                    gapThreshold = 25000;
                 } else {
-                    gapThreshold = (int) (500. / rate + 0.5);
+                    gapThreshold = (long) (500000. / rate + 0.5);
                 }
             }
             for (int j = 0; j < runs.size(); j++) {
-                if (runs.get(j).add(ms2)) {
+                if (runs.get(j).add(ms2, ms2Start)) {
                     found = true;
                     break;
                 }
@@ -261,11 +257,11 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
                 if (ms2.getBlocketteType(0) == 1000 && ms2.getBlocketteType(1) == 1001) {
                     model = ms2;
                     rate = ms2.getRate();
-                    gapThreshold = (int) (500. / rate + 0.5);
+                    gapThreshold = (long) (500000. / rate + 0.5);
                 }
             }
             if (!found) {
-                runs.add(new Run(ms2));
+                runs.add(new Run(ms2, ms2Start));
             }
         }
         Collections.sort(runs);
@@ -276,11 +272,10 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
 		}
 
         // find begining time and ending time of all runs
-        GregorianCalendar curr = runs.get(0).getStart();
-        GregorianCalendar end = runs.get(0).getEnd();
+        long end = runs.get(0).getEndMicros();
         for (int i = 0; i < runs.size(); i++) {
-            if (end.compareTo(runs.get(i).getEnd()) < 0) {
-                end = runs.get(i).getEnd();
+            if (end < runs.get(i).getEndMicros()) {
+                end = runs.get(i).getEndMicros();
             }
         }
 
@@ -312,16 +307,16 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
             int ilatest = -1;
             for (int i = currRun + 1; i < runs.size(); i++) {
                 // check this run for having the earliest start time which also spans the end of th last run
-                if (runs.get(i).getStart().getTimeInMillis() < earliest &&
-                        runs.get(i).getEnd().compareTo(r.getEnd()) > 0) {
-                    earliest = runs.get(i).getStart().getTimeInMillis();
+                if (runs.get(i).getStartMicros() < earliest &&
+                        runs.get(i).getEndMicros() > r.getEndMicros()) {
+                    earliest = runs.get(i).getStartMicros();
                     iearliest = i;
                 }
 
                 // does this run include the ending time of the last one? If so, save it if it end later than best so far
-                if (runs.get(i).getStart().compareTo(r.getEnd()) <= 0 && runs.get(i).getEnd().compareTo(r.getEnd()) >= 0) {
-                    if (runs.get(i).getEnd().getTimeInMillis() > latest) {
-                        latest = runs.get(i).getEnd().getTimeInMillis();
+                if (runs.get(i).getStartMicros() <= r.getEndMicros() && runs.get(i).getEndMicros() >= r.getEndMicros()) {
+                    if (runs.get(i).getEndMicros() > latest) {
+                        latest = runs.get(i).getEndMicros();
                         ilatest = i;
                     }
                 }
@@ -335,18 +330,18 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
                     if (iblk == runs.get(ilatest).getNBlocks()) {
                         break;   // avoid one off the end problems
                     }
-                    if (runs.get(ilatest).getMS(iblk).getGregorianCalendar().compareTo(r.getEnd()) > 0) {
+                    if (runs.get(ilatest).getBlockStart(iblk) > r.getEndMicros()) {
                         break;
                     }
                 }
                 if (iblk != runs.get(ilatest).getNBlocks() ||
                         (iblk == runs.get(ilatest).getNBlocks() &&
-                        runs.get(ilatest).getMS(Math.max(iblk - 1, 0)).getGregorianCalendar().compareTo(r.getEnd()) <= 0) &&
-                        runs.get(ilatest).getMS(Math.max(iblk - 1, 0)).getEndTime().compareTo(r.getEnd()) > 0) {
+                        runs.get(ilatest).getBlockStart(Math.max(iblk - 1, 0)) <= r.getEndMicros()) &&
+                        runs.get(ilatest).getBlockLast(Math.max(iblk - 1, 0)) > r.getEndMicros()) {
                     iblk = iblk - 1;
 
 					logger.fine("ms = " + hmsFormat.print(
-							runs.get(ilatest).getMS(iblk).getGregorianCalendar().getTimeInMillis()) + " r.end=" + hmsFormat.print(r.getEnd().getTimeInMillis()) + " compareTO=" + runs.get(ilatest).getMS(iblk).getGregorianCalendar().compareTo(r.getEnd()) + " ms=" + runs.get(ilatest).getMS(iblk).toString());
+							EpochMicros.toMillis(runs.get(ilatest).getBlockStart(iblk))) + " r.end=" + hmsFormat.print(EpochMicros.toMillis(r.getEndMicros())) + " compareTO=" + Long.signum(runs.get(ilatest).getBlockStart(iblk) - r.getEndMicros()) + " ms=" + runs.get(ilatest).getMS(iblk).toString());
 
 
 					logger.fine(" latest start with =" + runs.get(ilatest).getMS(iblk).toString());
@@ -354,7 +349,7 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
                 } else // In this case leave iblk past end so no blocks are processed.
 
 				logger.fine(
-						"Last one is still before end ms=" + hmsFormat.print(runs.get(ilatest).getMS(iblk - 1).getGregorianCalendar().getTimeInMillis()) + " r.end=" + hmsFormat.print(r.getEnd().getTimeInMillis()) + " compareTO=" + runs.get(ilatest).getMS(iblk - 1).getGregorianCalendar().compareTo(r.getEnd()) + " ms=" + runs.get(ilatest).getMS(iblk - 1).toString());
+						"Last one is still before end ms=" + hmsFormat.print(EpochMicros.toMillis(runs.get(ilatest).getBlockStart(iblk - 1))) + " r.end=" + hmsFormat.print(EpochMicros.toMillis(r.getEndMicros())) + " compareTO=" + Long.signum(runs.get(ilatest).getBlockStart(iblk - 1) - r.getEndMicros()) + " ms=" + runs.get(ilatest).getMS(iblk - 1).toString());
 
                 if (iblk < 0) {
                     iblk = 0;
@@ -457,7 +452,7 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
 
         // add each successive block to output Mini-seed.
         for (int i = 1; i < list.size(); i++) {
-            long start = list.get(i).getGregorianCalendar().getTimeInMillis();
+            long start = EpochMicros.start(list.get(i));
             if (list.get(i).getRate() == 0. || list.get(i).getNsamp() == 0) {
                 write512(list.get(i));      // its a trigger, or other wierd packet, just pass it on
                 continue;
@@ -473,14 +468,14 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
                 System.arraycopy(ms.getBuf(), ms.getDataOffset(), frames, 0, ms.getBlockSize() - ms.getDataOffset());
                 try {
                     if (list.get(i).getEncoding() == 11) {
-                        data = Steim2.decode(frames, ms.getNsamp(), ms.isSwapBytes());
+                        data = steim.decode(11, frames, ms.getNsamp(), ms.isSwapBytes(), 0);
                     }
                     if (list.get(i).getEncoding() == 10) {
-                        data = Steim1.decode(frames, ms.getNsamp(), ms.isSwapBytes());
+                        data = steim.decode(10, frames, ms.getNsamp(), ms.isSwapBytes(), 0);
                     }
 
                     // Figure the offset and do the recompression using RawToMiniSeed
-                    int offset = (int) ((expected - start) * rate / 1000. + 0.5);
+                    int offset = (int) ((expected - start) * rate / 1000000. + 0.5);
                     int newnsamp = ms.getNsamp() - offset;
                     GregorianCalendar sss = ms.getGregorianCalendar();
 
@@ -589,7 +584,7 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
         try {
             out.write(ms.getBuf(), 0, 512);
             if (ms.getNsamp() > 0 && ms.getRate() > 0.) {
-                expected = ms.getGregorianCalendar().getTimeInMillis() + (long) (ms.getNsamp() * 1000. / ms.getRate() + 0.5);
+                expected = EpochMicros.end(ms, EpochMicros.start(ms));
             }
             if (check) {
                 outblks.add(ms);
@@ -757,33 +752,47 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
     class Run implements Comparable<Run> {
 
         ArrayList<MiniSeed> blks;     // List of sequenctial contiuous Mini-seed blocks
-        GregorianCalendar start;      // start time of this run
-        GregorianCalendar end;        // current ending time of this run (expected time of next block)
+        long start;                   // start time of this run in epoch micros
+        long end;                     // current ending time of this run (expected time of next block) in epoch micros
+        long[] blkStarts = new long[100];     // epoch micros of the first sample of each block
+        long[] blkLasts = new long[100];      // epoch micros of the last sample of each block
 
         /** return the start time of the run
-         *@return the start time as GregorianCalendar*/
-        public GregorianCalendar getStart() {
+         *@return the start time in epoch micros*/
+        public long getStartMicros() {
             return start;
         }
 
         /** return the end time of the run (Actually the time of the next expected sample)
-         *@return the end time as GregorianCalendar*/
-        public GregorianCalendar getEnd() {
+         *@return the end time in epoch micros*/
+        public long getEndMicros() {
             return end;
         }
 
+        /** return the time of the first sample of the ith block
+         *@return the time in epoch micros*/
+        public long getBlockStart(int i) {
+            return blkStarts[i];
+        }
+
+        /** return the time of the last sample of the ith block, as MiniSeed.getEndTime()
+         *@return the time in epoch micros*/
+        public long getBlockLast(int i) {
+            return blkLasts[i];
+        }
+
         /** return duration of run in seconds
          *@return The duration of run in seconds*/
         public double getLength() {
-            return (end.getTimeInMillis() - start.getTimeInMillis()) / 1000.;
+            return (end - start) / 1000000.;
         }
 
         /** string representation
          *@return a String representation of this run */
         @Override
         public String toString() {
-            return "Run from " + dtFormat.print(start.getTimeInMillis()) + " to " +
-                    dtFormat.print(end.getTimeInMillis()) + " " + getLength() + " s #blks=" + blks.size();
+            return "Run from " + dtFormat.print(EpochMicros.toMillis(start)) + " to " +
+                    dtFormat.print(EpochMicros.toMillis(end)) + " " + getLength() + " s #blks=" + blks.size();
         }
 
         /** return the ith miniseed block
@@ -802,47 +811,56 @@ public class DCC512Outputer extends Outputer implements MiniSeedOutputHandler {
         /** clear the list (used mainly to free up associated memory)*/
         public void clear() {
             blks.clear();
-            start = null;
-            end = null;
+            start = 0;
+            end = 0;
         }
 
         /** implement Comparable
          *@param the Run to compare this to
          *@return -1 if <, 0 if =, 1 if >than */
         public int compareTo(Run r) {
-            return start.compareTo(((Run) r).getStart());
+            return (start < r.start ? -1 : (start == r.start ? 0 : 1));
         }
 
         /** create a new run with the given miniseed as initial block
-         *@param ms The miniseed block to first include */
-        public Run(MiniSeed ms) {
-            start = ms.getGregorianCalendar();
+         *@param ms The miniseed block to first include
+         *@param msStart The start of ms in epoch micros, EpochMicros.start(ms)*/
+        public Run(MiniSeed ms, long msStart) {
+            start = msStart;
             blks = new ArrayList<MiniSeed>(1000);
-            blks.add(ms);
-            end = ms.getGregorianCalendar();
-            end.setTimeInMillis(end.getTimeInMillis() + ((long) (ms.getNsamp() / ms.getRate() * 1000 + 0.49)));
-
+            put(ms, msStart);
+            end = EpochMicros.end(ms, msStart);
         }
 
         /** see if this miniseed block will add contiguously to the end of this run
          *@param the miniseed block to consider for contiguousnexx, add it if is is
+         *@param msStart The start of ms in epoch micros, EpochMicros.start(ms)
          *@return true, if block was contiguous and was added to this run, false otherwise*/
-        public boolean add(MiniSeed ms) {
+        public boolean add(MiniSeed ms, long msStart) {
 
             // Is the beginning of this one near the end of the last one!
-            if (Math.abs(ms.getGregorianCalendar().getTimeInMillis() - end.getTimeInMillis()) <
-                    500. / ms.getRate()) {
+            if (Math.abs(msStart - end) < 500000. / ms.getRate()) {
                 // add this block to the list
-                blks.add(ms);
+                put(ms, msStart);
                 if (ms.getNsamp() > 0 && ms.getRate() > 0) {
-                    end = ms.getGregorianCalendar();
-                    end.setTimeInMillis(end.getTimeInMillis() +
-                            ((long) (ms.getNsamp() / ms.getRate() * 1000 + 0.49)));
+                    end = EpochMicros.end(ms, msStart);
                 }
                 return true;
             } else {
                 return false;
             }
         }
+
+        /** add the block and cache its first and last sample times */
+        private void put(MiniSeed ms, long msStart) {
+            int n = blks.size();
+            if (n == blkStarts.length) {
+                blkStarts = Arrays.copyOf(blkStarts, n * 2);
+                blkLasts = Arrays.copyOf(blkLasts, n * 2);
+            }
+            blkStarts[n] = msStart;
+            blkLasts[n] = msStart + EpochMicros.duration(ms.getNsamp() - 1, ms.getRate());
+            blks.add(ms);
+        }
     }
 }
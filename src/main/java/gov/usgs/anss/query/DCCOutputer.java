@@ -19,6 +19,7 @@
 package gov.usgs.anss.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.Calendar;
@@ -26,7 +27,6 @@ import java.nio.ByteBuffer;
 import java.io.FileOutputStream;
 import java.text.DecimalFormat;
 import java.io.IOException;
-import edu.iris.Fissures.codec.Steim1;
 import edu.iris.Fissures.codec.Steim2;
 import edu.iris.Fissures.codec.SteimException;
 import gov.usgs.anss.edge.*;
@@ -75,10 +75,10 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
     private DecimalFormat df6;
     private FileOutputStream out, outin;
     private boolean lastPartial;      // Last block added was not a full set of frames, cut off next one
-    private long expected;          // Time in Millis of next expected from
+    private long expected;          // Time in epoch micros of next expected from
     private byte[] rawTime;          // The raw time bytes for the ms being worked on.
     private int frameCount;           // number of frames put in revised buffer
-    private int gapThreshold;         // Threshold in millis for a gap declaration
+    private long gapThreshold;        // Threshold in micros for a gap declaration
     private int minClockQual;         // accumulate the minimum for the timing quality
     private int activityFlags;        // accumulate to OR of activity flags
     private int clockFlags;           // accumulate the OR of clock flags
@@ -97,6 +97,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
     private int sequence;
     private int lastSequence;         // sequence of last block processed
     private byte[] frames;
+    private final SteimDecoder steim = new SteimDecoder();
     private byte[] scratch;
     private ByteBuffer bbscratch;
     private int lastReverse;
@@ -137,50 +138,13 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
         if (blks.get(0).getSeedName().substring(7, 10).equals("ACE")) {
             return;
         }
-        // Before Jan 20, 2007 some HR data had BHN and BHE at 1 hz.  Drop any such packets!
-        // Also cull and packets which cannot be decompressed
-        for (int i = blks.size() - 1; i >= 0; i--) {
-            if (blks.get(i).getRate() < 1.001) {
-                if (blks.get(i).getSeedName().substring(7, 9).equals("BH")) {
-                    logger.info("DCC rate=1 and BH" + blks.get(i).toString());
-                    blks.remove(i);
-                    continue;
-                }
-            }
-
-            ms2 = blks.get(i);
-            if (ms2.getNsamp() == 0 || ms2.getRate() < 0.0001) {
-                blks.remove(i);
-                continue;
-            }
-            // If a block cannot be decompressed, cull it out
-            boolean steimError = false;
-            try {
-                int reverse = 0;
-                int[] samples = null;
-                System.arraycopy(ms2.getBuf(), ms2.getDataOffset(), frames, 0, 4096 - ms2.getDataOffset());
-
-                if (ms2.getEncoding() == 10) {
-                    samples = Steim1.decode(frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
-                }
-                if (ms2.getEncoding() == 11) {
-                    samples = Steim2.decode(frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
-                }
-            } catch (SteimException e) {
-                logger.severe("Got Steim error e=" + e);
-                steimError = true;
-            }
-            if (ms2.getEncoding() == 11) {
-                if (Steim2.hadSampleCountError() || steimError) {
-                    logger.warning("Culling bad Steim II decomp blk ms=" + ms2);
-                    blks.remove(i);
-                    continue;
-                }
-                if (Steim2.hadReverseError()) {
-                    logger.warning("Fix Steim II reverse integration error ms=" + ms2);
-                    ms2.fixReverseIntegration();
-                }
-            }
+        // Drop empty blocks, any 1 Hz BH packets and blocks which cannot be decompressed in one pass.
+        BlockFilterChain chain = new BlockFilterChain()
+                .add(BlockFilters.empty())
+                .add(BlockFilters.rate())
+                .add(BlockFilters.decodable());
+        if (chain.filter(blks) > 0) {
+            logger.info(nscl + " culled " + chain);
         }
         if (blks.size() == 0) {
             return;      // discarded all the data, do not create a file
@@ -214,7 +178,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
 
         filename = filename.replaceAll("[__]", "_");
         out = new FileOutputStream(filename);
-        Collections.sort(blks);
+        BlockList.sort(blks);
 
         double rate = -1.;
         MiniSeed model = null;
@@ -223,19 +187,20 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
         // create some number of runs to put together into a  long one.
         for (int i = 0; i < blks.size(); i++) {
             ms2 = (MiniSeed) blks.get(i);
+            long ms2Start = EpochMicros.start(ms2);     // once, not once per run offered it
             boolean found = false;
             if (ms2.getRate() > rate) {
                 rate = ms2.getRate();
                 rateFactor = ms2.getRateFactor();
                 rateMult = ms2.getRateMultiplier();
                 if (rate < 0.0000000001) {
-                    gapThreshold = 25;
+                    gapThreshold = 25000;
                 } else {
-                    gapThreshold = (int) (500. / rate + 0.5);
+                    gapThreshold = (long) (500000. / rate + 0.5);
                 }
             }
             for (int j = 0; j < runs.size(); j++) {
-                if (runs.get(j).add(ms2)) {
+                if (runs.get(j).add(ms2, ms2Start)) {
                     found = true;
                     break;
                 }
@@ -246,11 +211,11 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                     rate = ms2.getRate();
                     rateFactor = ms2.getRateFactor();
                     rateMult = ms2.getRateMultiplier();
-                    gapThreshold = (int) (500. / rate + 0.5);
+                    gapThreshold = (long) (500000. / rate + 0.5);
                 }
             }
             if (!found) {
-                runs.add(new Run(ms2));
+                runs.add(new Run(ms2, ms2Start));
             }
         }
         Collections.sort(runs);
@@ -261,11 +226,10 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
 		}
 
         // find begining time and ending time of all runs
-        GregorianCalendar curr = runs.get(0).getStart();
-        GregorianCalendar end = runs.get(0).getEnd();
+        long end = runs.get(0).getEndMicros();
         for (int i = 0; i < runs.size(); i++) {
-            if (end.compareTo(runs.get(i).getEnd()) < 0) {
-                end = runs.get(i).getEnd();
+            if (end < runs.get(i).getEndMicros()) {
+                end = runs.get(i).getEndMicros();
             }
         }
 
@@ -297,16 +261,16 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
             int ilatest = -1;
             for (int i = currRun + 1; i < runs.size(); i++) {
                 // check this run for having the earliest start time which also spans the end of th last run
-                if (runs.get(i).getStart().getTimeInMillis() < earliest &&
-                        runs.get(i).getEnd().compareTo(r.getEnd()) > 0) {
-                    earliest = runs.get(i).getStart().getTimeInMillis();
+                if (runs.get(i).getStartMicros() < earliest &&
+                        runs.get(i).getEndMicros() > r.getEndMicros()) {
+                    earliest = runs.get(i).getStartMicros();
                     iearliest = i;
                 }
 
                 // does this run include the ending time of the last one? If so, save it if it end later than best so far
-                if (runs.get(i).getStart().compareTo(r.getEnd()) <= 0 && runs.get(i).getEnd().compareTo(r.getEnd()) >= 0) {
-                    if (runs.get(i).getEnd().getTimeInMillis() > latest) {
-                        latest = runs.get(i).getEnd().getTimeInMillis();
+                if (runs.get(i).getStartMicros() <= r.getEndMicros() && runs.get(i).getEndMicros() >= r.getEndMicros()) {
+                    if (runs.get(i).getEndMicros() > latest) {
+                        latest = runs.get(i).getEndMicros();
                         ilatest = i;
                     }
                 }
@@ -320,26 +284,26 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                     if (iblk == runs.get(ilatest).getNBlocks()) {
                         break;   // avoid one off the end problems
                     }
-                    if (runs.get(ilatest).getMS(iblk).getGregorianCalendar().compareTo(r.getEnd()) > 0) {
+                    if (runs.get(ilatest).getBlockStart(iblk) > r.getEndMicros()) {
                         break;
                     }
                 }
                 if (iblk != runs.get(ilatest).getNBlocks() ||
                         (iblk == runs.get(ilatest).getNBlocks() &&
-                        runs.get(ilatest).getMS(Math.max(iblk - 1, 0)).getGregorianCalendar().compareTo(r.getEnd()) <= 0) &&
-                        runs.get(ilatest).getMS(Math.max(iblk - 1, 0)).getEndTime().compareTo(r.getEnd()) > 0) {
+                        runs.get(ilatest).getBlockStart(Math.max(iblk - 1, 0)) <= r.getEndMicros()) &&
+                        runs.get(ilatest).getBlockLast(Math.max(iblk - 1, 0)) > r.getEndMicros()) {
                     iblk = iblk - 1;
 
-					logger.fine("ms = " + hmsFormat.print(runs.get(ilatest).getMS(iblk).getGregorianCalendar().getTimeInMillis()) + " r.end=" + hmsFormat.print(r.getEnd().getTimeInMillis()) +
-							" compareTO=" + runs.get(ilatest).getMS(iblk).getGregorianCalendar().compareTo(r.getEnd()) + " ms=" + runs.get(ilatest).getMS(iblk).toString());
+					logger.fine("ms = " + hmsFormat.print(EpochMicros.toMillis(runs.get(ilatest).getBlockStart(iblk))) + " r.end=" + hmsFormat.print(EpochMicros.toMillis(r.getEndMicros())) +
+							" compareTO=" + Long.signum(runs.get(ilatest).getBlockStart(iblk) - r.getEndMicros()) + " ms=" + runs.get(ilatest).getMS(iblk).toString());
 
 
 					logger.fine(" latest start with =" + runs.get(ilatest).getMS(iblk).toString());
 
                 } else // In this case leave iblk past end so no blocks are processed.
 
-				logger.fine("Last one is still before end ms=" + hmsFormat.print(runs.get(ilatest).getMS(iblk - 1).getGregorianCalendar().getTimeInMillis()) + " r.end=" + hmsFormat.print(r.getEnd().getTimeInMillis()) +
-						" compareTO=" + runs.get(ilatest).getMS(iblk - 1).getGregorianCalendar().compareTo(r.getEnd()) + " ms=" + runs.get(ilatest).getMS(iblk - 1).toString());
+				logger.fine("Last one is still before end ms=" + hmsFormat.print(EpochMicros.toMillis(runs.get(ilatest).getBlockStart(iblk - 1))) + " r.end=" + hmsFormat.print(EpochMicros.toMillis(r.getEndMicros())) +
+						" compareTO=" + Long.signum(runs.get(ilatest).getBlockStart(iblk - 1) - r.getEndMicros()) + " ms=" + runs.get(ilatest).getMS(iblk - 1).toString());
 
                 if (iblk < 0) {
                     iblk = 0;
@@ -443,7 +407,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
 
         // add each successive block to output Mini-seed.
         for (int i = 0; i < list.size(); i++) {
-            long start = list.get(i).getGregorianCalendar().getTimeInMillis();
+            long start = EpochMicros.start(list.get(i));
 
             // if it continues the current block, just add it on
             if (Math.abs(start - expected) < gapThreshold) {
@@ -455,14 +419,14 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                 System.arraycopy(ms.getBuf(), ms.getDataOffset(), frames, 0, ms.getBlockSize() - ms.getDataOffset());
                 try {
                     if (list.get(i).getEncoding() == 11) {
-                        data = Steim2.decode(frames, ms.getNsamp(), ms.isSwapBytes());
+                        data = steim.decode(11, frames, ms.getNsamp(), ms.isSwapBytes(), 0);
                     }
                     if (list.get(i).getEncoding() == 10) {
-                        data = Steim1.decode(frames, ms.getNsamp(), ms.isSwapBytes());
+                        data = steim.decode(10, frames, ms.getNsamp(), ms.isSwapBytes(), 0);
                     }
 
                     // Figure the offset and do the recompression using RawToMiniSeed
-                    int offset = (int) ((expected - start) * rate / 1000. + 0.5);
+                    int offset = (int) ((expected - start) * rate / 1000000. + 0.5);
                     int newnsamp = ms.getNsamp() - offset;
                     GregorianCalendar sss = ms.getGregorianCalendar();
 
@@ -576,11 +540,11 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
         if (ms.getNsamp() == 0) {
             return;      // nothing to do!
         }
-        if (ms.getGregorianCalendar().getTimeInMillis() >= dropDeadEnd) {
+        if (ms.getTimeInMillis() >= dropDeadEnd) {
             return;    // This packet is past the drop dead time
         }
         do {
-            int maxns = (int) ((86400000L - (ms.getGregorianCalendar().getTimeInMillis() % 86400000L) + ((long) 1000 / ms.getRate() - 1)) * ms.getRate() / 1000);
+            int maxns = (int) ((86400000L - (ms.getTimeInMillis() % 86400000L) + ((long) 1000 / ms.getRate() - 1)) * ms.getRate() / 1000);
             if (maxns < ms.getNsamp()) {    // if we need to shorten this block to make it stop at the day boundardy, do so
 
 				logger.fine("Attempted to make final block too long.  Trimed from " + ms.getNsamp() + " to " + maxns);
@@ -591,10 +555,10 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                     System.arraycopy(ms.getBuf(), ms.getDataOffset(), frames2, 0, 4096 - ms.getDataOffset());
                     int[] samples = null;
                     if (ms.getEncoding() == 10) {
-                        samples = Steim1.decode(frames2, ms.getNsamp(), ms.isSwapBytes(), reverse);
+                        samples = steim.decode(10, frames2, ms.getNsamp(), ms.isSwapBytes(), reverse);
                     }
                     if (ms.getEncoding() == 11) {
-                        samples = Steim2.decode(frames2, ms.getNsamp(), ms.isSwapBytes(), reverse);
+                        samples = steim.decode(11, frames2, ms.getNsamp(), ms.isSwapBytes(), reverse);
                     }
                     // the shortened length reverse integration constant is in the maxnsamp-1 sample
                     //lastReverse = samples[maxnsamp-1];
@@ -742,10 +706,10 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                 int reverse = 0;
                 System.arraycopy(dummy, 64, frames, 0, 4096 - 64);
                 if (ms.getEncoding() == 10) {
-                    samples = Steim1.decode(frames, nsamp + ms.getNsamp(), ms.isSwapBytes(), reverse);
+                    samples = steim.decode(10, frames, nsamp + ms.getNsamp(), ms.isSwapBytes(), reverse);
                 }
                 if (ms.getEncoding() == 11) {
-                    samples = Steim2.decode(frames, nsamp + ms.getNsamp(), ms.isSwapBytes(), reverse);
+                    samples = steim.decode(11, frames, nsamp + ms.getNsamp(), ms.isSwapBytes(), reverse);
                 }
                 lastReverse = samples[samples.length - 1];
             } catch (SteimException e) {
@@ -755,15 +719,15 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
 
             // Would adding this block "as is" cause a reverse constant error (or steim error)?  If so, restore block
             // to state before adding this one, write it out, and make this block the beginning of next output block
-            if (Steim2.hadReverseError() || steimError || Steim2.hadSampleCountError()) {
-                if (Steim2.hadReverseError()) {
-                    logger.warning("addBLock " + Steim2.getReverseError());
+            if (steim.hadReverseError() || steimError || steim.hadSampleCountError()) {
+                if (steim.hadReverseError()) {
+                    logger.warning("addBLock " + steim.getReverseError());
                 }
-                if (Steim2.hadSampleCountError()) {
-                    logger.warning("addBlock " + Steim2.getSampleCountError());
+                if (steim.hadSampleCountError()) {
+                    logger.warning("addBlock " + steim.getSampleCountError());
                 }
                 try {
-                    samples = Steim2.decode(frames, nsamp + ms.getNsamp(), ms.isSwapBytes(), 0);
+                    samples = steim.decode(11, frames, nsamp + ms.getNsamp(), ms.isSwapBytes(), 0);
                 } catch (Exception e) {
                 }
                 System.arraycopy(ms.getBuf(), 64, frames, 0, nf * 64);
@@ -772,7 +736,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                 int ndiff = 0;
                 try {
                     if (ms.getEncoding() == 11) {
-                        aft = Steim2.decode(frames, ms.getNsamp(), ms.isSwapBytes(), 0);
+                        aft = steim.decode(11, frames, ms.getNsamp(), ms.isSwapBytes(), 0);
                     }
                     for (int i = 0; i < ms.getNsamp(); i++) {
                         if (aft[i] - samples[nsamp + i] != lastDiff) {
@@ -817,7 +781,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
             lastSequence = ms.getSequence();
             nsamp += ms.getNsamp();
             frameCount += nf;
-            expected = ms.getGregorianCalendar().getTimeInMillis() + (long) (ms.getNsamp() * 1000. / ms.getRate() + 0.5);
+            expected = EpochMicros.end(ms, EpochMicros.start(ms));
             if (ms2 != null) {
                 writeBlock(ms2);        // forces out using the current block
                 ms = ms2;
@@ -1023,10 +987,10 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                 System.arraycopy(dummy, 64, frames, 0, 4096 - 64);
 
                 if (ms2.getEncoding() == 10) {
-                    samples = Steim1.decode(frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
+                    samples = steim.decode(10, frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
                 }
                 if (ms2.getEncoding() == 11) {
-                    samples = Steim2.decode(frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
+                    samples = steim.decode(11, frames, ms2.getNsamp(), ms2.isSwapBytes(), reverse);
                 }
             } catch (IllegalSeednameException e) {
                 logger.severe("**** final check block gave badd seedname exception e=" + e.getMessage());
@@ -1035,7 +999,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                 steimError = true;
                 logger.severe("**** final check block gave steim decode error. " + e.getMessage());
             }
-            if (!Steim2.hadReverseError() && !Steim2.hadSampleCountError() && !steimError && !badSeedname) {
+            if (!steim.hadReverseError() && !steim.hadSampleCountError() && !steimError && !badSeedname) {
                 try {
                     out.write(dummy, 0, 4096);
                     if (check) {
@@ -1052,8 +1016,8 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
                     System.exit(1);
                 }
             } else {
-                logger.warning("  *** Skip block Steim=" + steimError + " rev=" + Steim2.getReverseError() +
-                        " nsamperr=" + Steim2.getSampleCountError() + " badSeedname=" + badSeedname + "\n   *** Skip " + ms2);
+                logger.warning("  *** Skip block Steim=" + steimError + " rev=" + steim.getReverseError() +
+                        " nsamperr=" + steim.getSampleCountError() + " badSeedname=" + badSeedname + "\n   *** Skip " + ms2);
             }
         }
         for (int i = 80; i < dummy.length; i++) {
@@ -1061,7 +1025,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
         }
         // Initialize the parameters for a new block
         // The maxnsamp is the max # of samples to the mandatory midnight cut off
-        maxnsamp = (int) ((86400000L - (ms.getGregorianCalendar().getTimeInMillis() % 86400000L) + (int) (1000 / ms.getRate() - 1)) / 1000. * ms.getRate());
+        maxnsamp = (int) ((86400000L - (ms.getTimeInMillis() % 86400000L) + (int) (1000 / ms.getRate() - 1)) / 1000. * ms.getRate());
         frameCount = 0;
         minClockQual = 10000;
         activityFlags = 0;
@@ -1069,7 +1033,7 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
         dataQual = 0;
         nsamp = 0;
         usecs = 2000000;
-        expected = ms.getGregorianCalendar().getTimeInMillis();
+        expected = EpochMicros.start(ms);
         rawTime = ms.getRawTimeBuf();
 
         //b1000 = null;
@@ -1095,37 +1059,49 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
     class Run implements Comparable<Run> {
 
         ArrayList<MiniSeed> blks;     // List of sequenctial contiuous Mini-seed blocks
-        GregorianCalendar start;      // start time of this run
-        GregorianCalendar end;        // current ending time of this run (expected time of next block)
+        long start;                   // start time of this run in epoch micros
+        long end;                     // current ending time of this run (expected time of next block) in epoch micros
+        long[] blkStarts = new long[100];     // epoch micros of the first sample of each block
+        long[] blkLasts = new long[100];      // epoch micros of the last sample of each block
 
         /** return the start time of the run
-         *@return the start time as GregorianCalendar*/
-        public GregorianCalendar getStart() {
+         *@return the start time in epoch micros*/
+        public long getStartMicros() {
             return start;
         }
 
         /** return the end time of the run (Actually the time of the next expected sample)
-         *@return the end time as GregorianCalendar*/
-        public GregorianCalendar getEnd() {
+         *@return the end time in epoch micros*/
+        public long getEndMicros() {
             return end;
         }
 
+        /** return the time of the first sample of the ith block
+         *@return the time in epoch micros*/
+        public long getBlockStart(int i) {
+            return blkStarts[i];
+        }
+
+        /** return the time of the last sample of the ith block, as MiniSeed.getEndTime()
+         *@return the time in epoch micros*/
+        public long getBlockLast(int i) {
+            return blkLasts[i];
+        }
+
         /** return duration of run in seconds
          *@return The duration of run in seconds*/
         public double getLength() {
-            return (end.getTimeInMillis() - start.getTimeInMillis()) / 1000.;
+            return (end - start) / 1000000.;
         }
 
-
         /** string representation
          *@return a String representation of this run */
         @Override
         public String toString() {
-            return "Run from " + dtFormat.print(start.getTimeInMillis()) + " to " +
-                    dtFormat.print(end.getTimeInMillis()) + " " + getLength() + " s #blks=" + blks.size();
+            return "Run from " + dtFormat.print(EpochMicros.toMillis(start)) + " to " +
+                    dtFormat.print(EpochMicros.toMillis(end)) + " " + getLength() + " s #blks=" + blks.size();
         }
 
-
         /** return the ith miniseed block
          *@param Index of desired Mini-seed block
          *@return the Miniseed block */
@@ -1142,45 +1118,54 @@ public class DCCOutputer extends Outputer implements MiniSeedOutputHandler {
         /** clear the list (used mainly to free up associated memory)*/
         public void clear() {
             blks.clear();
-            start = null;
-            end = null;
+            start = 0;
+            end = 0;
         }
 
         /** implement Comparable
          *@param the Run to compare this to
          *@return -1 if <, 0 if =, 1 if >than */
         public int compareTo(Run r) {
-            return start.compareTo(((Run) r).getStart());
+            return (start < r.start ? -1 : (start == r.start ? 0 : 1));
         }
 
         /** create a new run with the given miniseed as initial block
-         *@param ms The miniseed block to first include */
-        public Run(MiniSeed ms) {
-            start = ms.getGregorianCalendar();
+         *@param ms The miniseed block to first include
+         *@param msStart The start of ms in epoch micros, EpochMicros.start(ms)*/
+        public Run(MiniSeed ms, long msStart) {
+            start = msStart;
             blks = new ArrayList<MiniSeed>(1000);
-            blks.add(ms);
-            end = ms.getGregorianCalendar();
-            end.setTimeInMillis(end.getTimeInMillis() + ((long) (ms.getNsamp() / ms.getRate() * 1000 + 0.49)));
-
+            put(ms, msStart);
+            end = EpochMicros.end(ms, msStart);
         }
 
         /** see if this miniseed block will add contiguously to the end of this run
          *@param the miniseed block to consider for contiguousnexx, add it if is is
+         *@param msStart The start of ms in epoch micros, EpochMicros.start(ms)
          *@return true, if block was contiguous and was added to this run, false otherwise*/
-        public boolean add(MiniSeed ms) {
+        public boolean add(MiniSeed ms, long msStart) {
 
             // Is the beginning of this one near the end of the last one!
-            if (Math.abs(ms.getGregorianCalendar().getTimeInMillis() - end.getTimeInMillis()) <
-                    500. / ms.getRate()) {
+            if (Math.abs(msStart - end) < 500000. / ms.getRate()) {
                 // add this block to the list
-                blks.add(ms);
-                end = ms.getGregorianCalendar();
-                end.setTimeInMillis(end.getTimeInMillis() +
-                        ((long) (ms.getNsamp() / ms.getRate() * 1000 + 0.49)));
+                put(ms, msStart);
+                end = EpochMicros.end(ms, msStart);
                 return true;
             } else {
                 return false;
             }
         }
+
+        /** add the block and cache its first and last sample times */
+        private void put(MiniSeed ms, long msStart) {
+            int n = blks.size();
+            if (n == blkStarts.length) {
+                blkStarts = Arrays.copyOf(blkStarts, n * 2);
+                blkLasts = Arrays.copyOf(blkLasts, n * 2);
+            }
+            blkStarts[n] = msStart;
+            blkLasts[n] = msStart + EpochMicros.duration(ms.getNsamp() - 1, ms.getRate());
+            blks.add(ms);
+        }
     }
 }
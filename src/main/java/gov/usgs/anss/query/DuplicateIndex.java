@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+/**
+ * Finds duplicate blocks in constant time.  Each block added is remembered
+ * by its seedname, start time, number of samples and the CRC32 of its data
+ * frames, so a later block with the same data is found with one hash
+ * lookup however many blocks have been seen or how far out of order they
+ * are.  Only the keys are held, not the blocks.
+ *
+ * Typical usage would look like:
+ *
+ * if (dups.add(ms)) { ... first time this block has been seen ... }
+ *
+ * @author geoffc
+ */
+public class DuplicateIndex {
+
+    private final HashSet<Key> keys = new HashSet<Key>();
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Remember a block.
+     *
+     * @return true if the block is new, false if it duplicates one already added.
+     */
+    public boolean add(MiniSeed ms) {
+        return add(ms.getBuf(), 0, ms.getBlockSize());
+    }
+
+    /**
+     * Remember a raw record.
+     *
+     * @param buf the record.
+     * @param off the offset of the record in buf.
+     * @param len the length of the record.
+     * @return true if the record is new, false if it duplicates one already added.
+     */
+    public boolean add(byte[] buf, int off, int len) {
+        return keys.add(key(buf, off, len));
+    }
+
+    /**
+     * @return true if a duplicate of the block has been added.
+     */
+    public boolean contains(MiniSeed ms) {
+        return keys.contains(key(ms.getBuf(), 0, ms.getBlockSize()));
+    }
+
+    /**
+     * @return the number of different blocks added.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+
+    private Key key(byte[] buf, int off, int len) {
+        // The data starts at the header's data offset, or after the fixed header if that is not set.
+        int data = MiniSeedHeader.getDataOffset(buf, off);
+        if (data < MiniSeedHeader.FIXED_HEADER || data >= len) {
+            data = MiniSeedHeader.FIXED_HEADER;
+        }
+        crc.reset();
+        crc.update(buf, off + data, len - data);
+        return new Key(NSCL.fromRecord(buf, off), MiniSeedHeader.getStartTenthMillis(buf, off),
+                MiniSeedHeader.getNsamp(buf, off), crc.getValue());
+    }
+
+    private static class Key {
+
+        private final NSCL nscl;
+        private final long start;
+        private final int nsamp;
+        private final long crc;
+
+        Key(NSCL nscl, long start, int nsamp, long crc) {
+            this.nscl = nscl;
+            this.start = start;
+            this.nsamp = nsamp;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return start == other.start && nsamp == other.nsamp && crc == other.crc &&
+                    nscl == other.nscl;       // interned
+        }
+
+        @Override
+        public int hashCode() {
+            long h = start * 31 + nsamp;
+            h = h * 31 + crc;
+            return (int) (h ^ (h >>> 32)) * 31 + nscl.hashCode();
+        }
+    }
+}
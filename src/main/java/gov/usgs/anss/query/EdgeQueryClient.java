@@ -20,19 +20,28 @@ package gov.usgs.anss.query;
 
 import gov.usgs.anss.edge.*;
 import gov.usgs.anss.query.EdgeQueryOptions.OutputType;
+import gov.usgs.anss.query.cwb.data.ConnectionStrategy;
+import gov.usgs.anss.query.cwb.data.MiniSeedFramer;
+import gov.usgs.anss.query.cwb.data.MiniSeedRecord;
+import gov.usgs.anss.query.cwb.data.MiniSeedSelector;
+import gov.usgs.anss.query.cwb.data.SlicedQuery;
 import gov.usgs.anss.query.cwb.holdings.CWBHoldingsServerImpl;
 import gov.usgs.anss.query.outputter.Filename;
 import gov.usgs.anss.seed.MiniSeed;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.GregorianCalendar;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import java.text.DecimalFormat;
 import java.util.Comparator;
 import java.util.TimeZone;
-import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import org.joda.time.DateTime;
@@ -70,7 +79,15 @@ import org.joda.time.format.ISODateTimeFormat;
  *              a full duration of the data.  If -msb is specified, use that block length.
  *        dcc = blocks processed to 4096 to best effort Mini-seed eliminating overlaps, etc.
  *        dcc512 = blocks processed to 512 best effort Mini-seed eliminating overlaps, etc.
+ *        inv = the segments, rates and block counts of each channel from a gaps only query
  * -f filename Use the file command mode.  The list of -s -b -d are in the file one per line
+ * -pipeline n In file command mode keep up to n requests in flight on the connection
+ * -threads n In file command mode run the lines over n connections in parallel
+ * -slice secs Fetch queries longer than secs as slices of secs over several connections
+ * -slicethreads n The number of connections used for -slice (default 4)
+ * -slicenio Read the -slice connections with non-blocking sockets on one thread
+ * -outqueue n Output completed channels on another thread, with up to n waiting
+ * -perf Report the transfer performance (in -f mode the totals over all lines)
  * -h host    The host of the server computer as a name or dotted IP address
  * -p port    The port on which the service is running
  * -msb  blocksize Set the blocksize for msz output
@@ -83,14 +100,15 @@ public class EdgeQueryClient {
 
     static DecimalFormat df2;
     static DecimalFormat df4;
-    static DecimalFormat df6;
     private static final Logger logger = Logger.getLogger(EdgeQueryClient.class.getName());
+    private static final int SELECTOR_READ_AHEAD = 65536;     // bytes read ahead for each -slicenio connection
 
 
     static {
         logger.fine("$Id$");
     }
     private static DateTimeFormatter hmsFormat = ISODateTimeFormat.time().withZone(DateTimeZone.forID("UTC"));
+    private static DateTimeFormatter dtFormat = ISODateTimeFormat.dateTime().withZone(DateTimeZone.forID("UTC"));
 
     /** Creates a new instance of EdgeQueryClient */
     public EdgeQueryClient() {
@@ -103,11 +121,28 @@ public class EdgeQueryClient {
      *@return The ArrayList with ArrayLists of miniseed one for each channel returned.
      */
     public static ArrayList<ArrayList<MiniSeed>> query(EdgeQueryOptions options) {
+        CommandSource source;
+        try {
+            source = new CommandSource(options.getAsReader());
+        } catch (FileNotFoundException ex) {
+            logger.severe("did not find the input file=" + options.filenamein);
+            return null;
+        }
+        if (options.isFileMode() && options.threads > 1) {
+            new ParallelQuery(options).run(source);
+            return null;
+        }
+        return query(options, source, null);
+    }
 
-
-        String line = "";
-
-
+    /** do the queries from source over a single connection.  Several of these may share
+     * a source, each with its own connection and outputters.
+     *@param options The options from the command line (host, port, -pipeline, -perf).
+     *@param source The query lines.
+     *@param report If not null the outcome of each line is added to it.
+     *@return The ArrayList with ArrayLists of miniseed one for each channel returned.
+     */
+    public static ArrayList<ArrayList<MiniSeed>> query(EdgeQueryOptions options, CommandSource source, QueryReport report) {
 
         long msSetup = 0;
         long msConnect = 0;
@@ -119,69 +154,75 @@ public class EdgeQueryClient {
 
         byte[] b = new byte[4096];
         Outputer out = null;
-        if (df6 == null) {
-            df6 = new DecimalFormat("000000");
-        }
-        GregorianCalendar jan_01_2007 = new GregorianCalendar(2007, 0, 1);
+        DecimalFormat df6 = new DecimalFormat("000000");
+        boolean perfMonitor = options.perfMonitor;
 
         ArrayList<ArrayList<MiniSeed>> blksAll = null;
-        String filename = "";
-        BufferedReader infile = null;
 
-        // TODO: Push this into EdgeQueryOptions in favour of a command line iterator.
-        try {
-            infile = new BufferedReader(options.getAsReader());
-        } catch (FileNotFoundException ex) {
-            logger.severe("did not find the input file=" + options.filenamein);
-        }
-
-        // the "in" BufferedReader will give us the command lines we need for the other end
+        // the source will give us the command lines we need for the other end
         try {
             // for each line of input, read it, reformat it with single quotes, send to server
             int nline = 0;
             int totblks = 0;
-            // particularly for the DCC we want this program to not error out if we cannot connect to the server
-            // So make sure we can connect and print messages
-            Socket ds = null;
-            while (ds == null) {
-                try {
-                    ds = new Socket(options.host, options.port);
-                } catch (IOException e) {
-                    ds = null;
-                    if (e != null) {
-                        if (e.getMessage() != null) {
-                            if (e.getMessage().indexOf("Connection refused") >= 0) {
-                                logger.warning("Got a connection refused. " + options.host + "/" + options.port + "  Is the server up?  Wait 20 and try again");
-                            }
-                        } else {
-                            logger.warning("Got IOError opening socket to server e=" + e);
-                        }
-                    } else {
-                        logger.warning("Got IOError opening socket to server e=" + e);
-                    }
-                    try {
-                        Thread.sleep(20000);
-                    } catch (InterruptedException ex) {
-                        // This isn't necessarily a major issue, and for the purposes
-                        // of sleep, we really don't care.
-                        logger.log(Level.FINE, "sleep interrupted.", ex);
-                    }
-                }
+            // particularly for the DCC we want this program to not error out if the server is briefly
+            // unavailable, so retry with backoff (and fail over) until the retry budget is used up.
+            Socket ds;
+            try {
+                ds = ConnectionStrategy.forHost(options.host, options.port).connect();
+            } catch (IOException e) {
+                logger.severe("EQC main: could not connect to the server " + options.host + "/" + options.port + " e=" + e.getMessage());
+                return null;
             }
             InputStream in = ds.getInputStream();        // Get input and output streams
             OutputStream outtcp = ds.getOutputStream();
             msConnect += (System.currentTimeMillis() - startPhase);
             startPhase = System.currentTimeMillis();
-            while ((line = infile.readLine()) != null) {
-                if (line.length() < 2) {
-                    continue;
+
+            // In pipelined mode up to pipelineDepth requests are written ahead of the one
+            // being read.  The server answers them in order, each terminated by <EOR>.
+            // With -outqueue n or -outthreads n completed channels are output on other threads while reading continues.
+            OutputStage stage = null;
+            if (options.outQueue > 0 || options.outThreads != 1) {
+                stage = new OutputStage(options.outQueue, options.outThreads);
+            }
+
+            int pipelineDepth = Math.max(1, options.pipeline);
+            int maxInFlight = 0;
+            LinkedList<PendingRequest> pending = new LinkedList<PendingRequest>();
+            boolean moreLines = true;
+            while (true) {
+                while (moreLines && pending.size() < pipelineDepth) {
+                    CommandSource.CommandLine line = source.next();
+                    if (line == null) {
+                        moreLines = false;
+                        break;
+                    }
+                    nline++;
+                    PendingRequest request = new PendingRequest(line.getNumber(), line.getText());
+                    // Invalid, sac and sliced lines (which run their own queries) are never sent here.
+                    if (request.valid && request.options.getType() != OutputType.sac && !request.options.isSliced()) {
+                        outtcp.write(request.options.getSingleQuotedCommand().getBytes());
+                    }
+                    pending.add(request);
                 }
-                nline++;
+                if (pending.isEmpty()) {
+                    break;
+                }
+                if (pending.size() > maxInFlight) {
+                    maxInFlight = pending.size();
+                }
+                PendingRequest request = pending.removeFirst();
+                long requestStart = System.currentTimeMillis();
 
-                options = new EdgeQueryOptions(line);
-                if (!options.isValid()) {
-                    logger.severe("Error @line " + nline);
-                    return null;
+                options = request.options;
+                // An invalid line is never sent, so it fails on its own and the rest
+                // of the lines are run, whichever connection reads it.
+                if (!request.valid) {
+                    logger.severe("Error @line " + request.line);
+                    if (report != null) {
+                        report.add(request.line, request.text, 0, 0, 0, false);
+                    }
+                    continue;
                 }
 
                 out = options.getOutputter();
@@ -189,26 +230,67 @@ public class EdgeQueryClient {
                     blksAll = new ArrayList<ArrayList<MiniSeed>>(20);
                 } else if (out instanceof SacOutputer) {
 					((SacOutputer) out).doQuery();
+                    if (report != null) {
+                        report.add(request.line, request.text, 0, 0, System.currentTimeMillis() - requestStart, true);
+                    }
 					continue;
 				}
 
                 // The length at which our compare for changes depends on the output file mask
-                Comparator nsclComparator = options.getNsclComparator();
+                Comparator<NSCL> nsclComparator = options.getNsclComparator();
 
                 long maxTime = 0;
                 int ndups = 0;
-                line = options.getSingleQuotedCommand();
                 try {
                     msSetup += (System.currentTimeMillis() - startPhase);
                     startPhase = System.currentTimeMillis();
+                    // A sliced line runs its own queries, and fails like any other line if a slice does.
+                    if (options.isSliced()) {
+                        int[] counts = querySliced(options, out, blksAll);
+                        if (out instanceof InventoryOutputer) {
+                            ((InventoryOutputer) out).writeInventory();
+                        }
+                        totblks += counts[0];
+                        if (report != null) {
+                            report.add(request.line, request.text, counts[0], counts[1], System.currentTimeMillis() - requestStart, true);
+                        }
+                        if (out == null) {
+                            if (stage != null) {
+                                stage.finish();
+                            }
+                            return blksAll;
+                        }
+                        continue;
+                    }
+                    if (out instanceof StreamingOutputer) {
+                        int[] counts = streamResponse(in, b, options, (StreamingOutputer) out);
+                        if (out instanceof InventoryOutputer) {
+                            ((InventoryOutputer) out).writeInventory();
+                        }
+                        totblks += counts[0];
+                        msTransfer += (System.currentTimeMillis() - startPhase);
+                        startPhase = System.currentTimeMillis();
+                        if (!options.quiet && counts[0] > 0) {
+                            logger.info(counts[0] + " Total blocks transferred in " +
+                                    (System.currentTimeMillis() - startTime) + " ms " +
+                                    (counts[0] * 1000L / Math.max(System.currentTimeMillis() - startTime, 1)) + " b/s " + counts[2] + " #dups=" + counts[1]);
+                        }
+                        if (report != null) {
+                            report.add(request.line, request.text, counts[0], counts[1], System.currentTimeMillis() - requestStart, true);
+                        }
+                        continue;
+                    }
                     boolean perfStart = true;
-                    outtcp.write(line.getBytes());
                     int iblk = 0;
                     NSCL nscl = null;
                     boolean eof = false;
                     MiniSeed ms = null;
                     int npur = 0;
-                    ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>(100);
+                    BlockList blks = new BlockList(100);
+                    DuplicateIndex dups = new DuplicateIndex();     // the blocks of the channel in blks
+                    // With -heapbudget the channel is collected in spill rather than blks, within the budget.
+                    SpillingAccumulator spill = (options.heapBudget > 0 && out != null ?
+                            new SpillingAccumulator(options.heapBudget) : null);
 
                     while (!eof) {
                         try {
@@ -222,12 +304,18 @@ public class EdgeQueryClient {
                                     logger.fine("EOR found");
 
                                 } else {
-                                    ms = new MiniSeed(b);
-                                    logger.finest("" + ms);
-                                    if (!options.gapsonly && ms.getBlockSize() != 512) {
-                                        read(in, b, 512, ms.getBlockSize() - 512);
+                                    // The record length is in the raw header, so only make the MiniSeed once
+                                    // and give it only the record rather than all of b.
+                                    if (options.gapsonly) {
                                         ms = new MiniSeed(b);
+                                    } else {
+                                        int length = recordLength(b);
+                                        if (length > 512) {
+                                            read(in, b, 512, length - 512);
+                                        }
+                                        ms = new MiniSeed(b, 0, length);
                                     }
+                                    logger.finest("" + ms);
                                     iblk++;
                                     totblks++;
                                 }
@@ -252,14 +340,21 @@ public class EdgeQueryClient {
                             }
 
                             if (eof || (nscl != null &&
-                                    (ms == null ? true : nsclComparator.compare(nscl, NSCL.stringToNSCL(ms.getSeedName())) != 0))) {
+                                    (ms == null ? true : nsclComparator.compare(nscl, NSCL.fromRecord(ms.getBuf(), 0)) != 0))) {
                                 msTransfer += (System.currentTimeMillis() - startPhase);
                                 startPhase = System.currentTimeMillis();
                                 if (!options.quiet) {
                                     // TODO could go into a helper method
                                     int nsgot = 0;
-                                    if (blks.size() > 0) {
-                                        Collections.sort(blks);
+                                    if (spill != null && spill.size() > 0) {
+                                        System.out.print('\r');
+                                        logger.info(hmsFormat.print(System.currentTimeMillis()) + " Query on " + nscl + " " +
+                                                df6.format(spill.size()) + " mini-seed blks " +
+                                                spill.getFirst().getTimeString() + " " +
+                                                spill.getLast().getEndTimeString() + " " +
+                                                " ns=" + spill.getNsamp());
+                                    } else if (blks.size() > 0) {
+                                        blks.sort();
                                         logger.finer(blks.size() + " " + iblk);
                                         for (int i = 0; i < blks.size(); i++) {
                                             nsgot += (blks.get(i)).getNsamp();
@@ -282,61 +377,34 @@ public class EdgeQueryClient {
 
                                 }
 
-                                if (blks.size() > 0) {
-                                    MiniSeed ms2 = blks.get(0);
+                                if (spill != null && spill.size() > 0) {
+                                    if (stage != null) {     // hand the channel to the output thread
+                                        stage.submit(options, out, nscl, spill);
+                                        spill = new SpillingAccumulator(options.heapBudget);
+                                    } else {
+                                        try {
+                                            npur += outputChannel(options, out, nscl, spill);
+                                        } finally {
+                                            spill.close();
+                                        }
+                                    }
+                                } else if (blks.size() > 0) {
                                     if (out == null) {     // Get the array list output
                                         ArrayList<MiniSeed> newBlks = new ArrayList<MiniSeed>(blks.size());
                                         for (int i = 0; i < blks.size(); i++) {
                                             newBlks.add(i, blks.get(i));
                                         }
                                         blksAll.add(newBlks);
+                                    } else if (stage != null) {     // hand the channel to the output thread
+                                        stage.submit(options, out, nscl, blks);
+                                        blks = new BlockList(100);
                                     } else {      // create the output file
-                                        if (options.getType() == OutputType.ms ||
-                                                options.getType() == OutputType.dcc ||
-                                                options.getType() == OutputType.dcc512 ||
-                                                options.getType() == OutputType.msz) {
-                                            filename = Filename.makeFilename(options.filemask, nscl, ms2);
-                                        } else {
-                                            filename = Filename.makeFilename(options.filemask, nscl, options.getBegin());
-                                        }
-
-                                        //filename = lastComp;
-                                        // TODO - should happen in the makeFilename methods.
-                                        filename = filename.replaceAll(" ", "_");
-
-                                        logger.finest(((MiniSeed) blks.get(0)).getTimeString() + " to " +
-                                                ((MiniSeed) blks.get(blks.size() - 1)).getTimeString() +
-                                                " " + (((MiniSeed) blks.get(0)).getGregorianCalendar().getTimeInMillis() -
-                                                ((MiniSeed) blks.get(blks.size() - 1)).getGregorianCalendar().getTimeInMillis()) / 1000L);
-
-                                        // Due to a foul up in data in Nov, Dec 2006 it is possible the Q330s got the
-                                        // same baler block twice, but the last 7 512's of the block zeroed and the other
-                                        // correct.  Find these and purge the bad ones.
-
-                                        if (!options.gapsonly) {
-                                            for (int i = blks.size() - 1; i >= 0; i--) {
-                                                if (blks.get(i).getBlockSize() == 4096 && // Has to be a big block or it does not happen
-                                                        blks.get(i).getGregorianCalendar().compareTo(jan_01_2007) < 0 &&
-                                                        blks.get(i).getUsedFrameCount() < blks.get(i).getB1001FrameCount() &&
-                                                        blks.get(i).getUsedFrameCount() <= 7 && blks.get(i).getB1001FrameCount() > 7) {
-                                                    blks.remove(i);
-                                                    npur++;
-                                                }
-                                            }
-                                        }
-                                        logger.finer("Found " + npur + " recs with on first block of 4096 valid");
-                                        blks.trimToSize();
-                                        //for(int i=0; i<blks.size(); i++) logger.finest(((MiniSeed) blks.get(i)).toString());
-                                        // TODO: Change the signature to pass options only once.
-
-                                        out.makeFile(nscl, filename, blks);
+                                        npur += makeFile(options, out, nscl, blks);
                                     }
                                 }
                                 maxTime = 0;
-                                if (blks.size() > 0) {
-                                    blks.clear();
-                                    System.gc();        // Lots of memory just abandoned.  Try garbage collector
-                                }
+                                dups.clear();
+                                blks.clear();
                                 msOutput += (System.currentTimeMillis() - startPhase);
                                 startPhase = System.currentTimeMillis();
                             }
@@ -346,47 +414,57 @@ public class EdgeQueryClient {
                             //    ms.getSeedName().substring(0,compareLength))) blks.clear();
                             /* in late 2007 there was some files which were massively duplicated by block.
                              * to prevent this from blowing memory when there are so may we eliminate and duplicate
-                             * blocks here.  If it is massively out of order , all of these block checks will slow things
-                             * down.
+                             * blocks here.  The DuplicateIndex makes each check one hash lookup so massively
+                             * out of order channels do not slow things down.
                              **/
 
 
-                            boolean isDuplicate = false;
                             if (ms != null) {
+                                boolean zapped = ms.getIndicator().compareTo("D ") < 0;  // If its not D or better, its been zapped!
                                 if (ms.getTimeInMillis() <= maxTime) {    // No need to check duplicates if this is newest seen
-                                    if (!options.gapsonly) {
-                                        if (blks.size() >= 1) {
-                                            for (int i = blks.size() - 1; i >= 0; i--) {
-                                                if (ms.isDuplicate(blks.get(i))) {
-                                                    isDuplicate = true;
-                                                    break;
-                                                }
-                                            }
+                                    if (!zapped && (options.gapsonly || dups.add(ms))) {
+                                        if (spill != null) {
+                                            spill.add(ms);
+                                        } else {
+                                            blks.add(ms);
                                         }
-                                    }
-                                    if (!isDuplicate && ms.getIndicator().compareTo("D ") >= 0) {
-                                        blks.add(ms);
                                     } else {
                                         ndups++;
                                     }
                                 } else {
-                                    if (ms.getIndicator().compareTo("D ") >= 0) {
-                                        blks.add(ms); // If its not D or better, its been zapped!
+                                    if (!zapped) {
+                                        if (spill != null) {
+                                            spill.add(ms);
+                                        } else {
+                                            blks.add(ms);
+                                        }
+                                        if (!options.gapsonly) {
+                                            dups.add(ms);
+                                        }
                                     }
                                     maxTime = ms.getTimeInMillis();
                                 }
-                                nscl = NSCL.stringToNSCL(ms.getSeedName());
+                                nscl = NSCL.fromRecord(ms.getBuf(), 0);
                             }
                         } catch (IllegalSeednameException e) {
                             logger.severe("Seedname exception making a seed record e=" + e.getMessage());
                         }
                     }   // while(!eof)
+                    if (stage != null) {
+                        stage.endLine(out);
+                    }
                     if (!options.quiet && iblk > 0) {
                         logger.info(iblk + " Total blocks transferred in " +
                                 (System.currentTimeMillis() - startTime) + " ms " +
                                 (iblk * 1000L / Math.max(System.currentTimeMillis() - startTime, 1)) + " b/s " + npur + " #dups=" + ndups);
                     }
+                    if (report != null) {
+                        report.add(request.line, request.text, iblk, ndups, System.currentTimeMillis() - requestStart, true);
+                    }
                     if (out == null) {
+                        if (stage != null) {
+                            stage.finish();
+                        }
                         return blksAll;      // If called in no file output mode, return the blocks
                     }
                     blks.clear();
@@ -397,6 +475,9 @@ public class EdgeQueryClient {
                     }
                     return null;
                 } catch (IOException e) {
+                    if (report != null) {
+                        report.add(request.line, request.text, 0, ndups, System.currentTimeMillis() - requestStart, false);
+                    }
                     if (e.getMessage().equalsIgnoreCase("Connection refused")) {
                         logger.severe("The connection was refused.  Server is likely down or is blocked. This should never happen.");
                         return null;
@@ -407,7 +488,10 @@ public class EdgeQueryClient {
                         }
                     }
                 }
-            }       // End of readline
+            }       // End of pending requests
+            if (stage != null) {
+                stage.finish();
+            }
             outtcp.write("\n".getBytes());      // Send end of request marker to query
             if (ds.isClosed()) {
                 try {
@@ -415,10 +499,11 @@ public class EdgeQueryClient {
                 } catch (IOException e) {
                 }
             }
-            if (options.perfMonitor) {
+            if (perfMonitor || options.perfMonitor) {
                 long msEnd = System.currentTimeMillis() - startPhase;
                 logger.info("Perf setup=" + msSetup + " connect=" + msConnect + " Cmd=" + msCommand + " xfr=" + msTransfer + " out=" + msOutput +
-                        " last=" + msEnd + " tot=" + (msSetup + msConnect + msTransfer + msOutput + msEnd) + " #blks=" + totblks + " #lines=" + nline);
+                        " last=" + msEnd + " tot=" + (msSetup + msConnect + msTransfer + msOutput + msEnd) + " #blks=" + totblks + " #lines=" + nline +
+                        " pipeline=" + pipelineDepth + " maxInFlight=" + maxInFlight + (stage == null ? "" : " " + stage));
             }
             return null;
         } catch (IOException e) {
@@ -427,6 +512,463 @@ public class EdgeQueryClient {
         return null;
     }
 
+    /** Get the inventory of the channels matching a query from a gaps only query, which
+     * transfers only the first 64 bytes of each block.
+     *@param options The options for the query, the seedname, begin and duration are used.
+     *@return The segments, rates and block counts for each channel.
+     *@throws IOException if the server cannot be reached or the response ends early.
+     */
+    public static Inventory queryInventory(EdgeQueryOptions options) throws IOException {
+        options.setType(OutputType.inv);
+        InventoryOutputer out = new InventoryOutputer(options);
+        Socket ds = ConnectionStrategy.forHost(options.host, options.port).connect();
+        try {
+            OutputStream outtcp = ds.getOutputStream();
+            outtcp.write(options.getSingleQuotedCommand().getBytes());
+            streamResponse(ds.getInputStream(), new byte[4096], options, out);
+            outtcp.write("\n".getBytes());      // Send end of request marker to query
+        } finally {
+            ds.close();
+        }
+        return out.getInventory();
+    }
+
+    /** Name the output file for a channel, drop any bad Q330 blocks and output it.
+     *@param options The options for the query line.
+     *@param out The outputter for the query line.
+     *@param nscl The channel.
+     *@param blks The sorted blocks for the channel.
+     *@return The number of bad Q330 blocks purged.
+     */
+    static int makeFile(EdgeQueryOptions options, Outputer out, NSCL nscl, ArrayList<MiniSeed> blks)
+            throws IOException {
+        String filename = channelFilename(options, nscl, blks.get(0));
+
+        logger.finest(((MiniSeed) blks.get(0)).getTimeString() + " to " +
+                ((MiniSeed) blks.get(blks.size() - 1)).getTimeString() +
+                " " + (((MiniSeed) blks.get(0)).getGregorianCalendar().getTimeInMillis() -
+                ((MiniSeed) blks.get(blks.size() - 1)).getGregorianCalendar().getTimeInMillis()) / 1000L);
+
+        // Due to a foul up in data in Nov, Dec 2006 it is possible the Q330s got the
+        // same baler block twice, but the last 7 512's of the block zeroed and the other
+        // correct.  Find these and purge the bad ones.
+        int npur = 0;
+        if (!options.gapsonly) {
+            npur = new BlockFilterChain().add(BlockFilters.q330()).filter(blks);
+        }
+        logger.finer("Found " + npur + " recs with on first block of 4096 valid");
+        blks.trimToSize();
+        //for(int i=0; i<blks.size(); i++) logger.finest(((MiniSeed) blks.get(i)).toString());
+        // TODO: Change the signature to pass options only once.
+
+        out.makeFile(nscl, filename, blks);
+        return npur;
+    }
+
+    /** Output the blocks of a channel from an accumulator to a StreamingOutputer in order,
+     * dropping any bad Q330 blocks as makeFile() does.
+     *@param options The options for the query line.
+     *@param out The outputter for the query line.
+     *@param nscl The channel.
+     *@param blks The blocks for the channel.
+     *@return The number of bad Q330 blocks purged.
+     */
+    static int streamChannel(EdgeQueryOptions options, StreamingOutputer out, NSCL nscl, SpillingAccumulator blks)
+            throws IOException {
+        BlockFilterChain chain = new BlockFilterChain();
+        if (!options.gapsonly) {
+            chain.add(BlockFilters.q330());
+        }
+        boolean begun = false;
+        SpillingAccumulator.Merge merge = blks.merge();
+        try {
+            while (merge.hasNext()) {
+                MiniSeed ms = merge.next();
+                if (!chain.accept(ms)) {
+                    continue;
+                }
+                if (!begun) {
+                    out.beginChannel(nscl, channelFilename(options, nscl, ms));
+                    begun = true;
+                }
+                out.acceptBlock(ms);
+            }
+        } finally {
+            merge.close();
+        }
+        if (begun) {
+            out.endChannel();
+        }
+        logger.finer("Found " + chain.getDropped() + " recs with on first block of 4096 valid");
+        return chain.getDropped();
+    }
+
+    /** Output the blocks of a channel from an accumulator in order.  A StreamingOutputer is
+     * streamed the merged blocks and a SortedOutputer reads them as they are merged.  Other
+     * outputters need them all in a list, so -heapbudget does not limit what they hold.
+     *@param options The options for the query line.
+     *@param out The outputter for the query line.
+     *@param nscl The channel.
+     *@param blks The blocks for the channel.
+     *@return The number of bad Q330 blocks purged.
+     */
+    static int outputChannel(EdgeQueryOptions options, Outputer out, NSCL nscl, SpillingAccumulator blks)
+            throws IOException {
+        if (blks.isSpilled()) {
+            logger.fine(nscl + " spilled " + blks);
+        }
+        if (out instanceof StreamingOutputer) {
+            return streamChannel(options, (StreamingOutputer) out, nscl, blks);
+        }
+        if (out instanceof SortedOutputer) {
+            return mergeChannel(options, (SortedOutputer) out, nscl, blks);
+        }
+        return makeFile(options, out, nscl, blks.toList());
+    }
+
+    /** Output the blocks of a channel from an accumulator to a SortedOutputer as they are merged,
+     * dropping any bad Q330 blocks as makeFile() does.
+     *@return The number of bad Q330 blocks purged.
+     */
+    static int mergeChannel(EdgeQueryOptions options, SortedOutputer out, NSCL nscl, SpillingAccumulator blks)
+            throws IOException {
+        BlockFilterChain chain = new BlockFilterChain();
+        if (!options.gapsonly) {
+            chain.add(BlockFilters.q330());
+        }
+        MergedBlocks merged = new MergedBlocks(blks.merge(), chain);
+        try {
+            if (merged.hasNext()) {
+                out.makeFile(nscl, channelFilename(options, nscl, merged.peek()), merged);
+            }
+        } finally {
+            merged.close();
+        }
+        merged.checkError();
+        logger.finer("Found " + chain.getDropped() + " recs with on first block of 4096 valid");
+        return chain.getDropped();
+    }
+
+    /** The output file name for a channel whose first block is ms.
+     */
+    static String channelFilename(EdgeQueryOptions options, NSCL nscl, MiniSeed ms) {
+        String filename;
+        if (options.getType() == OutputType.ms ||
+                options.getType() == OutputType.dcc ||
+                options.getType() == OutputType.dcc512 ||
+                options.getType() == OutputType.msz) {
+            filename = Filename.makeFilename(options.filemask, nscl, ms);
+        } else {
+            filename = Filename.makeFilename(options.filemask, nscl, options.getBegin());
+        }
+        // TODO - should happen in the makeFilename methods.
+        return filename.replaceAll(" ", "_");
+    }
+
+    /** Read the response to a query line passing each block straight to a StreamingOutputer,
+     * so no blocks of a channel are held however long the request.
+     * Blocks are dropped as in the query loop: zapped blocks, duplicates (of any of the
+     * blocks of the channel, found by their keys in a DuplicateIndex) and bad Q330 blocks.
+     * Each block is read as a MiniSeedRecord and these checks only read its header, so for
+     * a RecordOutputer no MiniSeed is made except for the odd 4096 byte block from before
+     * 2007 that needs the Q330 check, and the first block of a channel for its filename.
+     *@param in The stream from the server.
+     *@param b A buffer for reading blocks.
+     *@param options The options for the query line.
+     *@param out The outputter.
+     *@return The number of blocks read, duplicates dropped and Q330 blocks purged.
+     */
+    private static int[] streamResponse(InputStream in, byte[] b, EdgeQueryOptions options, StreamingOutputer out)
+            throws IOException {
+        Comparator<NSCL> nsclComparator = options.getNsclComparator();
+        RecordOutputer records = (out instanceof RecordOutputer ? (RecordOutputer) out : null);
+        DuplicateIndex dups = new DuplicateIndex();
+        BlockFilter q330 = BlockFilters.q330();
+        NSCL nscl = null;
+        MiniSeedRecord first = null;
+        MiniSeedRecord last = null;
+        int iblk = 0;
+        int ndups = 0;
+        int npur = 0;
+        int nchan = 0;
+        long nsgot = 0;
+
+        while (true) {
+            if (!read(in, b, 0, (options.gapsonly ? 64 : 512))) {
+                throw new EOFException("Unexpected EOF Found");
+            }
+            if (b[0] == '<' && b[1] == 'E' && b[2] == 'O' && b[3] == 'R' && b[4] == '>') {
+                logger.fine("EOR found");
+                break;
+            }
+            int length = 64;
+            if (!options.gapsonly) {
+                length = recordLength(b);
+                if (length > 512) {
+                    read(in, b, 512, length - 512);
+                }
+            }
+            MiniSeedRecord rec;
+            try {
+                if (records != null) {
+                    rec = new MiniSeedRecord(b, 0, length);
+                } else {
+                    rec = MiniSeedRecord.wrap(options.gapsonly ? new MiniSeed(b) : new MiniSeed(b, 0, length));
+                }
+                iblk++;
+                if (!options.quiet && iblk % 1000 == 0) {
+                    // This is a user-feedback counter.
+                    System.out.print("\r            \r" + iblk + "...");
+                }
+
+                NSCL msNscl = rec.getNSCL();
+                if (nscl != null && nsclComparator.compare(nscl, msNscl) != 0) {
+                    out.endChannel();
+                    logStreamedChannel(options, nscl, nchan, first, last, nsgot);
+                    nscl = null;
+                    dups.clear();
+                }
+                if (rec.isZapped()) {
+                    continue;       // If its not D or better, its been zapped!
+                }
+                if (!options.gapsonly) {
+                    if (!dups.add(rec.getBuf(), 0, rec.getBlockSize())) {
+                        ndups++;
+                        continue;
+                    }
+                    // Only big blocks can be bad Q330 blocks, so only these need a MiniSeed to check.
+                    if (rec.getBlockSize() == 4096 && !q330.accept(rec.toMiniSeed())) {
+                        npur++;
+                        continue;
+                    }
+                }
+
+                if (nscl == null) {
+                    nscl = msNscl;
+                    String filename;
+                    if (options.getType() == OutputType.ms) {
+                        filename = Filename.makeFilename(options.filemask, nscl, rec.toMiniSeed());
+                    } else {
+                        filename = Filename.makeFilename(options.filemask, nscl, options.getBegin());
+                    }
+                    out.beginChannel(nscl, filename.replaceAll(" ", "_"));
+                    nchan = 0;
+                    nsgot = 0;
+                    first = rec;
+                }
+                if (records != null) {
+                    records.acceptRecord(rec);
+                } else {
+                    out.acceptBlock(rec.toMiniSeed());
+                }
+            } catch (IllegalSeednameException e) {
+                logger.severe("Seedname exception making a seed record e=" + e.getMessage());
+                continue;
+            }
+            nchan++;
+            nsgot += rec.getNsamp();
+            last = rec;
+        }
+        if (nscl != null) {
+            out.endChannel();
+            logStreamedChannel(options, nscl, nchan, first, last, nsgot);
+        } else if (!options.quiet) {
+            logger.info("Query on " + options.getSeedname() + " returned 0 blocks!");
+        }
+        return new int[]{iblk, ndups, npur};
+    }
+
+    private static void logStreamedChannel(EdgeQueryOptions options, NSCL nscl, int nblks, MiniSeedRecord first,
+            MiniSeedRecord last, long nsgot) {
+        if (!options.quiet) {
+            long end = last.getStartMillis();
+            if (last.getRate() > 0.) {
+                end += (long) (last.getNsamp() * 1000. / last.getRate() + 0.5);
+            }
+            System.out.print('\r');
+            logger.info(hmsFormat.print(System.currentTimeMillis()) + " Query on " + nscl + " " +
+                    new DecimalFormat("000000").format(nblks) + " mini-seed blks " +
+                    dtFormat.print(first.getStartMillis()) + " " + dtFormat.print(end) + "  ns=" + nsgot);
+        }
+    }
+
+    /** Run a long query line as time slices over several connections (-slice, -slicethreads).
+     * With -slicenio the connections are read by one MiniSeedSelector thread.
+     * The slices arrive in time order with the blocks repeated at slice boundaries removed,
+     * so each channel is already sorted.  For a StreamingOutputer the first channel is
+     * streamed each slice as it arrives, so a single channel query holds no more than the
+     * slices fetched ahead.  Other channels, and all channels for other outputters, are
+     * each held in a SpillingAccumulator, so past -heapbudget they go to disk, and are
+     * output with outputChannel() once the last slice is in.
+     *@param options The options for the query line.
+     *@param out The outputter, or null to add each channel to blksAll.
+     *@param blksAll The channels returned when out is null.
+     *@return The number of blocks and the number of boundary duplicates dropped.
+     */
+    private static int[] querySliced(EdgeQueryOptions options, Outputer out, ArrayList<ArrayList<MiniSeed>> blksAll)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        Comparator<NSCL> nsclComparator = options.getNsclComparator();
+        TreeMap<NSCL, SpillingAccumulator> channels = new TreeMap<NSCL, SpillingAccumulator>(nsclComparator);
+        StreamingOutputer streaming = (out instanceof StreamingOutputer ? (StreamingOutputer) out : null);
+        NSCL streamed = null;
+        BlockFilterChain chain = new BlockFilterChain();
+        if (!options.gapsonly) {
+            chain.add(BlockFilters.q330());
+        }
+        int nblks = 0;
+        SlicedQuery sliced = new SlicedQuery(options.host, options.port, options.sliceThreads);
+        MiniSeedSelector selector = null;
+        try {
+            if (options.sliceNio) {
+                selector = new MiniSeedSelector(SELECTOR_READ_AHEAD);
+                selector.start();
+                sliced.setSelector(selector);
+            }
+            sliced.query(options.getBegin(), options.getDuration(), options.getSeedname(), options.slice);
+            while (sliced.hasNext()) {
+                for (TreeSet<MiniSeed> blks : sliced.next()) {
+                    NSCL nscl = NSCL.fromRecord(blks.first().getBuf(), 0);
+                    nblks += blks.size();
+                    if (streaming != null && (streamed == null || nsclComparator.compare(streamed, nscl) == 0)) {
+                        for (MiniSeed ms : blks) {
+                            if (!chain.accept(ms)) {
+                                continue;
+                            }
+                            if (streamed == null) {
+                                streaming.beginChannel(nscl, channelFilename(options, nscl, ms));
+                                streamed = nscl;
+                            }
+                            streaming.acceptBlock(ms);
+                        }
+                        continue;
+                    }
+                    SpillingAccumulator channel = channels.get(nscl);
+                    if (channel == null) {
+                        channel = new SpillingAccumulator(options.heapBudget);
+                        channels.put(nscl, channel);
+                    }
+                    for (MiniSeed ms : blks) {
+                        channel.add(ms);
+                    }
+                }
+            }
+            if (streamed != null) {
+                streaming.endChannel();
+            }
+
+            for (Map.Entry<NSCL, SpillingAccumulator> channel : channels.entrySet()) {
+                SpillingAccumulator blks = channel.getValue();
+                if (out == null) {
+                    blksAll.add(blks.toList());
+                } else {
+                    outputChannel(options, out, channel.getKey(), blks);
+                }
+                blks.close();
+            }
+        } finally {
+            sliced.close();
+            if (selector != null) {
+                selector.close();
+            }
+            for (SpillingAccumulator blks : channels.values()) {
+                blks.close();
+            }
+        }
+        if (!options.quiet) {
+            logger.info(nblks + " Total blocks transferred in " + sliced.getSliceCount() + " slices of " +
+                    options.slice + " s in " + (System.currentTimeMillis() - start) + " ms #dups=" +
+                    sliced.getDuplicateCount());
+        }
+        return new int[]{nblks, sliced.getDuplicateCount()};
+    }
+
+    /** A command file line that has been parsed, and unless it is invalid or a sac
+     * request written to the server, but whose response has not yet been read.
+     */
+    private static class PendingRequest {
+
+        final int line;
+        final String text;
+        final EdgeQueryOptions options;
+        final boolean valid;
+
+        PendingRequest(int line, String text) {
+            this.line = line;
+            this.text = text;
+            this.options = new EdgeQueryOptions(text);
+            this.valid = options.isValid();
+        }
+    }
+
+    /** The blocks of a merge that pass a filter chain as an Iterator, for a SortedOutputer.
+     * Iterator cannot throw an IOException, so a run that cannot be read ends the
+     * blocks early and is thrown by checkError() once the outputter is done.
+     */
+    private static class MergedBlocks implements Iterator<MiniSeed> {
+
+        private final SpillingAccumulator.Merge merge;
+        private final BlockFilterChain chain;
+        private MiniSeed head = null;
+        private IOException error = null;
+
+        MergedBlocks(SpillingAccumulator.Merge merge, BlockFilterChain chain) {
+            this.merge = merge;
+            this.chain = chain;
+        }
+
+        public boolean hasNext() {
+            while (head == null && error == null && merge.hasNext()) {
+                try {
+                    MiniSeed ms = merge.next();
+                    if (chain.accept(ms)) {
+                        head = ms;
+                    }
+                } catch (IOException ex) {
+                    error = ex;
+                }
+            }
+            return head != null;
+        }
+
+        /**
+         * @return the next block without taking it.
+         */
+        MiniSeed peek() {
+            return (hasNext() ? head : null);
+        }
+
+        public MiniSeed next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            MiniSeed ms = head;
+            head = null;
+            return ms;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void close() {
+            merge.close();
+        }
+
+        void checkError() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * The length of the record whose first 512 bytes are in b, no longer than b.
+     */
+    private static int recordLength(byte[] b) {
+        return Math.min(b.length, MiniSeedFramer.recordLength(ByteBuffer.wrap(b), 0, 512));
+    }
+
     public static boolean read(InputStream in, byte[] b, int off, int l)
             throws IOException {
         int len;
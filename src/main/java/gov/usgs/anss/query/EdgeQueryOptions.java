@@ -63,6 +63,7 @@ public class EdgeQueryOptions {
         dcc512,
         HOLD,
         text,
+        inv,
         NULL;
     }
     private static String beginFormat = "YYYY/MM/dd HH:mm:ss";
@@ -113,6 +114,14 @@ public class EdgeQueryOptions {
     public String holdingType = "CWB";
     public boolean showIllegals = false;
     public boolean perfMonitor = false;
+    public int pipeline = 1;           // number of requests in flight, only used in -f mode
+    public int threads = 1;            // number of parallel connections, only used in -f mode
+    public double slice = 0.;          // split longer queries into slices of this many seconds, 0 is off
+    public int sliceThreads = 4;       // number of connections used to fetch slices
+    public boolean sliceNio = false;   // read the slice connections on one selector thread
+    public int outQueue = 0;           // channels waiting for the output thread, 0 to output as read
+    public int outThreads = 1;         // threads writing channels, 0 for one per processor
+    public long heapBudget = 0;        // bytes of blocks a channel may hold before spilling to disk, 0 is no limit
     public boolean chkDups = false;
     public boolean sacpz = false;
     public String pzunit = "nm";
@@ -145,6 +154,27 @@ public class EdgeQueryOptions {
             filenamein = argList.remove(pos);
             quiet = argList.remove("-q");
             dbg = argList.remove("-dbg");
+            pos = argList.indexOf("-pipeline");
+            if (pos != -1) {
+                argList.remove(pos);
+                pipeline = Integer.parseInt(argList.remove(pos));
+            }
+            pos = argList.indexOf("-threads");
+            if (pos != -1) {
+                argList.remove(pos);
+                threads = Integer.parseInt(argList.remove(pos));
+            }
+            perfMonitor = argList.remove("-perf");
+            pos = argList.indexOf("-outqueue");
+            if (pos != -1) {
+                argList.remove(pos);
+                outQueue = Integer.parseInt(argList.remove(pos));
+            }
+            pos = argList.indexOf("-outthreads");
+            if (pos != -1) {
+                argList.remove(pos);
+                outThreads = Integer.parseInt(argList.remove(pos));
+            }
 
             return argList;
         }
@@ -184,6 +214,23 @@ public class EdgeQueryOptions {
                 i++;
             } else if (args[i].equals("-q")) { // Documented functionality.
                 quiet = true;
+            } else if (args[i].equals("-slice")) {
+                slice = Double.parseDouble(args[i + 1]);
+                i++;
+            } else if (args[i].equals("-slicethreads")) {
+                sliceThreads = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if (args[i].equals("-slicenio")) {
+                sliceNio = true;
+            } else if (args[i].equals("-outqueue")) {
+                outQueue = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if (args[i].equals("-outthreads")) {
+                outThreads = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if (args[i].equals("-heapbudget")) {
+                heapBudget = (long) (Double.parseDouble(args[i + 1]) * 1024. * 1024.);
+                i++;
             } else if (args[i].equals("-nosort")) { // Documented functionality.
                 nosort = true;
             } else if (args[i].equals("-nogaps")); // legal for sac and zero MS
@@ -309,6 +356,15 @@ public class EdgeQueryOptions {
         return filenamein != null;
     }
 
+    /**
+     * Return true if this query is long enough to be fetched in time slices.
+     * Gaps only and sac queries are never sliced.
+     * @return
+     */
+    public boolean isSliced() {
+        return slice > 0. && getDuration() > slice && !gapsonly && getType() != OutputType.sac;
+    }
+
     /**
      * Return true if a list query -ls or -lsc was defined.
      * @return
@@ -325,6 +381,22 @@ public class EdgeQueryOptions {
      */
     public boolean isValid() {
         if (isFileMode()) {
+            if (pipeline < 1) {
+                logger.severe("-pipeline must be 1 or more requests");
+                return false;
+            }
+            if (threads < 1) {
+                logger.severe("-threads must be 1 or more connections");
+                return false;
+            }
+            if (outQueue < 0) {
+                logger.severe("-outqueue must not be negative");
+                return false;
+            }
+            if (outThreads < 0) {
+                logger.severe("-outthreads must not be negative");
+                return false;
+            }
             return (extraArgs.isEmpty());
         }
 
@@ -338,6 +410,25 @@ public class EdgeQueryOptions {
             return false;
         }
 
+        if (outQueue < 0) {
+            logger.severe("-outqueue must not be negative");
+            return false;
+        }
+        if (outThreads < 0) {
+            logger.severe("-outthreads must not be negative");
+            return false;
+        }
+
+        if (heapBudget < 0) {
+            logger.severe("-heapbudget must not be negative");
+            return false;
+        }
+
+        if (slice < 0. || sliceThreads < 1) {
+            logger.severe("-slice must not be negative and -slicethreads must be 1 or more connections");
+            return false;
+        }
+
 		if (getEvent() != null && getCustomEvent() != null) {
 			logger.severe("quakeML event cannot be used in conjunction with custom event parameters.");
 			return false;
@@ -393,13 +484,15 @@ public class EdgeQueryOptions {
                 return new HoldingOutputer(this);
             case text:
                 return new TextOutputer(this);
+            case inv:
+                return new InventoryOutputer(this);
         }
         return null;
     }
 
-    public Comparator getNsclComparator() {
+    public Comparator<NSCL> getNsclComparator() {
         // default to LocationComparator
-        Comparator comparator = NSCL.LocationComparator;
+        Comparator<NSCL> comparator = NSCL.LocationComparator;
         if (filemask.indexOf("%n") >= 0) {
             comparator = NSCL.NetworkComparator;
         }
@@ -512,6 +605,9 @@ public class EdgeQueryOptions {
      */
     public String getSingleQuotedCommand() {
         // put command line in single quotes.
+        if (gapsonly) {
+            return CWBQueryFormatter.miniSEEDHeaders(getBeginWithOffset(), getDuration(), getSeedname());
+        }
         return CWBQueryFormatter.miniSEED(getBeginWithOffset(), getDuration(), getSeedname());
     }
 
@@ -623,13 +719,16 @@ public class EdgeQueryOptions {
      */
     public void setType(OutputType type) {
         this.type = type;
+        if (type == OutputType.inv) {
+            gapsonly = true;    // the inventory only needs the block headers
+        }
     }
 
     /**
      * @param type the type to set
      */
     public void setType(String type) {
-        this.type = OutputType.valueOf(type);
+        setType(OutputType.valueOf(type));
     }
 
     /**
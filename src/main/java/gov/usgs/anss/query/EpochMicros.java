@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.GregorianCalendar;
+
+/**
+ * Block and run times as microseconds since the epoch in a long.
+ * MiniSeed.getGregorianCalendar() makes a new calendar on each call and
+ * keeps only milliseconds; these read the time straight from the header,
+ * blockette 1001 microseconds included, and allocate nothing, for the
+ * ordering and contiguity checks made for every block.  Callers that look
+ * at a block more than once keep the value rather than call start() again.
+ *
+ * @author geoffc
+ */
+public final class EpochMicros {
+
+    private EpochMicros() {
+    }
+
+    /**
+     * @return the time of the first sample of ms in epoch microseconds.
+     */
+    public static long start(MiniSeed ms) {
+        return MiniSeedHeader.getStartMicros(ms.getBuf(), 0);
+    }
+
+    /**
+     * @return the time of the sample after the last of ms, the time the next
+     * block is expected, in epoch microseconds.
+     */
+    public static long end(MiniSeed ms, long start) {
+        return start + duration(ms.getNsamp(), ms.getRate());
+    }
+
+    /**
+     * @return the microseconds nsamp samples at rate take, 0 if there is no rate.
+     */
+    public static long duration(int nsamp, double rate) {
+        if (rate <= 0.) {
+            return 0;
+        }
+        return (long) (nsamp / rate * 1000000. + 0.5);
+    }
+
+    public static long fromMillis(long millis) {
+        return millis * 1000;
+    }
+
+    /**
+     * @return the millisecond micros is in, rounding down before the epoch too.
+     */
+    public static long toMillis(long micros) {
+        return (micros >= 0 ? micros / 1000 : -((-micros + 999) / 1000));
+    }
+
+    public static GregorianCalendar toCalendar(long micros) {
+        GregorianCalendar g = new GregorianCalendar();
+        g.setTimeInMillis(toMillis(micros));
+        return g;
+    }
+}
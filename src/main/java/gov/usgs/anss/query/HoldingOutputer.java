@@ -20,7 +20,6 @@ package gov.usgs.anss.query;
 
 import gov.usgs.anss.seed.MiniSeed;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.net.*;
 import java.io.IOException;
 import gov.usgs.anss.edge.*;
@@ -31,7 +30,7 @@ import gov.usgs.anss.edge.*;
  *
  * @author davidketchum
  */
-public class HoldingOutputer extends Outputer {
+public class HoldingOutputer extends Outputer implements StreamingOutputer {
 
     boolean dbg;
     HoldingSender hs;
@@ -45,8 +44,15 @@ public class HoldingOutputer extends Outputer {
     public void makeFile(NSCL nscl, String filename,
 			ArrayList<MiniSeed> blks) throws IOException {
 
-        MiniSeed ms2 = null;
-        
+        BlockList.sort(blks);
+        beginChannel(nscl, filename);
+        for (int i = 0; i < blks.size(); i++) {
+            acceptBlock(blks.get(i));
+        }
+        endChannel();
+    }
+
+    public void beginChannel(NSCL nscl, String filename) throws IOException {
         if (hs == null) {
             try {
                 hs = new HoldingSender("-h " + options.holdingIP + " -p " + options.holdingPort + " -t " + options.holdingType + " -q 10000 -tcp", "");
@@ -55,19 +61,23 @@ public class HoldingOutputer extends Outputer {
                 System.exit(1);
             }
         }
+    }
 
-        Collections.sort(blks);
-        for (int i = 0; i < blks.size(); i++) {
-            ms2 = (MiniSeed) blks.get(i);
-            while (hs.getNleft() < 100) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                }
+    /**
+     * The holdings do not depend on the order blocks are sent so they are
+     * passed on as they arrive.
+     */
+    public void acceptBlock(MiniSeed ms) throws IOException {
+        while (hs.getNleft() < 100) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
             }
-            hs.send(ms2);
-
         }
+        hs.send(ms);
+    }
+
+    public void endChannel() {
     }
 }
 
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * The data available for a set of channels, built from block headers alone
+ * so it can come from a gaps only (-gaps) query which returns only the
+ * first 64 bytes of each block.  For each channel it gives the contiguous
+ * segments of data with their sample rates and block counts.  Blocks may be
+ * added in any order.
+ *
+ * @author geoffc
+ */
+public class Inventory {
+
+    private static final Logger logger = Logger.getLogger(Inventory.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private static DateTimeFormatter isoFormat = ISODateTimeFormat.dateTime().withZone(DateTimeZone.forID("UTC"));
+    private final TreeMap<String, Channel> channels = new TreeMap<String, Channel>();
+
+    /**
+     * Add a block from its raw header.
+     *
+     * @param buf holds at least the fixed header of the block.
+     * @param off the offset of the header in buf.
+     */
+    public void add(byte[] buf, int off) {
+        long start = MiniSeedHeader.getStartTenthMillis(buf, off);
+        add(MiniSeedHeader.getSeedName(buf, off), start, MiniSeedHeader.getNsamp(buf, off),
+                MiniSeedHeader.getRate(buf, off));
+    }
+
+    /**
+     * Add a block.
+     *
+     * @param seedname the NNSSSSSCCCLL seedname.
+     * @param start the start time in units of 0.0001 s since the epoch.
+     * @param nsamp the number of samples.
+     * @param rate the sample rate in Hz.
+     */
+    public void add(String seedname, long start, int nsamp, double rate) {
+        Channel channel = channels.get(seedname);
+        if (channel == null) {
+            channel = new Channel(seedname);
+            channels.put(seedname, channel);
+        }
+        channel.add(start, nsamp, rate);
+    }
+
+    /**
+     * Add all the blocks of another inventory.
+     */
+    public void addAll(Inventory other) {
+        for (Channel channel : other.channels.values()) {
+            for (int i = 0; i < channel.nblks; i++) {
+                add(channel.seedname, channel.start[i], channel.nsamp[i], channel.rate[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the channels in seedname order.
+     */
+    public Collection<Channel> getChannels() {
+        return Collections.unmodifiableCollection(channels.values());
+    }
+
+    /**
+     * @return the channel, or null if there were no blocks for it.
+     */
+    public Channel getChannel(String seedname) {
+        return channels.get(seedname);
+    }
+
+    /**
+     * Write one line for each segment of each channel, with a header line.
+     *
+     * @throws IOException
+     */
+    public void writeCSV(Writer out) throws IOException {
+        out.write("network,station,channel,location,rate,start,end,blocks,samples\n");
+        for (Channel channel : channels.values()) {
+            NSCL nscl = channel.getNSCL();
+            String prefix = nscl.getNetwork().trim() + "," + nscl.getStation().trim() + "," +
+                    nscl.getChannel().trim() + "," + nscl.getLocation().trim() + ",";
+            for (Segment segment : channel.getSegments()) {
+                out.write(prefix + segment.getRate() + "," + isoFormat.print(segment.getStart()) + "," +
+                        isoFormat.print(segment.getEnd()) + "," + segment.getBlocks() + "," +
+                        segment.getSamples() + "\n");
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the inventory as a JSON object with a channels array.
+     *
+     * @throws IOException
+     */
+    public void writeJSON(Writer out) throws IOException {
+        out.write("{\"channels\":[");
+        boolean firstChannel = true;
+        for (Channel channel : channels.values()) {
+            NSCL nscl = channel.getNSCL();
+            out.write((firstChannel ? "\n" : ",\n") + "{\"network\":\"" + nscl.getNetwork().trim() +
+                    "\",\"station\":\"" + nscl.getStation().trim() + "\",\"channel\":\"" + nscl.getChannel().trim() +
+                    "\",\"location\":\"" + nscl.getLocation().trim() + "\",\"blocks\":" + channel.getBlocks() +
+                    ",\"samples\":" + channel.getSamples() + ",\"rates\":[");
+            double[] rates = channel.getRates();
+            for (int i = 0; i < rates.length; i++) {
+                out.write((i > 0 ? "," : "") + rates[i]);
+            }
+            out.write("],\"segments\":[");
+            boolean firstSegment = true;
+            for (Segment segment : channel.getSegments()) {
+                out.write((firstSegment ? "" : ",") + "{\"start\":\"" + isoFormat.print(segment.getStart()) +
+                        "\",\"end\":\"" + isoFormat.print(segment.getEnd()) + "\",\"rate\":" + segment.getRate() +
+                        ",\"blocks\":" + segment.getBlocks() + ",\"samples\":" + segment.getSamples() + "}");
+                firstSegment = false;
+            }
+            out.write("]}");
+            firstChannel = false;
+        }
+        out.write("\n]}\n");
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        int nblks = 0;
+        int nsegments = 0;
+        for (Channel channel : channels.values()) {
+            nblks += channel.getBlocks();
+            nsegments += channel.getSegments().size();
+        }
+        return "Inventory #chan=" + channels.size() + " #blks=" + nblks + " #segments=" + nsegments;
+    }
+
+    /**
+     * The blocks of one channel.  The segments are worked out when first
+     * asked for after a block is added.
+     */
+    public static class Channel {
+
+        private final String seedname;
+        private long[] start = new long[64];
+        private long[] end = new long[64];
+        private int[] nsamp = new int[64];
+        private double[] rate = new double[64];
+        private int nblks = 0;
+        private long nsamples = 0;
+        private List<Segment> segments = null;
+
+        Channel(String seedname) {
+            this.seedname = seedname;
+        }
+
+        void add(long blockStart, int blockNsamp, double blockRate) {
+            if (nblks == start.length) {
+                start = Arrays.copyOf(start, nblks * 2);
+                end = Arrays.copyOf(end, nblks * 2);
+                nsamp = Arrays.copyOf(nsamp, nblks * 2);
+                rate = Arrays.copyOf(rate, nblks * 2);
+            }
+            start[nblks] = blockStart;
+            end[nblks] = blockStart + (blockRate > 0. ? Math.round(blockNsamp * 10000. / blockRate) : 0);
+            nsamp[nblks] = blockNsamp;
+            rate[nblks] = blockRate;
+            nblks++;
+            nsamples += blockNsamp;
+            segments = null;
+        }
+
+        public String getSeedName() {
+            return seedname;
+        }
+
+        public NSCL getNSCL() {
+            return NSCL.intern(seedname);
+        }
+
+        public int getBlocks() {
+            return nblks;
+        }
+
+        public long getSamples() {
+            return nsamples;
+        }
+
+        /**
+         * @return the different sample rates of the blocks, in the order they were first seen.
+         */
+        public double[] getRates() {
+            double[] rates = new double[0];
+            for (int i = 0; i < nblks; i++) {
+                boolean seen = false;
+                for (double r : rates) {
+                    seen |= sameRate(r, rate[i]);
+                }
+                if (!seen) {
+                    rates = Arrays.copyOf(rates, rates.length + 1);
+                    rates[rates.length - 1] = rate[i];
+                }
+            }
+            return rates;
+        }
+
+        /**
+         * The contiguous segments in time order.  A block continues a segment
+         * if it has the same rate and starts no more than half a sample
+         * after the segment ends; overlapping blocks are merged.
+         *
+         * @return the segments.
+         */
+        public List<Segment> getSegments() {
+            if (segments != null) {
+                return segments;
+            }
+            Integer[] order = new Integer[nblks];
+            for (int i = 0; i < nblks; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+
+                public int compare(Integer a, Integer b) {
+                    return start[a] < start[b] ? -1 : (start[a] > start[b] ? 1 : 0);
+                }
+            });
+            ArrayList<Segment> list = new ArrayList<Segment>();
+            Segment current = null;
+            for (int i : order) {
+                long tolerance = (rate[i] > 0. ? Math.round(5000. / rate[i]) : 0) + 10;
+                if (current == null || !sameRate(current.rate, rate[i]) || start[i] > current.end + tolerance) {
+                    current = new Segment(start[i], rate[i]);
+                    list.add(current);
+                }
+                current.end = Math.max(current.end, end[i]);
+                current.blocks++;
+                current.samples += nsamp[i];
+            }
+            segments = Collections.unmodifiableList(list);
+            return segments;
+        }
+
+        private static boolean sameRate(double a, double b) {
+            return Math.abs(a - b) <= 0.0001 * Math.max(Math.abs(a), Math.abs(b));
+        }
+    }
+
+    /**
+     * A span of data with no gaps.
+     */
+    public static class Segment {
+
+        private final long start;
+        private long end;
+        private final double rate;
+        private int blocks = 0;
+        private long samples = 0;
+
+        Segment(long start, double rate) {
+            this.start = start;
+            this.end = start;
+            this.rate = rate;
+        }
+
+        /**
+         * @return the time of the first sample in epoch ms.
+         */
+        public long getStart() {
+            return start / 10;
+        }
+
+        /**
+         * @return the time after the last sample, where the next would be, in epoch ms.
+         */
+        public long getEnd() {
+            return end / 10;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public int getBlocks() {
+            return blocks;
+        }
+
+        /**
+         * @return the number of samples in the blocks, overlaps included.
+         */
+        public long getSamples() {
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedRecord;
+import gov.usgs.anss.query.outputter.Filename;
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Collects the headers from a gaps only query into an Inventory (-t inv) and
+ * writes it as one file for the query line when the response ends, as CSV or
+ * as JSON if the -o filename ends with .json.  The default file is
+ * inventory.csv.  The -o mask is expanded for each line with the line's
+ * seedname and begin time.  Lines of a batch that name the same file add to
+ * the inventory already written there rather than replace it.
+ *
+ * @author geoffc
+ */
+public class InventoryOutputer extends Outputer implements RecordOutputer {
+
+    static {
+        logger.fine("$Id$");
+    }
+    private final Inventory inventory = new Inventory();
+    /** The inventory written to each file so far, for later lines naming the same file. */
+    private static final HashMap<String, Inventory> written = new HashMap<String, Inventory>();
+
+    public InventoryOutputer(EdgeQueryOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Add the blocks of a channel to the inventory.
+     */
+    public void makeFile(NSCL nscl, String filename, ArrayList<MiniSeed> blks) throws IOException {
+        for (MiniSeed ms : blks) {
+            acceptBlock(ms);
+        }
+    }
+
+    public void beginChannel(NSCL nscl, String filename) throws IOException {
+    }
+
+    public void acceptBlock(MiniSeed ms) throws IOException {
+        inventory.add(ms.getBuf(), 0);
+    }
+
+    public void acceptRecord(MiniSeedRecord rec) throws IOException {
+        inventory.add(rec.getBuf(), 0);
+    }
+
+    public void endChannel() throws IOException {
+    }
+
+    /**
+     * @return the inventory of the blocks so far.
+     */
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * @return the file for this query line, the file mask expanded with the
+     * query seedname and begin time.
+     */
+    String getFilename() {
+        if (options.filemask.equals("%N")) {
+            return "inventory.csv";
+        }
+        NSCL nscl = NSCL.stringToNSCL((options.getSeedname() + "            ").substring(0, 12));
+        return Filename.makeFilename(options.filemask, nscl, options.getBegin()).replaceAll(" ", "_");
+    }
+
+    /**
+     * Write the inventory to the file named by the file mask, with that of
+     * any earlier line written to the same file.
+     *
+     * @throws IOException
+     */
+    public void writeInventory() throws IOException {
+        String filename = getFilename();
+        synchronized (written) {
+            Inventory inventory = written.get(filename);
+            if (inventory == null) {
+                inventory = new Inventory();
+                written.put(filename, inventory);
+            }
+            inventory.addAll(this.inventory);
+            Writer out = new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(new File(filename)), "UTF-8"));
+            try {
+                if (filename.toLowerCase().endsWith(".json")) {
+                    inventory.writeJSON(out);
+                } else {
+                    inventory.writeCSV(out);
+                }
+            } finally {
+                out.close();
+            }
+            if (!options.quiet) {
+                logger.info(inventory + " written to " + filename);
+            }
+        }
+    }
+}
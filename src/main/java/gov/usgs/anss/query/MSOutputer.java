@@ -18,22 +18,31 @@
  */
 package gov.usgs.anss.query;
 
+import gov.usgs.anss.query.cwb.data.MiniSeedRecord;
 import gov.usgs.anss.seed.MiniSeed;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
 import org.apache.commons.io.FileUtils;
 
 /**
  *
  * @author davidketchum
  */
-public class MSOutputer extends Outputer {
+public class MSOutputer extends Outputer implements RecordOutputer {
 
     boolean dbg;
 	static {logger.fine("$Id$");}
+    private File streamFile = null;
+    private OutputStream stream = null;
+    private MiniSeedRecord lastWritten = null;
+    private boolean outOfOrder = false;
+    private final DuplicateIndex dups = new DuplicateIndex();
 
 
     public MSOutputer(EdgeQueryOptions options) {
@@ -43,21 +52,116 @@ public class MSOutputer extends Outputer {
 
     public void makeFile(NSCL nscl, String filename,
 			ArrayList<MiniSeed> blks) throws IOException {
-        MiniSeed ms2 = null;
+        writeBlocks(FileUtils.openOutputStream(new File(outputName(filename))), blks);
+    }
+
+    /**
+     * Blocks are written as they arrive.  If one arrives out of time order the
+     * file is sorted again when the channel ends (unless -nosort), so the
+     * result is the same as from makeFile.  With -nodups a block that
+     * duplicates any earlier one of the channel is dropped.
+     */
+    public void beginChannel(NSCL nscl, String filename) throws IOException {
+        streamFile = new File(outputName(filename));
+        stream = new BufferedOutputStream(FileUtils.openOutputStream(streamFile));
+        lastWritten = null;
+        outOfOrder = false;
+        dups.clear();
+    }
+
+    public void acceptBlock(MiniSeed ms) throws IOException {
+        acceptRecord(MiniSeedRecord.wrap(ms));
+    }
+
+    /**
+     * Only the header is read, the record is written as it is.
+     */
+    public void acceptRecord(MiniSeedRecord rec) throws IOException {
+        if (options.chkDups && !dups.add(rec.getBuf(), 0, rec.getBlockSize())) {
+            return;
+        }
+        if (lastWritten != null && rec.compareTo(lastWritten) < 0) {
+            outOfOrder = true;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Out:" + rec);
+        }
+        stream.write(rec.getBuf(), 0, rec.getBlockSize());
+        lastWritten = rec;
+    }
+
+    public void endChannel() throws IOException {
+        stream.close();
+        stream = null;
+        lastWritten = null;
+        dups.clear();
+        if (outOfOrder && !options.nosort) {
+            logger.fine("Blocks arrived out of order, sorting " + streamFile);
+            // Sorted within the budget, the blocks past it go to disk as sorted runs.
+            SpillingAccumulator blks = new SpillingAccumulator(getSortBudget(options));
+            try {
+                InputStream in = new BufferedInputStream(FileUtils.openInputStream(streamFile));
+                try {
+                    MiniSeed ms;
+                    byte[] scratch = new byte[4096];
+                    while ((ms = MultiplexedMSOutputer.readMiniSeed(in, scratch)) != null) {
+                        blks.add(ms);
+                    }
+                } finally {
+                    in.close();
+                }
+                logger.fine("Sorting " + streamFile + " " + blks);
+                SpillingAccumulator.Merge merge = blks.merge();
+                OutputStream out = new BufferedOutputStream(FileUtils.openOutputStream(streamFile));
+                try {
+                    while (merge.hasNext()) {
+                        MiniSeed ms = merge.next();
+                        out.write(ms.getBuf(), 0, ms.getBlockSize());
+                    }
+                } finally {
+                    merge.close();
+                    out.close();
+                }
+            } finally {
+                blks.close();
+            }
+        }
+    }
+
+    /**
+     * The heap a channel may use while it is sorted again, -heapbudget if
+     * given.  Otherwise a sixteenth of the maximum heap, so a streamed channel
+     * is bounded even without -heapbudget.
+     */
+    static long getSortBudget(EdgeQueryOptions options) {
+        if (options.heapBudget > 0) {
+            return options.heapBudget;
+        }
+        return Runtime.getRuntime().maxMemory() / 16;
+    }
+
+    private String outputName(String filename) {
         if (options.filemask.equals("%N")) {
             filename += ".ms";
         }
-        filename = filename.replaceAll("[__]", "_");
-        FileOutputStream out = FileUtils.openOutputStream(new File(filename));
+        return filename.replaceAll("[__]", "_");
+    }
+
+    private void writeBlocks(OutputStream out, ArrayList<MiniSeed> blks) throws IOException {
+        MiniSeed ms2 = null;
         if (!options.nosort) {
-            Collections.sort(blks);
+            BlockList.sort(blks);
         }
         if (options.chkDups) {
-            for (int i = blks.size() - 1; i > 0; i--) {
-                if (blks.get(i).isDuplicate(blks.get(i - 1))) {
-                    blks.remove(i);
+            // Any two blocks with the same data are duplicates, not just neighbours.
+            DuplicateIndex seen = new DuplicateIndex();
+            ArrayList<MiniSeed> unique = new ArrayList<MiniSeed>(blks.size());
+            for (MiniSeed ms : blks) {
+                if (seen.add(ms)) {
+                    unique.add(ms);
                 }
             }
+            blks = unique;
         }
 
         for (int i = 0; i < blks.size(); i++) {
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import gov.usgs.anss.edge.*;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
@@ -36,7 +37,7 @@ import gov.usgs.anss.util.SeedUtil;
  *
  * @author davidketchum
  */
-public class MSZOutputer extends Outputer {
+public class MSZOutputer extends Outputer implements SortedOutputer {
 
     boolean dbg;
     DecimalFormat df3;
@@ -52,6 +53,15 @@ public class MSZOutputer extends Outputer {
 
     public void makeFile(NSCL nscl, String filename,
 			ArrayList<MiniSeed> blks) throws IOException {
+        if (blks.isEmpty()) {
+            return;    // no data to save
+        }
+        BlockList.sort(blks);
+        makeFile(nscl, filename, blks.iterator());
+    }
+
+    public void makeFile(NSCL nscl, String filename,
+			Iterator<MiniSeed> sorted) throws IOException {
 
         // Process the args for things that affect us
         boolean gaps = false;       // if true, generate a list of any gaps in the data
@@ -87,8 +97,11 @@ public class MSZOutputer extends Outputer {
         ArrayList<Run> runs = new ArrayList<Run>(10);
         if (gaps) {
             HoldingSender hs = null;
-            // process the gaps
-            Collections.sort(blks);
+            // process the gaps, the runs hold all the blocks so -heapbudget does not apply
+            ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>(100);
+            while (sorted.hasNext()) {
+                blks.add(sorted.next());
+            }
             double rate = 0.;
             int gapThreshold = 25;
             // create some number of runs to put together into a  long one.
@@ -192,8 +205,32 @@ public class MSZOutputer extends Outputer {
             return;  // we only want to process the gaps
         }
 
-        // build the zero filled area (either with exact limits or with all blocks)
-        ZeroFilledSpan span = new ZeroFilledSpan(blks, start, options.getDuration(), fill);
+        // build the zero filled area a window at a time (either with exact limits or with all blocks)
+        // The first block gives the rate and day for the output, the span still reads it.
+        final MiniSeed first = sorted.next();
+        final Iterator<MiniSeed> rest = sorted;
+        Iterator<MiniSeed> all = new Iterator<MiniSeed>() {
+
+            private MiniSeed head = first;
+
+            public boolean hasNext() {
+                return head != null || rest.hasNext();
+            }
+
+            public MiniSeed next() {
+                if (head == null) {
+                    return rest.next();
+                }
+                MiniSeed ms = head;
+                head = null;
+                return ms;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        StreamingSpan span = new StreamingSpan(all, start, options.getDuration(), fill);
 
 		logger.fine("ZeroSpan=" + span.toString());
 
@@ -203,7 +240,7 @@ public class MSZOutputer extends Outputer {
         filename = filename.replaceAll("[__]", "_");
         // Make an output file and link it to the RawToMiniSeed createor
         MiniSeedOutputFile outms = new MiniSeedOutputFile(filename);
-        MiniSeed ms = (MiniSeed) blks.get(0);
+        MiniSeed ms = first;
         GregorianCalendar st = span.getStart();
         RawToMiniSeed rwms = new RawToMiniSeed(nscl.toString(), ms.getRate(),
                 options.blocksize / 64 - 1,
@@ -215,16 +252,15 @@ public class MSZOutputer extends Outputer {
         int len = 12000;
         int n;
         double secadd;
-        int[] d = new int[len];
-        int[] d2 = new int[len];
+        int[] d = SpanPool.getShared().borrow(len);
+        int[] d2 = SpanPool.getShared().borrow(len);
         int year = span.getStart().get(Calendar.YEAR);
         int doy = span.getStart().get(Calendar.DAY_OF_YEAR);
         int sec = (int) ((span.getStart().getTimeInMillis() % 86400000L) / 1000);
         int micros = (int) ((span.getStart().getTimeInMillis() % 1000L) * 1000);
         int jul = SeedUtil.toJulian(year, doy);
         boolean forceout = false;
-        for (int off = 0; off < span.getNsamp(); off = off + len) {
-            n = span.getData(d, off, len);
+        while ((n = span.next(d)) > 0) {
             //logger.finer("comp: n="+n+" "+year+" "+doy+" "+RawToMiniSeed.timeFromUSec(sec*1000000L+micros));
 
             int offstart = -1;
@@ -285,6 +321,8 @@ public class MSZOutputer extends Outputer {
                 doy = SeedUtil.doy_from_ymd(ymd);
             }
         }
+        SpanPool.getShared().giveBack(d);
+        SpanPool.getShared().giveBack(d2);
         rwms.forceOut();
         outms.close();
     }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * A fill filled time series like ZeroFilledSpan whose samples are in a
+ * memory mapped temporary file rather than on the heap, for spans too long
+ * for an int[].  Samples are indexed by long, so the span may hold more than
+ * Integer.MAX_VALUE of them.  The file is mapped in chunks of at most 1 GB
+ * and filled a window at a time by a StreamingSpan, so the samples, start,
+ * fill and missing count are those of a ZeroFilledSpan or StreamingSpan made
+ * from the same blocks.
+ *
+ * Typical usage would look like:
+ *
+ * MappedSpan span = new MappedSpan(blks.iterator(), trim, duration, fill, tempDir);
+ * try {
+ *     ... span.getData(d, off, len) ...
+ * } finally {
+ *     span.close();
+ * }
+ *
+ * @author geoffc
+ */
+public class MappedSpan implements SampleSpan {
+
+    private static final Logger logger = Logger.getLogger(MappedSpan.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    /** 2^28 samples, 1 GB, in each mapping. */
+    static final int CHUNK_BITS = 28;
+    private static final int WINDOW = 65536;
+    private static DateTimeFormatter dtFormat = ISODateTimeFormat.dateTime().withZone(DateTimeZone.forID("UTC"));
+    private final int chunkBits;
+    private final long chunkMask;
+    private final File file;
+    private final RandomAccessFile raf;
+    private IntBuffer[] chunks;
+    private final GregorianCalendar start;
+    private final double rate;
+    private final long nsamp;
+    private final int fillValue;
+    private int min = 2147000000;
+    private int max = -2147000000;
+    private long missing;
+
+    /**
+     * @param blocks the blocks in time order.
+     * @param trim the start time - data before this time are discarded.
+     * @param duration time in seconds this series is to represent.
+     * @param fill the value put where there is no data.
+     * @param tempDir where the sample file is made.
+     * @throws IOException if the sample file cannot be made or mapped.
+     */
+    public MappedSpan(Iterator<MiniSeed> blocks, GregorianCalendar trim, double duration, int fill, File tempDir)
+            throws IOException {
+        this(blocks, trim, duration, fill, tempDir, CHUNK_BITS);
+    }
+
+    /**
+     * @param blocks the blocks in time order.
+     * @param trim the start time - data before this time are discarded.
+     * @param duration time in seconds this series is to represent.
+     * @param fill the value put where there is no data.
+     * @throws IOException if the sample file cannot be made or mapped.
+     */
+    public MappedSpan(Iterator<MiniSeed> blocks, GregorianCalendar trim, double duration, int fill)
+            throws IOException {
+        this(blocks, trim, duration, fill, FileUtils.getTempDirectory(), CHUNK_BITS);
+    }
+
+    MappedSpan(Iterator<MiniSeed> blocks, GregorianCalendar trim, double duration, int fill, File tempDir,
+            int chunkBits) throws IOException {
+        this.chunkBits = chunkBits;
+        chunkMask = (1L << chunkBits) - 1;
+        fillValue = fill;
+        StreamingSpan stream = new StreamingSpan(blocks, trim, duration, fill);
+        rate = stream.getRate();
+        start = stream.getStart();
+        nsamp = stream.getNsamp();
+
+        file = File.createTempFile("cwbquery.span.", ".dat", tempDir);
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            chunks = new IntBuffer[(int) ((nsamp + chunkMask) >>> chunkBits)];
+            for (int c = 0; c < chunks.length; c++) {
+                long from = (long) c << chunkBits;
+                long len = Math.min(chunkMask + 1, nsamp - from);
+                MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, from * 4, len * 4);
+                b.order(ByteOrder.nativeOrder());
+                chunks[c] = b.asIntBuffer();
+            }
+
+            int[] window = new int[WINDOW];
+            long at = 0;
+            for (int n = stream.next(window); n > 0; n = stream.next(window)) {
+                for (int i = 0; i < n; i++) {
+                    int v = window[i];
+                    if (v < min) {
+                        min = v;
+                    }
+                    if (v > max) {
+                        max = v;
+                    }
+                }
+                put(window, at, n);
+                at += n;
+            }
+            missing = stream.getNMissingData();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        logger.fine(toString());
+    }
+
+    private void put(int[] d, long off, int len) {
+        int done = 0;
+        while (done < len) {
+            long i = off + done;
+            IntBuffer chunk = chunks[(int) (i >>> chunkBits)];
+            chunk.position((int) (i & chunkMask));
+            int n = Math.min(len - done, chunk.remaining());
+            chunk.put(d, done, n);
+            done += n;
+        }
+    }
+
+    /** get the digitizing rate in Hz
+     *@return The digitizing rate in Hz, 0 if there is no data.*/
+    public double getRate() {
+        return rate;
+    }
+
+    /** return start time as a GregorianCalendar
+     *@return The start time*/
+    public GregorianCalendar getStart() {
+        return start;
+    }
+
+    /** get number of data samples in timeseries (many might be fill)
+     *@return Number of samples in series */
+    public long getNsamp() {
+        return nsamp;
+    }
+
+    public long getSampleCount() {
+        return nsamp;
+    }
+
+    /** get the ith time series value
+     *@param i The index (starting with zero) of the data point to return.
+     *@return The ith timeseries value*/
+    public int getData(long i) {
+        return chunks[(int) (i >>> chunkBits)].get((int) (i & chunkMask));
+    }
+
+    /** get a chunk of the data into an array.  Safe to call from several threads.
+     *@param d The array to put the data in
+     *@param off The offset in the span to start
+     *@param len The maximum length of data to return (d must be dimensioned >len)
+     *@return The number of samples actually returned <=len
+     */
+    public int getData(int[] d, long off, int len) {
+        int n = (int) Math.max(0, Math.min(len, nsamp - off));
+        int done = 0;
+        while (done < n) {
+            long i = off + done;
+            IntBuffer chunk = chunks[(int) (i >>> chunkBits)].duplicate();
+            chunk.position((int) (i & chunkMask));
+            int m = Math.min(n - done, chunk.remaining());
+            chunk.get(d, done, m);
+            done += m;
+        }
+        return n;
+    }
+
+    /** get nsamp samples from the time starting into d, as ZeroFilledSpan does
+     *@return The number of samples put in d, -1 if starting is before the span*/
+    public int getData(GregorianCalendar starting, int nsamp, int[] d) {
+        long msoff = starting.getTimeInMillis() - start.getTimeInMillis();
+        long offset = (long) ((msoff + 1. / rate * 1000 / 2. - 1.) / 1000. * rate);
+        if (offset < 0) {
+            return -1;
+        }
+        return getData(d, offset, nsamp);
+    }
+
+    /** return the min value of the time series, including any fill values
+     *@return Min value of the timeseries*/
+    public int getMin() {
+        return min;
+    }
+
+    /** return the max value of the time series, including any fill values
+     *@return Max value of the timeseries*/
+    public int getMax() {
+        return max;
+    }
+
+    /** return true if any sample is fill
+     * @return true if there is at least on missing data value*/
+    public boolean hasGaps() {
+        return missing > 0;
+    }
+
+    /** return number of missing data points *
+     * @return Number of missing data points
+     */
+    public long getNMissingData() {
+        return missing;
+    }
+
+    public int getFillValue() {
+        return fillValue;
+    }
+
+    /**
+     * Unmap the samples and delete the file.  The mappings go when they are
+     * garbage collected, so where the file cannot be deleted while mapped it
+     * is deleted on exit.
+     */
+    public void close() {
+        chunks = new IntBuffer[0];
+        try {
+            raf.close();
+        } catch (IOException e) {
+            logger.warning("closing " + file + " " + e.getMessage());
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedSpan:  ns=" + nsamp + " rt=" + rate + " " + dtFormat.print(start.getTimeInMillis()) +
+                " chunks=" + chunks.length + " missing=" + missing;
+    }
+}
@@ -17,6 +17,8 @@
 package gov.usgs.anss.query;
 
 import gov.usgs.anss.edge.IllegalSeednameException;
+import gov.usgs.anss.query.cwb.data.MiniSeedFramer;
+import gov.usgs.anss.query.cwb.data.MiniSeedRecord;
 import gov.usgs.anss.seed.MiniSeed;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -24,8 +26,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.TreeMap;
@@ -37,7 +40,7 @@ import org.apache.commons.io.FileUtils;
  *
  * @author richardg
  */
-public class MultiplexedMSOutputer extends Outputer {
+public class MultiplexedMSOutputer extends Outputer implements RecordOutputer {
 
 	static {
 		logger.fine("$Id$");
@@ -45,7 +48,7 @@ public class MultiplexedMSOutputer extends Outputer {
 	private String temp = FileUtils.getTempDirectoryPath();
 //			+ "/cwb.multiplex." + ManagementFactory.getRuntimeMXBean().getName();
 	private ArrayList<File> tempFiles;
-	private ArrayList<MiniSeed> mxBlks;
+	private BlockStore mxBlks;
 	private final MSOutputer slave;
 	private final String origFileMask;
 	private boolean cleanup;
@@ -64,7 +67,7 @@ public class MultiplexedMSOutputer extends Outputer {
 
 		parseExtras(options);
 		if (temp == null) {
-			this.mxBlks = new ArrayList<MiniSeed>();
+			this.mxBlks = new BlockStore();
 			options.nosort = true;
 		} else {
 			options.filemask = temp + "/%N.tmp.ms";
@@ -80,18 +83,7 @@ public class MultiplexedMSOutputer extends Outputer {
 						try {
 							System.err.println("Multiplexing fetched blocks...");
 							if (temp == null) {
-								if (!allowEmpty) {
-									logger.fine("Removing any empty MiniSeed blocks");
-									ArrayList<MiniSeed> empty = new ArrayList<MiniSeed>();
-									for (MiniSeed ms : mxBlks) {
-										if (ms.getNsamp() > 0 && ms.getRate() > 0)
-											empty.add(ms);
-									}
-									mxBlks.removeAll(empty);
-								}
-								logger.fine("Directly sorting block list.");
-								Collections.sort(mxBlks, new MiniSeedTimeOnlyComparator());
-								slave.makeFile(null, origFileMask, mxBlks);
+								writeStore(mxBlks, origFileMask.replaceAll("[__]", "_"), allowEmpty, slave.options.chkDups);
 							} else {
 								multiplexFiles(origFileMask, tempFiles, cleanup, allowEmpty);
 							}
@@ -130,8 +122,8 @@ public class MultiplexedMSOutputer extends Outputer {
 	 * This satisfies the interface, but doesn't really do much.
 	 * When using temp files, this will simply pass the work on to MSOutputer to
 	 * sort each individual file.
-	 * And when temp files are disabled, we just keep appending the MiniSEED
-	 * blocks to mxBlks, for later sorting and output.
+	 * And when temp files are disabled, we just keep appending the raw MiniSEED
+	 * records to the mxBlks BlockStore, for later sorting and output.
 	 * @see makeMultiplexedFile
 	 * @param nscl
 	 * @param filename
@@ -141,7 +133,9 @@ public class MultiplexedMSOutputer extends Outputer {
 	public void makeFile(NSCL nscl, String filename,
 			ArrayList<MiniSeed> blks) throws IOException {
 		if (temp == null) {
-			mxBlks.addAll(blks);
+			for (MiniSeed ms : blks) {
+				mxBlks.add(ms);
+			}
 		} else {
 			// Temp files
 			slave.makeFile(nscl, filename, blks);
@@ -149,6 +143,64 @@ public class MultiplexedMSOutputer extends Outputer {
 		}
 	}
 
+	public void beginChannel(NSCL nscl, String filename) throws IOException {
+		if (temp != null) {
+			slave.beginChannel(nscl, filename);
+			tempFiles.add(new File(filename));
+		}
+	}
+
+	public void acceptBlock(MiniSeed ms) throws IOException {
+		if (temp == null) {
+			mxBlks.add(ms);
+		} else {
+			slave.acceptBlock(ms);
+		}
+	}
+
+	public void acceptRecord(MiniSeedRecord rec) throws IOException {
+		if (temp == null) {
+			mxBlks.add(rec.getBuf(), 0, rec.getBlockSize());
+		} else {
+			slave.acceptRecord(rec);
+		}
+	}
+
+	public void endChannel() throws IOException {
+		if (temp != null) {
+			slave.endChannel();
+		}
+	}
+
+	/**
+	 * Writes the blocks held in a BlockStore sorted by end time then channel.
+	 * @param store the blocks.
+	 * @param outputName name for the output file.
+	 * @param allowEmpty if false blocks without samples or a rate are left out.
+	 * @param chkDups if true duplicate blocks are left out.
+	 * @throws IOException
+	 */
+	static void writeStore(BlockStore store, String outputName, boolean allowEmpty, boolean chkDups) throws IOException {
+		logger.log(Level.FINE, "Directly sorting {0}", store);
+		int[] order = store.sortByEndTime();
+		DuplicateIndex dups = new DuplicateIndex();
+		BufferedOutputStream out = new BufferedOutputStream(FileUtils.openOutputStream(new File(outputName)));
+		try {
+			for (int i : order) {
+				if (!allowEmpty && (store.getNsamp(i) <= 0 || store.getRate(i) <= 0.)) {
+					logger.log(Level.FINE, "Removing empty MiniSeed block {0}", store.getSeedName(i));
+					continue;
+				}
+				if (chkDups && !store.addTo(dups, i)) {
+					continue;
+				}
+				store.write(i, out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
 	/**
 	 * This does the hard work of sorting - called as a shutdown hook.
 	 * TODO: consider recursion.
@@ -183,13 +235,14 @@ public class MultiplexedMSOutputer extends Outputer {
 			// The hard part, sorting the temp files...
 			TreeMap<MiniSeed, FileInputStream> blks =
 					new TreeMap<MiniSeed, FileInputStream>(new MiniSeedTimeOnlyComparator());
+			byte[] scratch = new byte[4096];
 			// Prime the TreeMap
 			logger.log(Level.FINEST, "Priming the TreeMap with files: {0}", files);
 			for (File file : files) {
 				logger.log(Level.INFO, "Reading first block from {0}", file.toString());
 				try {
 					FileInputStream fs = FileUtils.openInputStream(file);
-					MiniSeed ms = getNextValidMiniSeed(fs, allowEmpty);
+					MiniSeed ms = getNextValidMiniSeed(fs, allowEmpty, scratch);
 					if (ms != null) {
 						blks.put(ms, fs);
 					} else {
@@ -211,7 +264,7 @@ public class MultiplexedMSOutputer extends Outputer {
 				out.write(next.getBuf(), 0, next.getBlockSize());
 
 				FileInputStream fs = blks.remove(next);
-				next = getNextValidMiniSeed(fs, allowEmpty);
+				next = getNextValidMiniSeed(fs, allowEmpty, scratch);
 				if (next != null) {
 					blks.put(next, fs);
 				} else {
@@ -231,8 +284,15 @@ public class MultiplexedMSOutputer extends Outputer {
 	}
 
 	public static MiniSeed getNextValidMiniSeed(InputStream inStream, boolean allowEmpty) throws IOException {
+		return getNextValidMiniSeed(inStream, allowEmpty, new byte[512]);
+	}
+
+	/**
+	 * As getNextValidMiniSeed(inStream, allowEmpty) reading into scratch, see readMiniSeed(inStream, scratch).
+	 */
+	public static MiniSeed getNextValidMiniSeed(InputStream inStream, boolean allowEmpty, byte[] scratch) throws IOException {
 		MiniSeed ms = null;
-		while ((ms = readMiniSeed(inStream)) != null) {
+		while ((ms = readMiniSeed(inStream, scratch)) != null) {
 			// Ensure we have samples and a rate. TODO: Further validation?
 			if (allowEmpty || (ms.getNsamp() > 0 && ms.getRate() > 0.0)) {
 				break;
@@ -249,31 +309,40 @@ public class MultiplexedMSOutputer extends Outputer {
 	 * @throws IOException
 	 */
 	public static MiniSeed readMiniSeed(InputStream inStream) throws IOException {
-		byte[] b = new byte[4096];
+		return readMiniSeed(inStream, new byte[512]);
+	}
+
+	/**
+	 * Attempts to read a MiniSeed object from a given input stream, reading
+	 * the record into scratch first.  Callers reading many records pass the
+	 * same scratch each time so the only allocation per record is the
+	 * MiniSeed's own copy of it.
+	 * @param inStream
+	 * @param scratch at least 512 bytes, a longer record is read into a copy.
+	 * @return the MiniSeed object or null.
+	 * @throws IOException
+	 */
+	public static MiniSeed readMiniSeed(InputStream inStream, byte[] scratch) throws IOException {
+		byte[] b = scratch;
 		MiniSeed ms = null;
 
 		if (read(inStream, b, 0, 512)) {
+			// Take the record length from the raw header so blocks bigger than
+			// 512 are read in full before the MiniSeed is made, once.
+			int length = MiniSeedFramer.recordLength(ByteBuffer.wrap(b), 0, 512);
+			if (length > 512) {
+				if (length > b.length) {
+					b = Arrays.copyOf(b, length);
+				}
+				read(inStream, b, 512, length - 512);
+			} else {
+				length = 512;
+			}
 			try {
-				// If we don't specify the offset and length it allocates the same
-				// size as b for the MiniSeed buf, which is particularly wasteful
-				// given most blocks are only 512 (not 4096).
-				ms = new MiniSeed(b, 0, 512);
+				ms = new MiniSeed(b, 0, length);
 			} catch (IllegalSeednameException ex) {
 				logger.log(Level.SEVERE, null, ex);
 			}
-
-			// This happens when the incoming blocks are bigger than 512, so we
-			// have to "re-read" them at the correct size.
-			if (ms.getBlockSize() != 512) {
-				read(inStream, b, 512, ms.getBlockSize() - 512);
-
-				try {
-					ms = new MiniSeed(b, 0, ms.getBlockSize());
-				} catch (IllegalSeednameException ex) {
-					logger.log(Level.SEVERE, null, ex);
-				}
-
-			}
 		}
 		return ms;
 	}
@@ -312,8 +381,8 @@ public class MultiplexedMSOutputer extends Outputer {
 				return 1;
 			} else {
 				// reverse sort on network, then station, then channel.
-				NSCL nscl1 = NSCL.stringToNSCL(o1.getSeedName());
-				NSCL nscl2 = NSCL.stringToNSCL(o2.getSeedName());
+				NSCL nscl1 = NSCL.fromRecord(o1.getBuf(), 0);
+				NSCL nscl2 = NSCL.fromRecord(o2.getBuf(), 0);
 				return NSCL.LocationComparator.compare(nscl1, nscl2);
 			}
 		}
@@ -19,6 +19,7 @@
 
 package gov.usgs.anss.query;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 /**
@@ -37,6 +38,17 @@ import java.util.Comparator;
 public class NSCL {
 
 	private String network, station, channel, location;
+	private boolean interned = false;
+	// The padded codes packed 8 bits a character: high is NNSSSSS, low is CCCLL.
+	// Comparing the packed values orders the same as comparing the codes.
+	private long high, low;
+
+	// The interned NSCLs keyed by the 12 seedname bytes of a record header,
+	// SSSSSLLCCCNN, in an open addressing table so a lookup makes no objects.
+	private static final Object internLock = new Object();
+	private static byte[][] internKeys = new byte[256][];
+	private static NSCL[] internValues = new NSCL[256];
+	private static int internSize = 0;
 
 	/**
 	 * TODO: handle whitespace and/or wildcards...?
@@ -65,6 +77,137 @@ public class NSCL {
 				input.substring(7, 10), input.substring(10, 12));
 	}
 
+	/**
+	 * Returns the shared NSCL for the seedname in the header of a raw MiniSEED
+	 * record, made the first time the seedname is seen.  The seedname is read
+	 * straight from the record so nothing is made after the first time.  The
+	 * NSCL is the same as from stringToNSCL(ms.getSeedName()) but can not be
+	 * changed.
+	 * @param buf holds the record.
+	 * @param off the offset of the record in buf.
+	 * @return the interned NSCL.
+	 */
+	public static NSCL fromRecord(byte[] buf, int off) {
+		return lookup(buf, off + 8);
+	}
+
+	/**
+	 * Returns the shared NSCL for a seedname, as fromRecord().
+	 * @param input 12 character String formatted as NNSSSSSCCLL.
+	 * @return the interned NSCL.
+	 */
+	public static NSCL intern(String input) {
+		if (input.length() != 12) {
+			throw new IllegalArgumentException("NSCL code must be 12 characters long.");
+		}
+		// Into the record order SSSSSLLCCCNN.
+		byte[] key = (input.substring(2, 7) + input.substring(10, 12) + input.substring(7, 10) +
+				input.substring(0, 2)).getBytes();
+		return lookup(key, 0);
+	}
+
+	private static NSCL lookup(byte[] buf, int pos) {
+		int h = 0;
+		for (int i = pos; i < pos + 12; i++) {
+			h = h * 31 + buf[i];
+		}
+		h ^= (h >>> 16);
+		synchronized (internLock) {
+			int mask = internKeys.length - 1;
+			int slot = h & mask;
+			while (internKeys[slot] != null) {
+				if (matches(internKeys[slot], buf, pos)) {
+					return internValues[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			byte[] key = Arrays.copyOfRange(buf, pos, pos + 12);
+			NSCL nscl = new NSCL(new String(key, 10, 2), new String(key, 0, 5),
+					new String(key, 7, 3), new String(key, 5, 2));
+			nscl.interned = true;
+			internKeys[slot] = key;
+			internValues[slot] = nscl;
+			if (++internSize * 2 > internKeys.length) {
+				rehash();
+			}
+			return nscl;
+		}
+	}
+
+	private static boolean matches(byte[] key, byte[] buf, int pos) {
+		for (int i = 0; i < 12; i++) {
+			if (key[i] != buf[pos + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void rehash() {
+		byte[][] oldKeys = internKeys;
+		NSCL[] oldValues = internValues;
+		internKeys = new byte[oldKeys.length * 2][];
+		internValues = new NSCL[oldKeys.length * 2];
+		int mask = internKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int h = 0;
+				for (int j = 0; j < 12; j++) {
+					h = h * 31 + oldKeys[i][j];
+				}
+				h ^= (h >>> 16);
+				int slot = h & mask;
+				while (internKeys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				internKeys[slot] = oldKeys[i];
+				internValues[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void checkMutable() {
+		if (interned) {
+			throw new UnsupportedOperationException("An interned NSCL can not be changed.");
+		}
+	}
+
+	private void pack() {
+		if (network == null || station == null || channel == null || location == null) {
+			return;     // still being constructed
+		}
+		high = pack(pack(0L, network, 2), station, 5);
+		low = pack(pack(0L, channel, 3), location, 2);
+	}
+
+	private static long pack(long key, String code, int width) {
+		for (int i = 0; i < width; i++) {
+			char c = (i < code.length() ? code.charAt(i) : ' ');
+			key = (key << 8) | Math.min(c, 255);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the network and station packed into the low 56 bits, 8 bits a
+	 * character with the network highest.
+	 */
+	public long getPackedHigh() {
+		return high;
+	}
+
+	/**
+	 * @return the channel and location packed into the low 40 bits, 8 bits a
+	 * character with the channel highest.
+	 */
+	public long getPackedLow() {
+		return low;
+	}
+
+	private static int compare(long a, long b) {
+		return (a < b ? -1 : (a == b ? 0 : 1));
+	}
+
 	/**
 	 * @return the network
 	 */
@@ -77,10 +220,12 @@ public class NSCL {
 	 * @param network the network to set
 	 */
 	public void setNetwork(String network) {
+		checkMutable();
 		if (network.length() > 2) {
 			throw new IllegalArgumentException("Network code must be less than or equal to 2 characters in length.");
 		}
 		this.network = network;
+		pack();
 	}
 
 	/**
@@ -95,10 +240,12 @@ public class NSCL {
 	 * @param station the station to set
 	 */
 	public void setStation(String station) {
+		checkMutable();
 		if (station.length() > 5) {
 			throw new IllegalArgumentException("Station code must be less than or equal to 5 characters in length.");
 		}
 		this.station = station;
+		pack();
 	}
 
 	/**
@@ -113,10 +260,12 @@ public class NSCL {
 	 * @param channel the channel to set
 	 */
 	public void setChannel(String channel) {
+		checkMutable();
 		if (channel.length() != 3) {
 			throw new IllegalArgumentException("Channel code must be less than or equal to 3 characters in length.");
 		}
 		this.channel = channel;
+		pack();
 	}
 
 	/**
@@ -131,10 +280,12 @@ public class NSCL {
 	 * @param location the location to set
 	 */
 	public void setLocation(String location) {
+		checkMutable();
 		if (location.length() != 2) {
 			throw new IllegalArgumentException("Location code must be less than or equal to 2 characters in length.");
 		}
 		this.location = location;
+		pack();
 	}
 
 	/**
@@ -157,52 +308,42 @@ public class NSCL {
 				this.location.equals(other.location);
 	}
 
+	@Override
+	public int hashCode() {
+		return ((network.hashCode() * 31 + station.hashCode()) * 31 + channel.hashCode()) * 31 +
+				location.hashCode();
+	}
+
 	@Override
 	public String toString() {
 		return (getNetwork() + getStation() + getChannel() + getLocation());
 	}
 
-	public static Comparator NetworkComparator = new Comparator() {
-		public int compare(Object o1, Object o2) {
-			NSCL s1 = (NSCL) o1;
-			NSCL s2 = (NSCL) o2;
-			return s1.getNetwork().compareTo(s2.getNetwork());
+	// The comparators work on the packed codes so comparing makes no Strings.
+
+	public static Comparator<NSCL> NetworkComparator = new Comparator<NSCL>() {
+		public int compare(NSCL s1, NSCL s2) {
+			return NSCL.compare(s1.high >>> 40, s2.high >>> 40);
 		}
 	};
 
-	public static Comparator StationComparator = new Comparator() {
-		public int compare(Object o1, Object o2) {
-			int result = NetworkComparator.compare(o1, o2);
-			if (result != 0) {
-				return result;
-			}
-			NSCL s1 = (NSCL) o1;
-			NSCL s2 = (NSCL) o2;
-			return s1.getStation().compareTo(s2.getStation());
+	public static Comparator<NSCL> StationComparator = new Comparator<NSCL>() {
+		public int compare(NSCL s1, NSCL s2) {
+			return NSCL.compare(s1.high, s2.high);
 		}
 	};
 
-	public static Comparator ChannelComparator = new Comparator() {
-		public int compare(Object o1, Object o2) {
-			int result = StationComparator.compare(o1, o2);
-			if (result != 0) {
-				return result;
-			}
-			NSCL s1 = (NSCL) o1;
-			NSCL s2 = (NSCL) o2;
-			return s1.getChannel().compareTo(s2.getChannel());
+	public static Comparator<NSCL> ChannelComparator = new Comparator<NSCL>() {
+		public int compare(NSCL s1, NSCL s2) {
+			int result = NSCL.compare(s1.high, s2.high);
+			return (result != 0 ? result : NSCL.compare(s1.low >>> 16, s2.low >>> 16));
 		}
 	};
 
-	public static Comparator LocationComparator = new Comparator() {
-		public int compare(Object o1, Object o2) {
-			int result = ChannelComparator.compare(o1, o2);
-			if (result != 0) {
-				return result;
-			}
-			NSCL s1 = (NSCL) o1;
-			NSCL s2 = (NSCL) o2;
-			return s1.getLocation().compareTo(s2.getLocation());
+	public static Comparator<NSCL> LocationComparator = new Comparator<NSCL>() {
+		public int compare(NSCL s1, NSCL s2) {
+			int result = NSCL.compare(s1.high, s2.high);
+			return (result != 0 ? result : NSCL.compare(s1.low, s2.low));
 		}
 	};
 }
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Filter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Writes completed channels on other threads so the socket can be read
+ * while channels are being output (-outqueue n, -outthreads n).  At most n
+ * channels wait to be output; when that many are waiting the reader waits,
+ * which in turn makes the server wait.
+ * <p>
+ * With one output thread channels are output in the order they are
+ * submitted with the query's outputter.  With more, each thread makes its
+ * own outputter for each query outputter it is handed, as the outputters
+ * keep per channel state, and channels are output in parallel.  Channels
+ * writing the same file are still output in the order submitted, so a file
+ * several channels are written to comes out as it would from one thread.
+ * The copies of a line's outputter are dropped once the line has ended and
+ * its channels are output.  The outputters log through one logger, and with
+ * more than one thread what a channel logs there is held until the channels
+ * submitted before it have logged theirs, so the log reads as it would from
+ * one thread.
+ *
+ * @author geoffc
+ */
+class OutputStage {
+
+    private static final Logger logger = Logger.getLogger(OutputStage.class.getName());
+
+    /** What the channel being output on this thread has logged, while it is held. */
+    private static final ThreadLocal<ArrayList<LogRecord>> held = new ThreadLocal<ArrayList<LogRecord>>();
+
+    static {
+        logger.fine("$Id$");
+        final Filter filter = Outputer.logger.getFilter();
+        Outputer.logger.setFilter(new Filter() {
+
+            public boolean isLoggable(LogRecord record) {
+                ArrayList<LogRecord> records = held.get();
+                if (records != null) {
+                    // The caller is found from the stack, so find it now rather than when it is logged.
+                    record.getSourceClassName();
+                    records.add(record);
+                    return false;
+                }
+                return filter == null || filter.isLoggable(record);
+            }
+        });
+    }
+    private final int capacity;
+    private final int nthreads;
+    private final Semaphore slots;
+    private final ExecutorService executor;
+    private final HashMap<String, Future<?>> lastForFile = new HashMap<String, Future<?>>();
+    /** The query lines with channels to output, by the line's outputter. */
+    private final IdentityHashMap<Outputer, Line> lines = new IdentityHashMap<Outputer, Line>();
+    private final ThreadLocal<Long> idleSince = new ThreadLocal<Long>();
+    /** The held records of channels output before one submitted earlier, by submit order. */
+    private final HashMap<Integer, ArrayList<LogRecord>> logs = new HashMap<Integer, ArrayList<LogRecord>>();
+    private int nsubmitted = 0;
+    private int nlogged = 0;
+    private volatile IOException failure = null;
+    private long putWait = 0;
+    private final AtomicLong takeWait = new AtomicLong();
+    private final AtomicLong outputMillis = new AtomicLong();
+    private final AtomicInteger nchannels = new AtomicInteger();
+    private final AtomicInteger npurged = new AtomicInteger();
+    private final AtomicInteger depth = new AtomicInteger();
+    private int maxDepth = 0;
+
+    /**
+     * @param capacity the most channels waiting to be output, at least nthreads.
+     * @param nthreads the number of output threads, 0 for one per processor.
+     */
+    OutputStage(int capacity, int nthreads) {
+        this.nthreads = (nthreads <= 0 ? Runtime.getRuntime().availableProcessors() : nthreads);
+        this.capacity = Math.max(Math.max(1, capacity), this.nthreads);
+        // Running channels hold a slot too, so the waiting ones are bounded by capacity.
+        slots = new Semaphore(this.capacity + this.nthreads);
+        executor = Executors.newFixedThreadPool(this.nthreads, new ThreadFactory() {
+
+            private int n = 0;
+
+            public synchronized Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+
+                    public void run() {
+                        idleSince.set(System.currentTimeMillis());
+                        r.run();
+                    }
+                }, "OutputStage-" + (n++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue a channel for output, waiting while the queue is full.
+     *
+     * @throws IOException if an earlier channel failed to be output.
+     */
+    void submit(EdgeQueryOptions options, Outputer out, NSCL nscl, ArrayList<MiniSeed> blks) throws IOException {
+        acquire(nscl);
+        String filename = EdgeQueryClient.channelFilename(options, nscl, blks.get(0));
+        queue(filename, new Channel(nsubmitted++, options, out, nscl, blks, null, previousFor(filename)));
+    }
+
+    /**
+     * Wait for a slot in the queue.
+     */
+    private void acquire(NSCL nscl) throws IOException {
+        checkFailure();
+        long start = System.currentTimeMillis();
+        try {
+            slots.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to queue " + nscl + " for output");
+        }
+        putWait += System.currentTimeMillis() - start;
+        maxDepth = Math.max(maxDepth, depth.incrementAndGet());
+    }
+
+    /**
+     * @return the channel still to be output to filename, if any.
+     */
+    private Future<?> previousFor(String filename) {
+        Future<?> previous = lastForFile.get(filename);
+        if (previous != null && previous.isDone()) {
+            previous = null;
+        }
+        return previous;
+    }
+
+    private void queue(String filename, Channel channel) {
+        synchronized (lines) {
+            Line line = lines.get(channel.out);
+            if (line == null) {
+                line = new Line();
+                lines.put(channel.out, line);
+            }
+            line.pending++;
+        }
+        // Forget the files whose last channel is done so the map holds only those still queued.
+        for (Iterator<Future<?>> it = lastForFile.values().iterator(); it.hasNext();) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+        lastForFile.put(filename, executor.submit(channel));
+    }
+
+    /**
+     * Log what a channel held, and after it that of any later channels which
+     * were only waiting for it.
+     *
+     * @param seq the channel's position in submit order.
+     */
+    private void publish(int seq, ArrayList<LogRecord> records) {
+        synchronized (logs) {
+            logs.put(seq, records);
+            while ((records = logs.remove(nlogged)) != null) {
+                nlogged++;
+                for (LogRecord record : records) {
+                    Outputer.logger.log(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a channel collected within -heapbudget for output, waiting while
+     * the queue is full.  The stage closes blks once it is output.
+     *
+     * @throws IOException if an earlier channel failed to be output.
+     */
+    void submit(EdgeQueryOptions options, Outputer out, NSCL nscl, SpillingAccumulator blks) throws IOException {
+        acquire(nscl);
+        String filename = EdgeQueryClient.channelFilename(options, nscl, blks.getFirst());
+        queue(filename, new Channel(nsubmitted++, options, out, nscl, null, blks, previousFor(filename)));
+    }
+
+    /**
+     * Note that a query line has no more channels to submit, so the copies
+     * of its outputter can be dropped once its channels are output.
+     *
+     * @param out the line's outputter.
+     */
+    void endLine(Outputer out) {
+        synchronized (lines) {
+            Line line = lines.get(out);
+            if (line != null) {
+                line.ended = true;
+                if (line.pending == 0) {
+                    lines.remove(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for all the queued channels to be output and stop the threads.
+     *
+     * @throws IOException if any channel failed to be output.
+     */
+    void finish() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                logger.finest("Waiting for " + depth.get() + " channels to be output");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for output to finish");
+        }
+        lastForFile.clear();
+        synchronized (lines) {
+            lines.clear();
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the outputter for this thread to use in place of out, a copy
+     * not in use by another thread.
+     */
+    private Outputer outputerFor(Channel channel) {
+        if (nthreads == 1) {
+            return channel.out;
+        }
+        synchronized (lines) {
+            Outputer out = lines.get(channel.out).idle.poll();
+            if (out != null) {
+                return out;
+            }
+        }
+        return channel.options.getOutputter();
+    }
+
+    /**
+     * Give back the outputter a channel used, dropping the line's copies if
+     * it has ended and this was its last channel.
+     */
+    private void doneWith(Channel channel, Outputer out) {
+        synchronized (lines) {
+            Line line = lines.get(channel.out);
+            if (out != null && out != channel.out) {
+                line.idle.add(out);
+            }
+            line.pending--;
+            if (line.ended && line.pending == 0) {
+                lines.remove(channel.out);
+            }
+        }
+    }
+
+    private void output(Channel channel) {
+        Outputer out = null;
+        if (nthreads > 1) {
+            held.set(new ArrayList<LogRecord>());
+        }
+        try {
+            // Channels for the same file wait for the one before.  It was submitted
+            // earlier, so it is running or ahead of this one in the queue.
+            if (channel.previous != null) {
+                try {
+                    channel.previous.get();
+                } catch (ExecutionException ex) {
+                    logger.log(Level.SEVERE, "Output before " + channel.nscl + " failed", ex);
+                }
+            }
+            // After a failure keep taking channels so the reader is never left waiting on a full queue.
+            if (failure != null) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            takeWait.addAndGet(start - idleSince.get());
+            try {
+                out = outputerFor(channel);
+                if (channel.spilled != null) {
+                    npurged.addAndGet(EdgeQueryClient.outputChannel(channel.options, out,
+                            channel.nscl, channel.spilled));
+                } else {
+                    npurged.addAndGet(EdgeQueryClient.makeFile(channel.options, out,
+                            channel.nscl, channel.blks));
+                }
+                nchannels.incrementAndGet();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Failed to output " + channel.nscl, ex);
+                failure = ex;
+            } catch (RuntimeException ex) {
+                logger.log(Level.SEVERE, "Failed to output " + channel.nscl, ex);
+                failure = new IOException("Failed to output " + channel.nscl + " e=" + ex);
+            }
+            outputMillis.addAndGet(System.currentTimeMillis() - start);
+        } catch (InterruptedException ex) {
+            logger.warning("Output stage interrupted.");
+            Thread.currentThread().interrupt();
+        } finally {
+            if (channel.spilled != null) {
+                channel.spilled.close();
+            }
+            ArrayList<LogRecord> records = held.get();
+            if (records != null) {
+                held.remove();
+                publish(channel.seq, records);
+            }
+            doneWith(channel, out);
+            idleSince.set(System.currentTimeMillis());
+            depth.decrementAndGet();
+            slots.release();
+        }
+    }
+
+    /**
+     * @return the timings and counts for the -perf summary.
+     */
+    @Override
+    public String toString() {
+        return "outqueue=" + capacity + " outthreads=" + nthreads + " maxDepth=" + maxDepth +
+                " putWait=" + putWait + " takeWait=" + takeWait.get() + " out=" + outputMillis.get() +
+                " #chan=" + nchannels.get() + " #pur=" + npurged.get();
+    }
+
+    /**
+     * The copies of a query line's outputter not in use, and the number of its
+     * channels still to be output.
+     */
+    private static class Line {
+
+        final LinkedList<Outputer> idle = new LinkedList<Outputer>();
+        int pending = 0;
+        boolean ended = false;
+    }
+
+    private class Channel implements Runnable {
+
+        final int seq;
+        final EdgeQueryOptions options;
+        final Outputer out;
+        final NSCL nscl;
+        final ArrayList<MiniSeed> blks;
+        final SpillingAccumulator spilled;     // in place of blks with -heapbudget
+        final Future<?> previous;
+
+        Channel(int seq, EdgeQueryOptions options, Outputer out, NSCL nscl, ArrayList<MiniSeed> blks,
+                SpillingAccumulator spilled, Future<?> previous) {
+            this.seq = seq;
+            this.options = options;
+            this.out = out;
+            this.nscl = nscl;
+            this.blks = blks;
+            this.spilled = spilled;
+            this.previous = previous;
+        }
+
+        public void run() {
+            output(this);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the lines of a command file over several connections to the server.
+ * Each worker has its own connection and outputters and takes the next
+ * unread line when it is free, so long and short requests balance out.
+ *
+ * @author geoffc
+ */
+public class ParallelQuery {
+
+    private static final Logger logger = Logger.getLogger(ParallelQuery.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private final EdgeQueryOptions options;
+
+    /**
+     * @param options the file mode options; host, port, -pipeline and -threads
+     * are used by every worker.
+     */
+    public ParallelQuery(EdgeQueryOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Run all the lines from source and wait for them to complete.
+     *
+     * @param source the command file lines.
+     * @return the per line results.
+     */
+    public QueryReport run(final CommandSource source) {
+        int threads = Math.max(1, options.threads);
+        final QueryReport report = new QueryReport();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<Future<?>>(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.add(executor.submit(new Runnable() {
+
+                public void run() {
+                    EdgeQueryClient.query(options, source, report);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException ex) {
+                logger.log(Level.WARNING, "Interrupted waiting for query connections.", ex);
+                executor.shutdownNow();
+                break;
+            } catch (ExecutionException ex) {
+                logger.log(Level.SEVERE, "Query connection failed.", ex.getCause());
+            }
+        }
+
+        if (!options.quiet) {
+            logger.info("Completed " + source.getLineCount() + " lines\n" + report);
+        }
+        if (options.perfMonitor) {
+            logger.info(report.getSummary(threads));
+        }
+        return report;
+    }
+}
@@ -65,6 +65,59 @@ public class QueryProperties {
         return Integer.parseInt(props.getString("neic-metadata-server-port"));
     }
 
+    /**
+     * @return the names (e.g. geonet, neic) of the CWB servers to fail over
+     * between, in order.
+     */
+    public static List<String> getCwbFailover() {
+        List<String> names = new ArrayList<String>();
+        for (String name : getString("cwb-failover", "").split(",")) {
+            if (name.trim().length() > 0) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param name a CWB server name from getCwbFailover().
+     * @return the host of the named CWB server.
+     */
+    public static String getCwbIP(String name) {
+        return props.getString(name + "-cwb-ip");
+    }
+
+    /**
+     * @param name a CWB server name from getCwbFailover().
+     * @return the port of the named CWB server.
+     */
+    public static int getCwbPort(String name) {
+        return Integer.parseInt(props.getString(name + "-cwb-port"));
+    }
+
+    public static int getCwbConnectTimeout() {
+        return Integer.parseInt(getString("cwb-connect-timeout-ms", "10000"));
+    }
+
+    public static long getCwbBackoffInitial() {
+        return Long.parseLong(getString("cwb-backoff-initial-ms", "1000"));
+    }
+
+    public static long getCwbBackoffMax() {
+        return Long.parseLong(getString("cwb-backoff-max-ms", "60000"));
+    }
+
+    public static int getCwbRetryBudget() {
+        return Integer.parseInt(getString("cwb-retry-budget", "12"));
+    }
+
+    private static String getString(String key, String defaultValue) {
+        if (props.containsKey(key)) {
+            return props.getString(key);
+        }
+        return defaultValue;
+    }
+
     public static String getUsage() {
         return props.getString("usage");
     }
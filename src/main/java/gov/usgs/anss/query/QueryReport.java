@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Collects the outcome of each command file line as it completes.  Lines may
+ * complete in any order (e.g. over several connections) but are always
+ * reported in command file order.
+ *
+ * @author geoffc
+ */
+public class QueryReport {
+
+    private final TreeMap<Integer, LineResult> results = new TreeMap<Integer, LineResult>();
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Record the outcome of a command file line.
+     *
+     * @param line the line number from the CommandSource.
+     * @param command the query line.
+     * @param blocks the number of blocks transferred.
+     * @param dups the number of duplicate blocks dropped.
+     * @param ms the time taken to transfer and output the line.
+     * @param ok false if the line was invalid or failed.
+     */
+    public synchronized void add(int line, String command, int blocks, int dups, long ms, boolean ok) {
+        results.put(line, new LineResult(line, command, blocks, dups, ms, ok));
+    }
+
+    /**
+     * @return the results so far in line order.
+     */
+    public synchronized List<LineResult> getResults() {
+        return new ArrayList<LineResult>(results.values());
+    }
+
+    public synchronized long getTotalBlocks() {
+        long total = 0;
+        for (LineResult result : results.values()) {
+            total += result.getBlocks();
+        }
+        return total;
+    }
+
+    public synchronized int getFailedCount() {
+        int failed = 0;
+        for (LineResult result : results.values()) {
+            if (!result.isOk()) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @param threads the number of connections used.
+     * @return the aggregate totals and transfer rate since this report was created.
+     */
+    public synchronized String getSummary(int threads) {
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        long totblks = getTotalBlocks();
+        return "Perf threads=" + threads + " #lines=" + results.size() + " #failed=" + getFailedCount() +
+                " #blks=" + totblks + " tot=" + elapsed + " ms " + (totblks * 1000L / elapsed) + " b/s";
+    }
+
+    /**
+     * @return one line per result in line order.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(100 * results.size());
+        for (LineResult result : results.values()) {
+            sb.append(result).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The outcome of a single command file line.
+     */
+    public static class LineResult {
+
+        private final int line;
+        private final String command;
+        private final int blocks;
+        private final int dups;
+        private final long ms;
+        private final boolean ok;
+
+        public LineResult(int line, String command, int blocks, int dups, long ms, boolean ok) {
+            this.line = line;
+            this.command = command;
+            this.blocks = blocks;
+            this.dups = dups;
+            this.ms = ms;
+            this.ok = ok;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public int getBlocks() {
+            return blocks;
+        }
+
+        public int getDups() {
+            return dups;
+        }
+
+        public long getMs() {
+            return ms;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + (ok ? " ok " : " FAILED ") + blocks + " blks #dups=" + dups +
+                    " " + ms + " ms : " + command;
+        }
+    }
+}
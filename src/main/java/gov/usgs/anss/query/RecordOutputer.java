@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedRecord;
+import java.io.IOException;
+
+/**
+ * A StreamingOutputer that only needs the raw record and its header, not a
+ * MiniSeed.  When streaming a response to one of these blocks are passed as
+ * MiniSeedRecords, so no MiniSeed is made for a block unless the outputer
+ * asks for one.
+ *
+ * @author geoffc
+ */
+public interface RecordOutputer extends StreamingOutputer {
+
+    /**
+     * @param rec the next block of the channel.
+     * @throws IOException
+     */
+    void acceptRecord(MiniSeedRecord rec) throws IOException;
+}
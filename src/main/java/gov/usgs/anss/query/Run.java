@@ -19,7 +19,6 @@
 package gov.usgs.anss.query;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.GregorianCalendar;
 import gov.usgs.anss.seed.*;
 import java.util.logging.Logger;
@@ -39,8 +38,8 @@ import org.joda.time.format.ISODateTimeFormat;
 public class Run implements Comparable<Run> {
 
     ArrayList<MiniSeed> blks;     // List of sequenctial contiuous Mini-seed blocks
-    GregorianCalendar start;      // start time of this run
-    GregorianCalendar end;        // current ending time of this run (expected time of next block)
+    long start;                   // start time of this run in epoch micros
+    long end;                     // current ending time of this run (expected time of next block) in epoch micros
     String seedname;
     double rate;
     int nweird;
@@ -65,26 +64,38 @@ public class Run implements Comparable<Run> {
     /** return the start time of the run
      *@return the start time as GregorianCalendar*/
     public GregorianCalendar getStart() {
-        return start;
+        return EpochMicros.toCalendar(start);
     }
 
     /** return the end time of the run (Actually the time of the next expected sample)
      *@return the end time as GregorianCalendar*/
     public GregorianCalendar getEnd() {
+        return EpochMicros.toCalendar(end);
+    }
+
+    /** return the start time of the run
+     *@return the start time in epoch microseconds*/
+    public long getStartMicros() {
+        return start;
+    }
+
+    /** return the end time of the run (Actually the time of the next expected sample)
+     *@return the end time in epoch microseconds*/
+    public long getEndMicros() {
         return end;
     }
 
     /** return duration of run in seconds
      *@return The duration of run in seconds*/
     public double getLength() {
-        return (end.getTimeInMillis() - start.getTimeInMillis()) / 1000.;
+        return (end - start) / 1000000.;
     }
 
     /** string representation
      *@return a String representation of this run */
     public String toString() {
-        return "Run from " + dtFormat.print(start.getTimeInMillis()) + " to " +
-                dtFormat.print(end.getTimeInMillis()) + " " + getLength() + " s #blks=" + blks.size();
+        return "Run from " + dtFormat.print(EpochMicros.toMillis(start)) + " to " +
+                dtFormat.print(EpochMicros.toMillis(end)) + " " + getLength() + " s #blks=" + blks.size();
     }
 
     /** return the ith miniseed block
@@ -103,8 +114,8 @@ public class Run implements Comparable<Run> {
     /** clear the list (used mainly to free up associated memory)*/
     public void clear() {
         blks.clear();
-        start = null;
-        end = null;
+        start = 0;
+        end = 0;
     }
 
     /** implement Comparable
@@ -117,17 +128,23 @@ public class Run implements Comparable<Run> {
         if (!seedname.equals(r.getSeedname())) {
             return seedname.compareTo(r.getSeedname());
         }
-        return start.compareTo(((Run) r).getStart());
+        return (start < r.start ? -1 : (start == r.start ? 0 : 1));
     }
 
     /** create a new run with the given miniseed as initial block
      *@param ms The miniseed block to first include */
     public Run(MiniSeed ms) {
-        start = ms.getGregorianCalendar();
-        blks = new ArrayList<MiniSeed>(1000);
+        this(ms, EpochMicros.start(ms));
+    }
+
+    /** create a new run with the given miniseed as initial block
+     *@param ms The miniseed block to first include
+     *@param msStart The start of ms in epoch micros, EpochMicros.start(ms)*/
+    public Run(MiniSeed ms, long msStart) {
+        start = msStart;
+        blks = new BlockList(1000);
         blks.add(ms);
-        end = ms.getGregorianCalendar();
-        end.setTimeInMillis(end.getTimeInMillis() + ((long) (ms.getNsamp() / ms.getRate() * 1000 + 0.49)));
+        end = EpochMicros.end(ms, msStart);
         seedname = ms.getSeedName();
         rate = ms.getRate();
     }
@@ -136,6 +153,15 @@ public class Run implements Comparable<Run> {
      *@param the miniseed block to consider for contiguousness, add it if is is
      *@return true, if block was contiguous and was added to this run, false otherwise*/
     public boolean add(MiniSeed ms) {
+        return add(ms, EpochMicros.start(ms));
+    }
+
+    /** see if this miniseed block will add contiguously to the end of this run.
+     * Callers offering a block to many runs work out its start once.
+     *@param the miniseed block to consider for contiguousness, add it if is is
+     *@param msStart The start of ms in epoch micros, EpochMicros.start(ms)
+     *@return true, if block was contiguous and was added to this run, false otherwise*/
+    public boolean add(MiniSeed ms, long msStart) {
         if (!ms.getSeedName().equals(seedname)) {
             return false;
         }
@@ -149,19 +175,15 @@ public class Run implements Comparable<Run> {
             }
         }
         // Is the beginning of this one near the end of the last one!
-        if (Math.abs(ms.getGregorianCalendar().getTimeInMillis() - end.getTimeInMillis()) <
-                500. / ms.getRate()) {
+        if (Math.abs(msStart - end) < 500000. / ms.getRate()) {
             // add this block to the list
             blks.add(ms);
-            end = ms.getGregorianCalendar();
-            end.setTimeInMillis(end.getTimeInMillis() +
-                    ((long) (ms.getNsamp() / ms.getRate() * 1000 + 0.49)));
+            end = EpochMicros.end(ms, msStart);
             return true;
-        } else if (Math.abs(ms.getNextExpectedTimeInMillis() - start.getTimeInMillis()) <
-                500. / ms.getRate()) {
+        } else if (Math.abs(EpochMicros.end(ms, msStart) - start) < 500000. / ms.getRate()) {
             blks.add(ms);
-            Collections.sort(blks);
-            start = ms.getGregorianCalendar();
+            BlockList.sort(blks);
+            start = msStart;
             return true;
         } else {
             return false;
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.util.GregorianCalendar;
+
+/**
+ * A fill filled time series with 64 bit sample indexing, whether the
+ * samples are in an array (ZeroFilledSpan) or mapped from a file
+ * (MappedSpan).
+ *
+ * @author geoffc
+ */
+public interface SampleSpan {
+
+	double getRate();
+
+	GregorianCalendar getStart();
+
+	/**
+	 * @return the number of samples in the span, fill included.
+	 */
+	long getSampleCount();
+
+	int getData(long i);
+
+	/**
+	 * Copy up to len samples starting at off into d.
+	 *
+	 * @return the number of samples copied, less than len at the end of the span.
+	 */
+	int getData(int[] d, long off, int len);
+
+	int getMin();
+
+	int getMax();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * An Outputer that can read a channel's blocks in time order from an
+ * iterator rather than a list, so the blocks of a channel collected within
+ * -heapbudget can be merged from disk as they are read rather than all be
+ * held in memory for makeFile.
+ *
+ * @author geoffc
+ */
+public interface SortedOutputer {
+
+    /**
+     * Output a channel.
+     *
+     * @param nscl the channel.
+     * @param filename the output filename, as for makeFile.
+     * @param blks the blocks of the channel in time order, at least one.
+     * @throws IOException
+     */
+    void makeFile(NSCL nscl, String filename, Iterator<MiniSeed> blks) throws IOException;
+}
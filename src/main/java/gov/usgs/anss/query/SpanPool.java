@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A pool of sample arrays keyed by capacity, so the spans and windows made
+ * for each channel of a batch reuse the arrays of the channels before rather
+ * than allocate new ones of the same size.  The pool holds at most its
+ * budget of bytes of returned arrays; arrays returned past that are left to
+ * the garbage collector.  Safe to use from several threads.
+ *
+ * Typical usage would look like:
+ *
+ * int[] window = SpanPool.getShared().borrow(12000);
+ * try {
+ *     ...
+ * } finally {
+ *     SpanPool.getShared().giveBack(window);
+ * }
+ *
+ * Borrowed arrays hold whatever was left in them, not zeros.
+ *
+ * @author geoffc
+ */
+public class SpanPool {
+
+    private static final Logger logger = Logger.getLogger(SpanPool.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private static SpanPool shared = null;
+    private final long budget;
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<int[]>> free =
+            new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<int[]>>();
+    private final AtomicLong held = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param budget the most bytes of arrays to hold for reuse.
+     */
+    public SpanPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the pool shared by the outputers, holding up to an eighth of the heap.
+     */
+    public static synchronized SpanPool getShared() {
+        if (shared == null) {
+            shared = new SpanPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return shared;
+    }
+
+    /**
+     * @return an array of exactly capacity ints, from the pool if one has been given back.
+     */
+    public int[] borrow(int capacity) {
+        borrowed.incrementAndGet();
+        ConcurrentLinkedQueue<int[]> q = free.get(capacity);
+        int[] a = (q == null ? null : q.poll());
+        if (a == null) {
+            return new int[capacity];
+        }
+        held.addAndGet(-4L * capacity);
+        reused.incrementAndGet();
+        return a;
+    }
+
+    /**
+     * Return an array for reuse.  The caller must not use it afterwards.
+     *
+     * @param a the array, null is ignored.
+     */
+    public void giveBack(int[] a) {
+        if (a == null || a.length == 0) {
+            return;
+        }
+        long bytes = 4L * a.length;
+        if (held.addAndGet(bytes) > budget) {
+            held.addAndGet(-bytes);
+            return;     // over the budget, let it go
+        }
+        ConcurrentLinkedQueue<int[]> q = free.get(a.length);
+        if (q == null) {
+            q = new ConcurrentLinkedQueue<int[]>();
+            ConcurrentLinkedQueue<int[]> was = free.putIfAbsent(a.length, q);
+            if (was != null) {
+                q = was;
+            }
+        }
+        q.add(a);
+    }
+
+    /**
+     * @return the bytes of arrays held for reuse.
+     */
+    public long getHeldBytes() {
+        return held.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SpanPool: borrowed=" + borrowed.get() + " reused=" + reused.get() + " held=" + held.get() +
+                " budget=" + budget;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Accumulates the blocks of a channel within a heap budget.  While the
+ * blocks held are within the budget they stay in memory; past it they are
+ * sorted and written to a temporary file as a run, and memory starts again.
+ * merge() then gives all the blocks in sorted order, merging the runs on disk
+ * with those still in memory, so a channel of any length can be sorted
+ * holding only the budget plus one block per run.  The order is that of
+ * Collections.sort() on all the blocks in the order they were added.
+ *
+ * Typical usage would look like:
+ *
+ * SpillingAccumulator blks = new SpillingAccumulator(budget);
+ * try {
+ *     ... blks.add(ms) ...
+ *     SpillingAccumulator.Merge merge = blks.merge();
+ *     while (merge.hasNext()) { ... merge.next() ... }
+ * } finally {
+ *     blks.close();
+ * }
+ *
+ * @author geoffc
+ */
+public class SpillingAccumulator {
+
+    private static final Logger logger = Logger.getLogger(SpillingAccumulator.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    /** The estimated heap a MiniSeed uses besides its record. */
+    public static final int BLOCK_OVERHEAD = 400;
+    private final long budget;
+    private final File tempDir;
+    private ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>(100);
+    private final ArrayList<File> runs = new ArrayList<File>();
+    private long memoryBytes = 0;
+    private int size = 0;
+    private long nsamp = 0;
+    private MiniSeed first = null;
+    private MiniSeed last = null;
+
+    /**
+     * @param budget the most bytes of blocks to hold in memory, 0 for no limit.
+     */
+    public SpillingAccumulator(long budget) {
+        this(budget, FileUtils.getTempDirectory());
+    }
+
+    /**
+     * @param budget the most bytes of blocks to hold in memory, 0 for no limit.
+     * @param tempDir where the runs are written.
+     */
+    public SpillingAccumulator(long budget, File tempDir) {
+        this.budget = budget;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Add a block, spilling the blocks in memory to a run if the budget is exceeded.
+     *
+     * @throws IOException if the run cannot be written.
+     */
+    public void add(MiniSeed ms) throws IOException {
+        blks.add(ms);
+        size++;
+        nsamp += ms.getNsamp();
+        if (first == null || ms.compareTo(first) < 0) {
+            first = ms;
+        }
+        if (last == null || ms.compareTo(last) >= 0) {
+            last = ms;
+        }
+        memoryBytes += ms.getBlockSize() + BLOCK_OVERHEAD;
+        if (budget > 0 && memoryBytes > budget) {
+            spill();
+        }
+    }
+
+    /**
+     * Sort the blocks in memory and write them to a new run.
+     *
+     * @throws IOException if the run cannot be written.
+     */
+    public void spill() throws IOException {
+        if (blks.isEmpty()) {
+            return;
+        }
+        Collections.sort(blks);
+        File run = File.createTempFile("cwbquery.run.", ".ms", tempDir);
+        runs.add(run);
+        OutputStream out = new BufferedOutputStream(FileUtils.openOutputStream(run));
+        try {
+            for (MiniSeed ms : blks) {
+                out.write(ms.getBuf(), 0, ms.getBlockSize());
+            }
+        } finally {
+            out.close();
+        }
+        logger.fine("Spilled " + blks.size() + " blocks (" + memoryBytes + " bytes) to " + run);
+        blks = new ArrayList<MiniSeed>(100);
+        memoryBytes = 0;
+    }
+
+    /**
+     * @return the number of blocks added.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of samples in the blocks added.
+     */
+    public long getNsamp() {
+        return nsamp;
+    }
+
+    /**
+     * @return the first block in sorted order, null if none were added.
+     */
+    public MiniSeed getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the last block in sorted order, null if none were added.
+     */
+    public MiniSeed getLast() {
+        return last;
+    }
+
+    /**
+     * @return the estimated heap held by the blocks in memory.
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return the number of runs written to disk.
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return true if any blocks have been written to disk.
+     */
+    public boolean isSpilled() {
+        return !runs.isEmpty();
+    }
+
+    /**
+     * All the blocks in sorted order in memory.  Only sensible if the blocks
+     * were not spilled or the caller needs them in a list regardless.
+     *
+     * @throws IOException if a run cannot be read.
+     */
+    public ArrayList<MiniSeed> toList() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(blks);
+            return blks;
+        }
+        ArrayList<MiniSeed> list = new ArrayList<MiniSeed>(size);
+        Merge merge = merge();
+        try {
+            while (merge.hasNext()) {
+                list.add(merge.next());
+            }
+        } finally {
+            merge.close();
+        }
+        return list;
+    }
+
+    /**
+     * @return the blocks in sorted order.  No more blocks should be added
+     * while it is used.
+     * @throws IOException if a run cannot be read.
+     */
+    public Merge merge() throws IOException {
+        Collections.sort(blks);
+        return new Merge();
+    }
+
+    /**
+     * Delete the runs and forget the blocks.
+     */
+    public void close() {
+        for (File run : runs) {
+            FileUtils.deleteQuietly(run);
+        }
+        runs.clear();
+        blks = new ArrayList<MiniSeed>(100);
+        memoryBytes = 0;
+        size = 0;
+        nsamp = 0;
+        first = null;
+        last = null;
+    }
+
+    @Override
+    public String toString() {
+        return "#blks=" + size + " #runs=" + runs.size() + " mem=" + memoryBytes + " budget=" + budget;
+    }
+
+    /**
+     * Merges the sorted runs and the sorted blocks in memory.
+     */
+    public class Merge {
+
+        private final PriorityQueue<Source> heads = new PriorityQueue<Source>();
+        private final ArrayList<InputStream> streams = new ArrayList<InputStream>();
+
+        private Merge() throws IOException {
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    InputStream in = new BufferedInputStream(FileUtils.openInputStream(runs.get(i)));
+                    streams.add(in);
+                    offer(new Source(i, in, null));
+                }
+                offer(new Source(runs.size(), null, blks));
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        private void offer(Source source) throws IOException {
+            if (source.advance()) {
+                heads.add(source);
+            }
+        }
+
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        /**
+         * @return the next block in order.
+         * @throws IOException if a run cannot be read.
+         */
+        public MiniSeed next() throws IOException {
+            Source source = heads.poll();
+            MiniSeed ms = source.head;
+            offer(source);
+            return ms;
+        }
+
+        public void close() {
+            for (InputStream in : streams) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+            streams.clear();
+            heads.clear();
+        }
+    }
+
+    /**
+     * The next block of a run on disk or of the blocks in memory.  Equal
+     * blocks come from the earlier run first so the merge is stable.
+     */
+    private static class Source implements Comparable<Source> {
+
+        private final int order;
+        private final InputStream in;
+        private final ArrayList<MiniSeed> list;
+        private final byte[] scratch;
+        private int next = 0;
+        private MiniSeed head;
+
+        Source(int order, InputStream in, ArrayList<MiniSeed> list) {
+            this.order = order;
+            this.in = in;
+            this.list = list;
+            this.scratch = (in == null ? null : new byte[4096]);
+        }
+
+        boolean advance() throws IOException {
+            if (list != null) {
+                head = (next < list.size() ? list.get(next++) : null);
+            } else {
+                head = MultiplexedMSOutputer.readMiniSeed(in, scratch);
+            }
+            return head != null;
+        }
+
+        public int compareTo(Source other) {
+            int result = head.compareTo(other.head);
+            if (result != 0) {
+                return result;
+            }
+            return (order < other.order ? -1 : (order == other.order ? 0 : 1));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import edu.iris.Fissures.codec.SteimException;
+
+/**
+ * Decodes Steim I and Steim II frames, keeping the reverse integration and
+ * sample count errors of the last decode in the decoder.  Steim2 keeps these
+ * in static fields, so two threads decoding at once see each other's errors;
+ * each outputter instance uses its own SteimDecoder instead.  A decoder is
+ * used by one thread at a time.  The reverse integration check is always
+ * strict.
+ *
+ * @author geoffc
+ */
+public class SteimDecoder {
+
+    private static final int FRAME = 64;
+    private String reverseError = null;
+    private String sampleCountError = null;
+    private final int[] diffs = new int[7];
+
+    /**
+     * @param encoding 10 for Steim I or 11 for Steim II.
+     * @param frames the data frames of the block, starting with the frame holding X0 and Xn.
+     * @param nsamp the number of samples to decode.
+     * @param swapBytes true if the frames are little endian.
+     * @param bias the sample before the first, or 0 to start from the forward integration constant.
+     * @return the nsamp samples, zero after the last one decoded if there were too few.
+     * @throws SteimException if the encoding is not Steim or a frame cannot be decoded.
+     */
+    public int[] decode(int encoding, byte[] frames, int nsamp, boolean swapBytes, int bias) throws SteimException {
+        int[] samples = new int[nsamp];
+        decode(encoding, frames, 0, frames.length, nsamp, swapBytes, bias, 0, samples, 0, nsamp);
+        return samples;
+    }
+
+    /**
+     * Decode some of the samples of a block straight from the record into
+     * dest, allocating nothing.  Decoding stops once count samples have been
+     * put, so the reverse integration constant is only checked when the
+     * samples to the end of the block are asked for.
+     *
+     * @param encoding 10 for Steim I or 11 for Steim II.
+     * @param buf the record.
+     * @param off the offset of the data frames in buf.
+     * @param len the length of the data frames.
+     * @param nsamp the number of samples in the block.
+     * @param swapBytes true if the frames are little endian.
+     * @param bias the sample before the first, or 0 to start from the forward integration constant.
+     * @param skip the number of samples at the start of the block to decode but not put.
+     * @param dest the array to put the samples in.
+     * @param destOff where to put the first sample after skip.
+     * @param count the most samples to put.
+     * @return the number of samples put in dest.
+     * @throws SteimException if the encoding is not Steim or a frame cannot be decoded.
+     */
+    public int decode(int encoding, byte[] buf, int off, int len, int nsamp, boolean swapBytes, int bias,
+            int skip, int[] dest, int destOff, int count) throws SteimException {
+        reverseError = null;
+        sampleCountError = null;
+        if (encoding != 10 && encoding != 11) {
+            throw new SteimException();
+        }
+        int end = Math.min(nsamp, skip + count);
+        int current = 0;
+        int last = bias;
+        int first = 0;
+        int reverse = 0;
+        for (int frame = off; frame + FRAME <= off + len && current < end; frame += FRAME) {
+            int nibbles = word(buf, frame, swapBytes);
+            int w = 1;
+            if (frame == off) {
+                first = word(buf, frame + 4, swapBytes);
+                reverse = word(buf, frame + 8, swapBytes);
+                w = 3;
+            }
+            for (; w < 16 && current < end; w++) {
+                int value = word(buf, frame + w * 4, swapBytes);
+                int n = (encoding == 10 ? steim1(nibbles >>> (30 - 2 * w) & 3, value, diffs) :
+                    steim2(nibbles >>> (30 - 2 * w) & 3, value, diffs));
+                for (int i = 0; i < n && current < end; i++) {
+                    if (current == 0 && bias == 0) {
+                        last = first;
+                    } else {
+                        last += diffs[i];
+                    }
+                    if (current >= skip) {
+                        dest[destOff + current - skip] = last;
+                    }
+                    current++;
+                }
+            }
+        }
+        if (current < end) {
+            sampleCountError = "Steim sample count error: decoded " + current + " of " + nsamp;
+        } else if (end == nsamp && nsamp > 0 && last != reverse) {
+            reverseError = "Steim reverse integration error: last sample " + last + " != Xn " + reverse;
+        }
+        return Math.max(0, current - skip);
+    }
+
+    /**
+     * @return true if the last decode ended on a sample other than the reverse integration constant.
+     */
+    public boolean hadReverseError() {
+        return reverseError != null;
+    }
+
+    /**
+     * @return true if the last decode ran out of frames before the number of samples asked for.
+     */
+    public boolean hadSampleCountError() {
+        return sampleCountError != null;
+    }
+
+    public String getReverseError() {
+        return (reverseError == null ? "" : reverseError);
+    }
+
+    public String getSampleCountError() {
+        return (sampleCountError == null ? "" : sampleCountError);
+    }
+
+    private static int word(byte[] b, int off, boolean swapBytes) {
+        if (swapBytes) {
+            return (b[off + 3] << 24) | ((b[off + 2] & 0xff) << 16) | ((b[off + 1] & 0xff) << 8) | (b[off] & 0xff);
+        }
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static int steim1(int nibble, int value, int[] diffs) {
+        switch (nibble) {
+            case 1:
+                diffs[0] = value >> 24;
+                diffs[1] = value << 8 >> 24;
+                diffs[2] = value << 16 >> 24;
+                diffs[3] = value << 24 >> 24;
+                return 4;
+            case 2:
+                diffs[0] = value >> 16;
+                diffs[1] = value << 16 >> 16;
+                return 2;
+            case 3:
+                diffs[0] = value;
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int steim2(int nibble, int value, int[] diffs) throws SteimException {
+        int dnib = value >>> 30;
+        switch (nibble) {
+            case 1:
+                return steim1(1, value, diffs);
+            case 2:
+                switch (dnib) {
+                    case 1:
+                        return unpack(value, 30, 1, diffs);
+                    case 2:
+                        return unpack(value, 15, 2, diffs);
+                    case 3:
+                        return unpack(value, 10, 3, diffs);
+                    default:
+                        throw new SteimException();
+                }
+            case 3:
+                switch (dnib) {
+                    case 0:
+                        return unpack(value, 6, 5, diffs);
+                    case 1:
+                        return unpack(value, 5, 6, diffs);
+                    case 2:
+                        return unpack(value, 4, 7, diffs);
+                    default:
+                        throw new SteimException();
+                }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Unpack n signed differences of bits each from the low 30 bits of value, first difference highest.
+     */
+    private static int unpack(int value, int bits, int n, int[] diffs) {
+        for (int i = 0; i < n; i++) {
+            int shift = bits * (n - 1 - i);
+            diffs[i] = value << (32 - bits - shift) >> (32 - bits);
+        }
+        return n;
+    }
+}
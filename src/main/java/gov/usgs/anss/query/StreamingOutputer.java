@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+
+/**
+ * An Outputer that can take a channel a block at a time as the blocks are
+ * read, rather than all of them at once in makeFile.  Only one channel is
+ * open at a time and blocks arrive in the order the server sent them, which
+ * is normally time order.
+ *
+ * @author geoffc
+ */
+public interface StreamingOutputer {
+
+    /**
+     * Start a channel.
+     *
+     * @param nscl the channel.
+     * @param filename the output filename, as for makeFile.
+     * @throws IOException
+     */
+    void beginChannel(NSCL nscl, String filename) throws IOException;
+
+    /**
+     * @param ms the next block of the channel.
+     * @throws IOException
+     */
+    void acceptBlock(MiniSeed ms) throws IOException;
+
+    /**
+     * Finish the channel.
+     *
+     * @throws IOException
+     */
+    void endChannel() throws IOException;
+}
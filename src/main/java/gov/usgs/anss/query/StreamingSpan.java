@@ -0,0 +1,253 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import edu.iris.Fissures.codec.SteimException;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * A fill filled time series read a window at a time from time sorted
+ * blocks, for extractions too long to hold as one ZeroFilledSpan.  The
+ * samples, start and fill are the same as a ZeroFilledSpan made from the
+ * blocks with the same trim and duration, but only the blocks a window
+ * needs are held and decoded, so the memory used does not grow with the
+ * duration.
+ * <pre>
+ * StreamingSpan span = new StreamingSpan(blks.iterator(), trim, duration, fill);
+ * int[] window = new int[12000];
+ * for (int n = span.next(window); n > 0; n = span.next(window)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author geoffc
+ */
+public class StreamingSpan {
+
+    private static final Logger logger = Logger.getLogger(StreamingSpan.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private static DateTimeFormatter dtFormat = ISODateTimeFormat.dateTime().withZone(DateTimeZone.forID("UTC"));
+    private final Iterator<MiniSeed> blocks;
+    private final int fill;
+    private final SteimDecoder steim = new SteimDecoder();
+    private final ArrayList<Placed> pending = new ArrayList<Placed>();
+    private Placed lookahead = null;
+    private GregorianCalendar start;
+    private double rate = 0.;
+    private long nsamp = 0;
+    private long position = 0;      // the offset of the next window in the span
+    private long startMicros;
+    private long usover2;
+    private int nblks = 0;
+    private long missing = 0;
+
+    /**
+     * @param blocks the blocks in time order.
+     * @param trim the start time - data before this time are discarded.
+     * @param duration time in seconds this series is to represent.
+     * @param fill the value put where there is no data.
+     */
+    public StreamingSpan(Iterator<MiniSeed> blocks, GregorianCalendar trim, double duration, int fill) {
+        this.blocks = blocks;
+        this.fill = fill;
+
+        // As in ZeroFilledSpan the first block with a rate sets the rate and the sample times.
+        MiniSeed ms = null;
+        while (rate == 0. && blocks.hasNext()) {
+            ms = blocks.next();
+            rate = ms.getRate();
+        }
+        start = new GregorianCalendar();
+        if (rate == 0.) {
+            logger.info("There is no data in this span");
+            start.setTimeInMillis(ms == null ? trim.getTimeInMillis() : ms.getGregorianCalendar().getTimeInMillis());
+            return;
+        }
+        long msStart = EpochMicros.start(ms);
+        int begoffset = (int) ((EpochMicros.fromMillis(trim.getTimeInMillis()) - msStart) *
+                rate / 1000000. + 0.01);
+        startMicros = msStart + (long) (begoffset / rate * 1000000.);   // first in trimmed interval
+        start.setTimeInMillis(EpochMicros.toMillis(startMicros));
+        nsamp = (long) (duration * rate + 0.5);
+        usover2 = (long) (1. / rate * 1000000. / 2.);
+        lookahead = place(ms);
+    }
+
+    /**
+     * Put the next window of samples in window.
+     *
+     * @param window the array to put the samples in, its length is the window size.
+     * @return the number of samples put, 0 at the end of the span.
+     */
+    public int next(int[] window) {
+        int n = (int) Math.min(window.length, nsamp - position);
+        if (n <= 0) {
+            return 0;
+        }
+        long end = position + n;
+        // Blocks come in time order, so once one starts after the window the rest do too.
+        while (lookahead != null && lookahead.offset < end) {
+            pending.add(lookahead);
+            lookahead = (blocks.hasNext() ? place(blocks.next()) : null);
+        }
+
+        Arrays.fill(window, 0, n, fill);
+        // Later blocks are put first so earlier ones win where they overlap.
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            Placed p = pending.get(i);
+            long lo = Math.max(p.offset, position);
+            long hi = Math.min(p.offset + p.count, end);
+            p.decodedTo = lo;
+            if (lo < hi) {
+                p.decodedTo += decode(p, (int) (p.skip + lo - p.offset), window, (int) (lo - position), (int) (hi - lo));
+            }
+        }
+        // The pending blocks are in order of offset, so the samples put are found in one sweep.
+        long reach = position;
+        long put = 0;
+        for (Placed p : pending) {
+            long lo = Math.max(p.offset, reach);
+            if (p.decodedTo > lo) {
+                put += p.decodedTo - lo;
+                reach = p.decodedTo;
+            }
+        }
+        missing += n - put;
+
+        // Drop the blocks that end in this window.
+        int keep = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            Placed p = pending.get(i);
+            if (p.offset + p.count > end) {
+                pending.set(keep++, p);
+            }
+        }
+        while (pending.size() > keep) {
+            pending.remove(pending.size() - 1);
+        }
+        position = end;
+        return n;
+    }
+
+    /**
+     * Work out where a block goes in the span, as ZeroFilledSpan does.
+     */
+    private Placed place(MiniSeed ms) {
+        nblks++;
+        long offset = ZeroFilledSpan.sampleOffset(EpochMicros.start(ms), startMicros, usover2, rate);
+        // if the offset calculated is negative, shorten the transfer to beginning
+        if (offset < 0) {
+            return new Placed(ms, -offset + 1, 0, Math.min(ms.getNsamp() + offset - 1, nsamp));
+        }
+        return new Placed(ms, 0, offset, Math.min(ms.getNsamp(), nsamp - offset));
+    }
+
+    private int decode(Placed p, int skip, int[] window, int windowOff, int count) {
+        MiniSeed ms = p.ms;
+        if (ms.getEncoding() != 11 && ms.getEncoding() != 10) {
+            if (!p.warned) {
+                boolean skipit = false;
+                for (int ith = 0; ith < ms.getNBlockettes(); ith++) {
+                    if (ms.getBlocketteType(ith) == 201) {
+                        skipit = true;     // its a Murdock Hutt, skip it
+                    }
+                }
+                if (!skipit) {
+                    logger.warning("StreamingSpan: Cannot decode - not Steim I or II type=" + ms.getEncoding());
+                    logger.warning(ms.toString());
+                }
+                p.warned = true;
+            }
+            return 0;
+        }
+        try {
+            return steim.decode(ms.getEncoding(), ms.getBuf(), ms.getDataOffset(),
+                    ms.getBlockSize() - ms.getDataOffset(), ms.getNsamp(), ms.isSwapBytes(), 0, skip,
+                    window, windowOff, count);
+        } catch (SteimException e) {
+            logger.severe("block " + ms + " gave steim decode error. " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return the digitizing rate in Hz, 0 if there is no data.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the time of the first sample.
+     */
+    public GregorianCalendar getStart() {
+        return start;
+    }
+
+    /**
+     * @return the number of samples in the span.
+     */
+    public long getNsamp() {
+        return nsamp;
+    }
+
+    /**
+     * @return the number of samples in the windows so far with no data.
+     */
+    public long getNMissingData() {
+        return missing;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingSpan:  ns=" + nsamp + " rt=" + rate + " " + dtFormat.print(start.getTimeInMillis()) +
+                " at=" + position + " #blks=" + nblks + " held=" + pending.size() + " missing=" + missing;
+    }
+
+    /**
+     * A block and where it goes in the span.
+     */
+    private static final class Placed {
+
+        final MiniSeed ms;
+        final long skip;       // samples at the start of the block before the span
+        final long offset;     // where the first sample after skip goes
+        final long count;      // how many samples go in the span
+        long decodedTo;        // the end of the samples put in the current window
+        boolean warned = false;
+
+        Placed(MiniSeed ms, long skip, long offset, long count) {
+            this.ms = ms;
+            this.skip = skip;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+}
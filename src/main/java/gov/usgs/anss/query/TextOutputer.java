@@ -25,6 +25,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
 //import gov.usgs.anss.util.*;
 
 /**
@@ -33,7 +34,7 @@ import java.util.GregorianCalendar;
  * @author	richardg
  * @version	$Id$
  */
-public class TextOutputer extends Outputer {
+public class TextOutputer extends Outputer implements SortedOutputer {
 
 	public static final int WINSTON_NO_DATA = Integer.MIN_VALUE;	// chosen to be the same as Winston Waves.
 //	public static final int SAC_UNDEFINED = -12345;		// this is the undefined value for the Sac data format.
@@ -52,6 +53,12 @@ public class TextOutputer extends Outputer {
         if (blks.isEmpty()) {
             return;    // no data to save
         }
+        BlockList.sort(blks);
+        makeFile(nscl, filename, blks.iterator());
+    }
+
+    public void makeFile(NSCL nscl, String filename,
+			Iterator<MiniSeed> blks) throws IOException {
 		int fill = WINSTON_NO_DATA;
         boolean nogaps = false;		// if true, do not generate a file if it has any gaps!
 
@@ -74,8 +81,8 @@ public class TextOutputer extends Outputer {
         GregorianCalendar start = new GregorianCalendar();
         start.setTimeInMillis(options.getBeginWithOffset().getMillis());
 
-        // build the zero filled area (either with exact limits or with all blocks)
-        final ZeroFilledSpan span = new ZeroFilledSpan(blks, start, options.getDuration(), fill);
+        // build the zero filled area a window at a time (either with exact limits or with all blocks)
+        final StreamingSpan span = new StreamingSpan(blks, start, options.getDuration(), fill);
         if (span.getRate() <= 0.00) {
             return;         // There is no real data to put in SAC
         }
@@ -85,15 +92,17 @@ public class TextOutputer extends Outputer {
 
 		double currentTime = spanStart.getTimeInMillis();
 		final double period = 1000.0 / span.getRate();
-		int data;
-
-		for (int i = 0; i < span.getNsamp(); i++) {
-			data = span.getData(i);
-			if (nogaps || data != fill) {
-				out.println((long)Math.round(currentTime) + " " + span.getData(i));
+		int[] window = SpanPool.getShared().borrow(12000);
+
+		for (int n = span.next(window); n > 0; n = span.next(window)) {
+			for (int i = 0; i < n; i++) {
+				if (nogaps || window[i] != fill) {
+					out.println((long)Math.round(currentTime) + " " + window[i]);
+				}
+				currentTime += period;
 			}
-			currentTime += period;
 		}
+		SpanPool.getShared().giveBack(window);
 
 
         out.close();
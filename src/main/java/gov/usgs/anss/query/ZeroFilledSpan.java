@@ -18,12 +18,19 @@
  */
 package gov.usgs.anss.query;
 
-import edu.iris.Fissures.codec.*;
+import edu.iris.Fissures.codec.SteimException;
 import gov.usgs.anss.seed.MiniSeed;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
-import java.util.Calendar;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
@@ -41,7 +48,7 @@ import org.joda.time.format.ISODateTimeFormat;
  *
  * @author davidketchum
  */
-public class ZeroFilledSpan {
+public class ZeroFilledSpan implements SampleSpan {
 
     int nsamp;
     int fillValue;
@@ -50,6 +57,16 @@ public class ZeroFilledSpan {
     double rate = 0.;
     boolean dbg = false;
     String missingSummary;
+    private final SteimDecoder steim = new SteimDecoder();
+    private SpanPool pool = null;       // where data came from and goes back to, if anywhere
+    private ArrayList<Gap> gaps = new ArrayList<Gap>();     // the unfilled sample ranges in order
+    private boolean haveMinMax = false;
+    private int min;
+    private int max;
+    /** Spans with fewer blocks to decode than this are decoded serially. */
+    static final int PARALLEL_BLOCKS = 256;
+    private static final int DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService decodeExecutor = null;
     protected static final Logger logger = Logger.getLogger(ZeroFilledSpan.class.getName());
 
 
@@ -104,8 +121,8 @@ public class ZeroFilledSpan {
 
         logger.fine("getData starting =" + hmsFormat.print(starting.getTimeInMillis()) + " buf start=" + hmsFormat.print(start.getTimeInMillis()) + " offset=" + offset);
 
-        if (nsamp + offset > data.length) {
-            nsamp = data.length - offset;
+        if (nsamp + offset > this.nsamp) {
+            nsamp = this.nsamp - offset;
         }
         System.arraycopy(data, offset, d, 0, nsamp);
         return nsamp;
@@ -125,6 +142,13 @@ public class ZeroFilledSpan {
         return data[i];
     }
 
+    /** get the ith time series value
+     *@param i THe index (starting with zero) of the data point to return.
+     *@return The ith timeseries value*/
+    public int getData(long i) {
+        return data[(int) i];
+    }
+
     /** get a chunk of the data into an array,
      *@param d The array to put the data in
      *@param off The offset in the internal data buffer to start
@@ -140,6 +164,19 @@ public class ZeroFilledSpan {
         return n;
     }
 
+    /** get a chunk of the data into an array, as getData(int[], int, int)
+     *@return The number of samples actually returned <=len
+     */
+    public int getData(int[] d, long off, int len) {
+        return getData(d, (int) off, len);
+    }
+
+    /** get number of data samples in timeseries (many might be zeros)
+     *@return Number of samples in series */
+    public long getSampleCount() {
+        return nsamp;
+    }
+
     /** get number of data samples in timeseries (many might be zeros)
      *@return Number of samples in series */
     public int getNsamp() {
@@ -152,66 +189,72 @@ public class ZeroFilledSpan {
         return start;
     }
 
-    /** return the max value of the time serieis
-     *@return Max value of the timeseries*/
+    /** return the min value of the time series, including any fill values
+     *@return Min value of the timeseries*/
     public int getMin() {
-        int min = 2147000000;
-        for (int i = 0; i < nsamp; i++) {
-            if (data[i] < min) {
-                min = data[i];
-            }
-        }
+        findMinMax();
         return min;
     }
 
-    /** return the max value of the time serieis
+    /** return the max value of the time series, including any fill values
      *@return Max value of the timeseries*/
     public int getMax() {
-        int max = -2147000000;
-        for (int i = 0; i < nsamp; i++) {
-            if (data[i] > max) {
-                max = data[i];
+        findMinMax();
+        return max;
+    }
+
+    /** Find the min and max in one pass over the filled samples. */
+    private void findMinMax() {
+        if (haveMinMax) {
+            return;
+        }
+        min = 2147000000;
+        max = -2147000000;
+        int from = 0;
+        for (int g = 0; g <= gaps.size(); g++) {
+            int to = (g < gaps.size() ? gaps.get(g).start : nsamp);
+            for (int i = from; i < to; i++) {
+                int v = data[i];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+            }
+            if (g < gaps.size()) {
+                min = Math.min(min, fillValue);
+                max = Math.max(max, fillValue);
+                from = gaps.get(g).end;
             }
         }
-        return max;
+        haveMinMax = true;
     }
 
     /** return true if any portion of the allocated space has a "no data" or fill value.
      * Trim number of samples to reflect actual sample if end contains some no data points.
      * @return true if there is at least on missing data value*/
     public boolean hasGapsBeforeEnd() {
-        int ns = nsamp;
-        if (data[0] == fillValue) {
-            return true;     // opening with fill
+        if (gaps.isEmpty()) {
+            return false;
         }
-        int i = 0;
-        for (i = nsamp - 1; i >= 0; i--) {
-            if (data[i] != fillValue) {
-                ns = i + 1;
-                break;
-            }
-        }
-        if (i <= 0 && ns == nsamp) {
-            return false;      // no fill Values found looking for last one!
+        if (gaps.get(0).start == 0) {
+            return true;     // opening with fill
         }
-        for (i = 0; i < ns; i++) {
-            if (data[i] == fillValue) {
-                return true;
-            }
+        Gap last = gaps.get(gaps.size() - 1);
+        if (gaps.size() > 1 || last.end < nsamp) {
+            return true;
         }
-        nsamp = ns;
+        nsamp = last.start;     // trim the fill off the end
+        gaps.remove(gaps.size() - 1);
+        haveMinMax = false;
         return false;
     }
 
     /** return true if any portion of the allocated space has a "no data" or fill value
      * @return true if there is at least on missing data value*/
     public boolean hasGaps() {
-        for (int i = 0; i < nsamp; i++) {
-            if (data[i] == fillValue) {
-                return true;
-            }
-        }
-        return false;
+        return !gaps.isEmpty();
     }
 
     /** return number of missing data points *
@@ -219,23 +262,22 @@ public class ZeroFilledSpan {
      */
     public int getNMissingData() {
         int noval = 0;
-        int first = -1;
-        int last = nsamp + 1;
-        for (int i = 0; i < nsamp; i++) {
-            if (data[i] == fillValue) {
-                noval++;
-                last = i;
-                if (noval == 1) {
-                    first = i;
-                }
-            }
+        for (Gap gap : gaps) {
+            noval += gap.end - gap.start;
         }
-        if (first >= 0) {
-            missingSummary = "First at " + first + " last at " + last + " # missing=" + noval;
+        if (noval > 0) {
+            missingSummary = "First at " + gaps.get(0).start + " last at " + (gaps.get(gaps.size() - 1).end - 1) +
+                    " # missing=" + noval;
         }
         return noval;
     }
 
+    /** get the sample ranges no block was put in, which hold the fill value
+     * @return The gaps in order of start*/
+    public List<Gap> getGaps() {
+        return Collections.unmodifiableList(gaps);
+    }
+
     /**
      * compare to ZeroFilledSpans for "equivalence"
      * @return True if equivaleng
@@ -290,7 +332,7 @@ public class ZeroFilledSpan {
      *@param list A list containing Mini-seed objects to put in this series
      */
     public ZeroFilledSpan(ArrayList<MiniSeed> list) {
-        Collections.sort(list);
+        BlockList.sort(list);
 
         // Need to find first and last data block to calculate time span
         int j = 0;
@@ -307,7 +349,7 @@ public class ZeroFilledSpan {
         // calculate span and do it
         double duration = (msend.getGregorianCalendar().getTimeInMillis() -
                 ms.getGregorianCalendar().getTimeInMillis()) / 1000. + msend.getNsamp() / msend.getRate();
-        doZeroFilledSpan(list, ms.getGregorianCalendar(), duration, 0);
+        doZeroFilledSpan(list, ms.getGregorianCalendar(), duration, 0, null);
     }
 
     /** Creates a new instance of ZeroFilledSpan - this represents zero filled
@@ -317,7 +359,7 @@ public class ZeroFilledSpan {
      *@param duration Time in seconds that this series is to represent
      */
     public ZeroFilledSpan(ArrayList<MiniSeed> list, GregorianCalendar trim, double duration) {
-        doZeroFilledSpan(list, trim, duration, 0);
+        doZeroFilledSpan(list, trim, duration, 0, null);
     }
 
     /** create a new instance of ZeroFilledSpan from a list of mini-seed blockettes
@@ -341,7 +383,7 @@ public class ZeroFilledSpan {
         // calculate span and do it
         double duration = (msend.getGregorianCalendar().getTimeInMillis() -
                 ms.getGregorianCalendar().getTimeInMillis()) / 1000. + msend.getNsamp() / msend.getRate();
-        doZeroFilledSpan(list, ms.getGregorianCalendar(), duration, fill);
+        doZeroFilledSpan(list, ms.getGregorianCalendar(), duration, fill, null);
     }
 
     /** Creates a new instance of ZeroFilledSpan - this represents zero filled
@@ -352,7 +394,46 @@ public class ZeroFilledSpan {
      *@param fill a integer to use to pre-fill the array, (the not a data value)
      */
     public ZeroFilledSpan(ArrayList<MiniSeed> list, GregorianCalendar trim, double duration, int fill) {
-        doZeroFilledSpan(list, trim, duration, fill);
+        doZeroFilledSpan(list, trim, duration, fill, null);
+    }
+
+    /** Creates a new instance of ZeroFilledSpan - this represents zero filled
+     * time series record.  Spans of many blocks are decoded in parallel on
+     * executor, giving the same samples as decoding serially.
+     *@param list  A list containing Mini-seed objects to put in this series
+     *@param trim  The start time - data before this time are discarded
+     *@param duration Time in seconds that this series is to represent
+     *@param fill a integer to use to pre-fill the array, (the not a data value)
+     *@param executor The executor to decode on, usually getDecodeExecutor()
+     */
+    public ZeroFilledSpan(ArrayList<MiniSeed> list, GregorianCalendar trim, double duration, int fill,
+            ExecutorService executor) {
+        doZeroFilledSpan(list, trim, duration, fill, executor);
+    }
+
+    /** Creates a new instance of ZeroFilledSpan - this represents zero filled
+     * time series record.  The data array is borrowed from pool, and goes
+     * back to it on release().
+     *@param list  A list containing Mini-seed objects to put in this series
+     *@param trim  The start time - data before this time are discarded
+     *@param duration Time in seconds that this series is to represent
+     *@param fill a integer to use to pre-fill the array, (the not a data value)
+     *@param executor The executor to decode on, null to decode serially
+     *@param pool The pool to borrow the data array from, usually SpanPool.getShared()
+     */
+    public ZeroFilledSpan(ArrayList<MiniSeed> list, GregorianCalendar trim, double duration, int fill,
+            ExecutorService executor, SpanPool pool) {
+        this.pool = pool;
+        doZeroFilledSpan(list, trim, duration, fill, executor);
+    }
+
+    /** give the data array back to the pool the span was made with, if any.
+     * The span and any array from getData() must not be used afterwards.*/
+    public void release() {
+        if (pool != null && data != null) {
+            pool.giveBack(data);
+        }
+        data = null;
     }
 
     public void refill(ArrayList<MiniSeed> list, GregorianCalendar trim, double dur, int fill) {
@@ -365,10 +446,12 @@ public class ZeroFilledSpan {
             return;
         }
         double duration = dur;
-        if (data.length < dur * ms.getRate() + 0.01) {
-            data = new int[(int) (dur * ms.getRate() + 0.01)];
+        if (data == null || data.length < dur * ms.getRate() + 0.01) {
+            release();
+            data = (pool == null ? new int[(int) (dur * ms.getRate() + 0.01)] :
+                pool.borrow((int) (dur * ms.getRate() + 0.01)));
         }
-        doZeroFilledSpan(list, trim, duration, fill);
+        doZeroFilledSpan(list, trim, duration, fill, null);
     }
 
     /** populate a zero filled span.  Called by the constructors
@@ -377,8 +460,10 @@ public class ZeroFilledSpan {
      * @param trim Start time - data before this time is discarded.
      * @param duration Time in seconds to do it
      * @param fill an integer to use to pre-fill the array (the not-a-data value)
+     * @param executor if not null long spans are decoded on it in parallel.
      */
-    private void doZeroFilledSpan(ArrayList<MiniSeed> list, GregorianCalendar trim, double duration, int fill) {
+    private void doZeroFilledSpan(ArrayList<MiniSeed> list, GregorianCalendar trim, double duration, int fill,
+            ExecutorService executor) {
 
         fillValue = fill;
         // Look through blocks until we find one that has a rate (i.e. probably data!)
@@ -393,7 +478,10 @@ public class ZeroFilledSpan {
         if (rate == 0.) {
             logger.info("There is no data in this span");
             nsamp = 0;
+            release();
             data = new int[1];
+            gaps = new ArrayList<Gap>();
+            haveMinMax = false;
             start = new GregorianCalendar();
             if (ms == null) {
                 start.setTimeInMillis(trim.getTimeInMillis());
@@ -402,82 +490,250 @@ public class ZeroFilledSpan {
             }
             return;
         }
-        int begoffset = (int) ((trim.getTimeInMillis() - ms.getGregorianCalendar().getTimeInMillis()) *
-                rate / 1000. + 0.01);
+        long msStart = EpochMicros.start(ms);
+        int begoffset = (int) ((EpochMicros.fromMillis(trim.getTimeInMillis()) - msStart) *
+                rate / 1000000. + 0.01);
 
-        logger.fine(dtFormat.print(trim.getTimeInMillis()) + " start = " + dtFormat.print(ms.getGregorianCalendar().getTimeInMillis()));
+        logger.fine(dtFormat.print(trim.getTimeInMillis()) + " start = " + dtFormat.print(EpochMicros.toMillis(msStart)));
 
         // The start time of this span is the time of first sample from first ms after
         // the trim start time
-        start = new GregorianCalendar();
-        start.setTimeInMillis(ms.getGregorianCalendar().getTimeInMillis());
-        start.add(Calendar.MILLISECOND, (int) (begoffset / rate * 1000.));// first in trimmed interval
+        long startMicros = msStart + (long) (begoffset / rate * 1000000.);   // first in trimmed interval
+        start = EpochMicros.toCalendar(startMicros);
 
         logger.fine(dtFormat.print(start.getTimeInMillis()) + " begoff= " + begoffset);
 
-        byte[] frames;
         MiniSeed msend = (MiniSeed) list.get(list.size() - 1);
-        nsamp = (int) (duration * ms.getRate() + 0.5);
+        double ns = duration * ms.getRate() + 0.5;
+        if (ns >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A span of " + duration + " s at " + ms.getRate() +
+                    " Hz is too many samples for an array, use a MappedSpan.");
+        }
+        nsamp = (int) ns;
         //logger.finer("duration="+duration+" nsf="+(duration*ms.getRate())+"nsamp="+nsamp);
-        data = new int[nsamp];
-        if (fill != 0) {
-            for (int i = 0; i < nsamp; i++) {
-                data[i] = fill;
-            }
+        if (data == null || data.length < nsamp) {     // refill() reuses the array it has
+            release();
+            data = (pool == null ? new int[nsamp] : pool.borrow(nsamp));
         }
-        int msover2 = (int) (1. / rate * 1000. / 2.);         // 1/2 of a bin width in  millis
-        for (int i = list.size() - 1; i >= 0; i--) {
+        long usover2 = (long) (1. / rate * 1000000. / 2.);     // 1/2 of a bin width in micros
+        boolean fine = logger.isLoggable(Level.FINE);
+        int nblks = list.size();
+        int[] skips = new int[nblks];
+        int[] offsets = new int[nblks];
+        int[] counts = new int[nblks];
+        int[] written = new int[nblks];
+        int ndecode = 0;
+        for (int i = nblks - 1; i >= 0; i--) {
             ms = (MiniSeed) list.get(i);
-            int offset = (int) ((ms.getGregorianCalendar().getTimeInMillis() -
-                    start.getTimeInMillis() + msover2) * rate / 1000.);
-            long mod = (long) ((ms.getGregorianCalendar().getTimeInMillis() -
-                    start.getTimeInMillis() + msover2) * rate) % 1000L;
-
-            logger.fine(dtFormat.print(start.getTimeInMillis()) + " ms[0] =" +
-                    dtFormat.print(ms.getGregorianCalendar().getTimeInMillis()) + " offset=" + offset + " ns=" + ms.getNsamp());
-
-
-            // get the compression frames
-            frames = new byte[ms.getBlockSize() - ms.getDataOffset()];
-            System.arraycopy(ms.getBuf(), ms.getDataOffset(), frames, 0, ms.getBlockSize() - ms.getDataOffset());
-            if (ms.getEncoding() != 11 && ms.getEncoding() != 10) {
-                boolean skip = false;
-                for (int ith = 0; ith < ms.getNBlockettes(); ith++) {
-                    if (ms.getBlocketteType(ith) == 201) {
-                        skip = true;     // its a Murdock Hutt, skip it
-                    }
-                }
-                if (!skip) {
-                    logger.warning("ZeroFilledSpan: Cannot decode - not Steim I or II type=" + ms.getEncoding() + " blk=" + i);
-                    logger.warning(ms.toString());
-                }
-                continue;
-            //System.exit(0);
+            msStart = EpochMicros.start(ms);
+            int offset = (int) sampleOffset(msStart, startMicros, usover2, rate);
+
+            if (fine) {
+                logger.fine(dtFormat.print(start.getTimeInMillis()) + " ms[0] =" +
+                        dtFormat.print(EpochMicros.toMillis(msStart)) + " offset=" + offset + " ns=" + ms.getNsamp());
             }
-            try {
-                int reverse = 0;
-                int[] samples = null;
-                if (ms.getEncoding() == 10) {
-                    samples = Steim1.decode(frames, ms.getNsamp(), ms.isSwapBytes(), reverse);
-                }
-                if (ms.getEncoding() == 11) {
-                    samples = Steim2.decode(frames, ms.getNsamp(), ms.isSwapBytes(), reverse);
+
+            // if the offset calculated is negative, shorten the transfer to beginning
+            if (offset < 0) {
+                skips[i] = -offset + 1;
+                offsets[i] = 0;
+                counts[i] = Math.min(ms.getNsamp() + offset - 1, nsamp);
+            } else {
+                offsets[i] = offset;
+                counts[i] = Math.min(ms.getNsamp(), nsamp - offset);
+            }
+            if (counts[i] > 0) {
+                ndecode++;
+            }
+        }
+
+        if (executor == null || ndecode < PARALLEL_BLOCKS) {
+            // Later blocks are put first so earlier ones win where they overlap.
+            for (int i = nblks - 1; i >= 0; i--) {
+                written[i] = decodeBlock(steim, list.get(i), i, skips[i], offsets[i], counts[i]);
+            }
+        } else {
+            decodeParallel(list, skips, offsets, counts, written, ndecode, executor);
+        }
+        findGaps(offsets, written);
+    }
+
+    /**
+     * Record the sample ranges no block was decoded into as the gaps, and
+     * put the fill value in them.
+     *
+     * @param offsets where each block was put.
+     * @param written how many samples each block put.
+     */
+    private void findGaps(int[] offsets, int[] written) {
+        int n = 0;
+        long[] keys = new long[written.length];
+        for (int i = 0; i < written.length; i++) {
+            if (written[i] > 0) {
+                keys[n++] = ((long) offsets[i] << 32) | i;
+            }
+        }
+        Arrays.sort(keys, 0, n);
+
+        gaps = new ArrayList<Gap>();
+        haveMinMax = false;
+        int end = 0;                // the end of the samples filled so far
+        for (int k = 0; k < n; k++) {
+            int i = (int) keys[k];
+            if (offsets[i] > end) {
+                gaps.add(new Gap(end, offsets[i]));
+            }
+            end = Math.max(end, offsets[i] + written[i]);
+        }
+        if (end < nsamp) {
+            gaps.add(new Gap(end, nsamp));
+        }
+        // Always fill, even with 0, as a pooled or refilled array holds old samples.
+        for (Gap gap : gaps) {
+            Arrays.fill(data, gap.start, gap.end, fillValue);
+        }
+    }
+
+    /**
+     * Decode the blocks on executor.  Blocks are put in order of where they
+     * go in the span and cut into clusters, each a run of blocks that
+     * overlap one another and no block in another cluster.  A task decodes
+     * whole clusters, each in the serial order, so the span is the same as
+     * decoding serially.
+     */
+    private void decodeParallel(final ArrayList<MiniSeed> list, final int[] skips, final int[] offsets,
+            final int[] counts, final int[] written, int ndecode, ExecutorService executor) {
+        long[] keys = new long[ndecode];
+        int n = 0;
+        for (int i = 0; i < list.size(); i++) {
+            if (counts[i] > 0) {
+                keys[n++] = ((long) offsets[i] << 32) | i;
+            }
+        }
+        Arrays.sort(keys);
+
+        int ntasks = DECODE_THREADS * 4;
+        int target = (ndecode + ntasks - 1) / ntasks;
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(ntasks + 1);
+        int first = 0;
+        int end = 0;                    // the end of the span covered by the cluster so far
+        for (int k = 0; k <= ndecode; k++) {
+            int i = (k < ndecode ? (int) keys[k] : 0);
+            if (k == ndecode || (k - first >= target && offsets[i] >= end)) {
+                final int[] blocks = new int[k - first];
+                for (int j = first; j < k; j++) {
+                    blocks[j - first] = (int) keys[j];
                 }
-                // if the offset calculated is negative, shorten the transfer to beginning
-                //logger.finer("offset="+offset+" ms.nsamp="+ms.getNsamp()+" bufsiz="+nsamp);
-                if (offset < 0) {
-                    if (ms.getNsamp() + offset - 1 > 0) {
-                        System.arraycopy(samples, -offset + 1, data, 0,
-                                Math.min(ms.getNsamp() + offset - 1, nsamp));
+                futures.add(executor.submit(new Runnable() {
+
+                    public void run() {
+                        Arrays.sort(blocks);
+                        SteimDecoder decoder = new SteimDecoder();
+                        for (int j = blocks.length - 1; j >= 0; j--) {
+                            int b = blocks[j];
+                            written[b] = decodeBlock(decoder, list.get(b), b, skips[b], offsets[b], counts[b]);
+                        }
                     }
-                } else if (nsamp - offset > 0) {
-                    System.arraycopy(samples, 0, data, offset,
-                            Math.min(ms.getNsamp(), nsamp - offset));
+                }));
+                first = k;
+            }
+            if (k < ndecode) {
+                end = Math.max(end, offsets[i] + counts[i]);
+            }
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted decoding span", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed decoding span", e.getCause());
+        }
+    }
+
+    /**
+     * Decode the count samples of block i after the first skip into data at offset.
+     *
+     * @return the number of samples put in data.
+     */
+    private int decodeBlock(SteimDecoder decoder, MiniSeed ms, int i, int skip, int offset, int count) {
+        if (count <= 0) {
+            return 0;       // the block is wholly outside the span, do not decode it
+        }
+        if (ms.getEncoding() != 11 && ms.getEncoding() != 10) {
+            boolean skipit = false;
+            for (int ith = 0; ith < ms.getNBlockettes(); ith++) {
+                if (ms.getBlocketteType(ith) == 201) {
+                    skipit = true;     // its a Murdock Hutt, skip it
                 }
-            } catch (SteimException e) {
-                logger.severe("block " + i + " gave steim decode error. " + e.getMessage());
             }
-        }           // end for each block in list
+            if (!skipit) {
+                logger.warning("ZeroFilledSpan: Cannot decode - not Steim I or II type=" + ms.getEncoding() + " blk=" + i);
+                logger.warning(ms.toString());
+            }
+            return 0;
+        }
+        // decode straight from the record into the span
+        try {
+            return decoder.decode(ms.getEncoding(), ms.getBuf(), ms.getDataOffset(),
+                    ms.getBlockSize() - ms.getDataOffset(), ms.getNsamp(), ms.isSwapBytes(), 0, skip, data, offset, count);
+        } catch (SteimException e) {
+            logger.severe("block " + i + " gave steim decode error. " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * The span offset of a block's first sample, truncated after adding half a
+     * sample.  StreamingSpan places its blocks the same way.
+     *
+     * @param msStart the block start in epoch microseconds.
+     * @param startMicros the span start in epoch microseconds.
+     * @param usover2 half a sample in microseconds.
+     * @param rate the sample rate.
+     * @return the offset in samples, negative for a block that begins before the span.
+     */
+    static long sampleOffset(long msStart, long startMicros, long usover2, double rate) {
+        return (long) ((msStart - startMicros + usover2) * rate / 1000000.);
+    }
+
+    /**
+     * @return the shared executor for decoding long spans in parallel, with
+     * one daemon thread per processor.
+     */
+    public static synchronized ExecutorService getDecodeExecutor() {
+        if (decodeExecutor == null) {
+            decodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+
+                private int n = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ZeroFilledSpan-" + (n++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return decodeExecutor;
+    }
+
+    /** A range of samples with no data, from start up to but not including end. */
+    public static final class Gap {
+
+        public final int start;
+        public final int end;
+
+        Gap(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
     }
 
 	/** Left pad a string s to Width.
@@ -20,14 +20,17 @@ package gov.usgs.anss.query.cwb.data;
 
 import gov.usgs.anss.query.cwb.formatter.CWBQueryFormatter;
 import gov.usgs.anss.edge.IllegalSeednameException;
+import gov.usgs.anss.query.BlockList;
 import gov.usgs.anss.query.NSCL;
 import gov.usgs.anss.query.cwb.messages.MessageFormatter;
 import gov.usgs.anss.seed.MiniSeed;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.TreeSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
@@ -61,6 +64,12 @@ public class CWBDataServerMSEED implements CWBDataServer {
     private NSCL lastNSCL = null;
     private boolean quiet = false;
 	private boolean inStreamOk = false;
+	private boolean connectionLost = false;
+	private boolean keepAlive = false;
+	private long connectMillis = 0;
+	private byte[] readBuf = new byte[4096];     // each record is read into this, then copied to its MiniSeed
+	private MiniSeedSelector selector = null;
+	private LinkedBlockingQueue<Object> selected = null;    // records from the selector, then whether it completed
 
     /**
      * Provides methods for running queries against a CWB server.
@@ -121,77 +130,162 @@ public class CWBDataServerMSEED implements CWBDataServer {
      */
     public void query(DateTime begin, Double duration, String nsclSelectString) {
 
-        while (ds == null) {
+        incomingMiniSEED = new LinkedBlockingQueue<MiniSeed>();
+        inStreamOk = false;
+
+        if (selector != null) {
+            querySelected(CWBQueryFormatter.miniSEED(begin, duration, nsclSelectString));
+            readFirst(true);
+            return;
+        }
+        selected = null;
+
+        String command = CWBQueryFormatter.miniSEED(begin, duration, nsclSelectString);
+        boolean fresh = (ds == null);
+        if (!send(command, fresh)) {
+            return;
+        }
+        readFirst(fresh);
+
+        // A connection kept from an earlier query may have been closed by the
+        // server while it was idle, which is only seen when it is next used, so
+        // the query is tried once more on a new connection.
+        if (!fresh && connectionLost && incomingMiniSEED.isEmpty()) {
+            logger.fine("Kept connection to " + getHost() + ":" + getPort() + " was lost, reconnecting.");
+            close();
+            if (send(command, true)) {
+                readFirst(true);
+            }
+        }
+    }
 
+    /**
+     * Write a query, connecting first if there is no open connection.
+     *
+     * @param command the query as sent to the server.
+     * @param fresh true if a failure will not be retried, so is logged as severe.
+     * @return false if a connection could not be made.
+     */
+    private boolean send(String command, boolean fresh) {
+        long startConnect = System.currentTimeMillis();
+        boolean opened = (ds == null);
+        if (ds == null) {
             try {
-                ds = new Socket(this.getHost(), this.getPort());
-            } catch (UnknownHostException ex) {
-                ds = null;
-                logger.warning("Cannot resolve the host: " + this.getHost());
+                ds = ConnectionStrategy.forHost(this.getHost(), this.getPort()).connect();
+                ds.setKeepAlive(keepAlive);
+                connectionLost = false;
             } catch (IOException ex) {
                 ds = null;
-                if (ex.getMessage() != null) {
-                    if (ex.getMessage().indexOf("Connection refused") >= 0) {
-                        logger.warning("Problem connecting to " + this.getHost() + ":" + this.getPort() + "  Either the server is down or there is an internet connection problem. " + "Will try again in 20 seconds.");
-                    }
-                } else {
-                    logger.warning("Got IOError opening socket to server e=" + ex);
-                }
-            }
-
-            if (ds == null) {
-                try {
-                    Thread.sleep(20000);
-                } catch (InterruptedException ex) {
-                    // Presumably only if we get sigtermed etc.
-                }
+                connectMillis = System.currentTimeMillis() - startConnect;
+                logger.severe("Could not connect to " + this.getHost() + ":" + this.getPort() + " " + ex.getMessage());
+                return false;
             }
         }
 
+        connectMillis = (opened ? System.currentTimeMillis() - startConnect : 0);
+
         try {
             inStream = ds.getInputStream();
             outStream = ds.getOutputStream();
-            outStream.write(CWBQueryFormatter.miniSEED(begin, duration, nsclSelectString).getBytes());
+            outStream.write(command.getBytes());
         } catch (IOException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            connectionLost = true;
+            logger.log(fresh ? Level.SEVERE : Level.FINE, null, ex);
         }
+        return true;
+    }
 
-        incomingMiniSEED = new LinkedBlockingQueue<MiniSeed>();
+    /**
+     * Start the query on the selector.  The records are queued as they are
+     * framed on the selector thread, and taken from the queue by next().  The
+     * listener holds its own queue so a later query never sees them.
+     */
+    private void querySelected(String command) {
+        final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+        selected = queue;
+        connectMillis = 0;
+        connectionLost = false;
+        selector.query(getHost(), getPort(), command, 0, new MiniSeedSelector.Listener() {
+
+            public void block(MiniSeed ms) {
+                queue.add(ms);
+            }
+
+            public void end(boolean complete) {
+                queue.add(Boolean.valueOf(complete));
+            }
+        });
+    }
 
-        // Get the first block
+    /**
+     * Get the first block.
+     *
+     * @param fresh true if a failure will not be retried, so is logged.
+     */
+    private void readFirst(boolean fresh) {
         try {
             MiniSeed ms = null;
-            if ((ms = read(inStream)) != null) {
+            if ((ms = next()) != null) {
                 // The logical inversion of the test to continue read in getNext.
                 if (ms.getIndicator().compareTo("D ") >= 0) {
-                    newNSCL = NSCL.stringToNSCL(ms.getSeedName());
+                    newNSCL = NSCL.fromRecord(ms.getBuf(), 0);
                     lastNSCL = newNSCL;
                     incomingMiniSEED.add(ms);
                 } else {
                     logger.info("First block in query not data: " + ms);
                 }
-            } else {
+            } else if (fresh || !connectionLost) {
                 logger.warning("Failed to read first block in query.");
             }
         } catch (IOException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            inStreamOk = false;
+            connectionLost = true;
+            logger.log(fresh ? Level.SEVERE : Level.FINE, null, ex);
         }
     }
 	
+	/**
+	 * The next record of the query, from the selector if there is one,
+	 * otherwise read from the connection.
+	 * @return the record, or null at the end of the query.
+	 * @throws IOException
+	 */
+	private MiniSeed next() throws IOException {
+		if (selected == null) {
+			return read(inStream);
+		}
+		Object o;
+		try {
+			o = selected.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a record from " + getHost() + ":" + getPort());
+		}
+		if (o instanceof MiniSeed) {
+			inStreamOk = true;
+			return (MiniSeed) o;
+		}
+		inStreamOk = false;
+		connectionLost = !((Boolean) o).booleanValue();
+		return null;
+	}
+
 	/**
 	 * Attempts to read a MiniSeed object from a given input stream setting the
-	 * subsequent StreamStatus.
+	 * subsequent StreamStatus.  The record is read into a buffer kept for the
+	 * connection, so the only allocation per record is the MiniSeed's own copy.
 	 * @param inStream
 	 * @return the MiniSeed object to read in to.
 	 * @throws IOException
 	 */
 	public MiniSeed read(InputStream inStream) throws IOException {
-		byte[] b = new byte[4096];
+		byte[] b = readBuf;
 		MiniSeed ms = null;
 
 		if (!read(inStream, b, 0, 512)) {
 			logger.fine("Failed to read block from input stream - connection lost?");
 			inStreamOk = false;
+			connectionLost = true;
 			return null;
 		}
 		
@@ -201,27 +295,27 @@ public class CWBDataServerMSEED implements CWBDataServer {
 			return null;
 		} else {
 
+			// Take the record length from the raw header so the MiniSeed is
+			// only made once, when the whole record has been read.
+			int length = MiniSeedFramer.recordLength(ByteBuffer.wrap(b), 0, 512);
+			if (length > 512) {
+				if (length > b.length) {
+					b = Arrays.copyOf(b, length);
+					readBuf = b;
+				}
+				read(inStream, b, 512, length - 512);
+			} else {
+				length = 512;
+			}
+
 			try {
 				// If we don't specify the offset and length it allocates the same
 				// size as b for the MiniSeed buf, which is particularly wasteful
 				// given most blocks are only 512 (not 4096).
-				ms = new MiniSeed(b, 0, 512);
+				ms = new MiniSeed(b, 0, length);
 			} catch (IllegalSeednameException ex) {
 				logger.log(Level.SEVERE, null, ex);
 			}
-
-			// This happens when the incoming blocks are bigger than 512, so we
-			// have to "re-read" them at the correct size.
-			if (ms.getBlockSize() != 512) {
-				read(inStream, b, 512, ms.getBlockSize() - 512);
-
-				try {
-					ms = new MiniSeed(b, 0, ms.getBlockSize());
-				} catch (IllegalSeednameException ex) {
-					logger.log(Level.SEVERE, null, ex);
-				}
-
-			}
 		}
 		
 
@@ -236,13 +330,15 @@ public class CWBDataServerMSEED implements CWBDataServer {
      */
     public TreeSet<MiniSeed> getNext() {
 
-        TreeSet<MiniSeed> blks = new TreeSet<MiniSeed>();
+        // The blocks arrive almost in order so are gathered in a BlockList, which sorts
+        // them in one pass when they are in order, rather than into a TreeSet one by one.
+        BlockList blks = new BlockList();
 
 		try {
 			MiniSeed ms;
 			read:
 			while (inStreamOk) {
-				if ((ms = read(inStream)) != null) {
+				if ((ms = next()) != null) {
 
 					if (ms.getIndicator().compareTo("D ") < 0) {
 						continue read;
@@ -250,10 +346,10 @@ public class CWBDataServerMSEED implements CWBDataServer {
 
 					// This sets up the NSCL on the very first miniSEED block
 					if (lastNSCL == null) {
-						lastNSCL = NSCL.stringToNSCL(ms.getSeedName());
+						lastNSCL = NSCL.fromRecord(ms.getBuf(), 0);
 					}
 
-					newNSCL = NSCL.stringToNSCL(ms.getSeedName());
+					newNSCL = NSCL.fromRecord(ms.getBuf(), 0);
 
 					if (newNSCL.equals(lastNSCL)) {
 						incomingMiniSEED.add(ms);
@@ -277,11 +373,12 @@ public class CWBDataServerMSEED implements CWBDataServer {
             incomingMiniSEED.drainTo(blks);
         }
 
+        TreeSet<MiniSeed> sorted = blks.toTreeSet();
         if (!quiet) {
-            logger.info(MessageFormatter.miniSeedSummary(new DateTime(), blks));
+            logger.info(MessageFormatter.miniSeedSummary(new DateTime(), sorted));
         }
 
-        return blks;
+        return sorted;
     }
 
     /**
@@ -319,16 +416,71 @@ public class CWBDataServerMSEED implements CWBDataServer {
         this.quiet = true;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
+    /**
+     * @return the time taken to connect for the last query, 0 if an open
+     * connection was reused.
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * @param keepAlive whether to set SO_KEEPALIVE on new connections.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Run the queries on a MiniSeedSelector rather than on a connection kept
+     * by this object.  Each query then has its own non-blocking connection,
+     * read by the selector thread, which is closed at the end of the query.
+     * The selector cannot wait for a slow reader so the records of a query are
+     * queued until getNext() takes them.
+     *
+     * @param selector the started selector, or null to read from a connection
+     * kept by this object.
+     */
+    public void setSelector(MiniSeedSelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * @return true if the connection is open and has not been lost part way
+     * through reading a query.
+     */
+    public boolean isConnected() {
+        return ds != null && !connectionLost && ds.isConnected() && !ds.isClosed() &&
+                !ds.isInputShutdown() && !ds.isOutputShutdown();
+    }
+
+    /**
+     * Sends the end of queries marker and closes the connection.  Safe to call
+     * more than once; a later query() opens a new connection.
+     */
+    public void close() {
+        if (ds == null) {
+            return;
+        }
         try {
             outStream.write(("\n").getBytes());
         } catch (IOException ex) {
             logger.log(Level.FINE,
                     "Failed when attempting to close connection.", ex);
         }
-        ds.close();
+        try {
+            ds.close();
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Failed to close socket.", ex);
+        }
+        ds = null;
+        inStreamOk = false;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        close();
     }
 
 	@Override
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.logging.Logger;
+
+/**
+ * A pool of open connections to a CWB server.  The server answers any number
+ * of queries on a connection so a connection released after its query has been
+ * read to the end can be leased for the next one.
+ *
+ * Typical usage would look like:
+ *
+ * pool = new CWBDataServerPool("cwb.geonet.org.nz", 80, 4, 60000);
+ * CWBDataServerMSEED server = pool.lease();
+ * try {
+ *     server.query(begin, duration, nscl);
+ *     while (server.hasNext()) {
+ *         result.add(server.getNext());
+ *     }
+ * } finally {
+ *     pool.release(server);
+ * }
+ *
+ * or see PooledCWBDataServer which does the lease and release.
+ *
+ * @author geoffc
+ */
+public class CWBDataServerPool {
+
+    private static final Logger logger = Logger.getLogger(CWBDataServerPool.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final long keepAliveMillis;
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+    private int leased = 0;
+    private boolean closed = false;
+    private long leases = 0;
+    private long reuses = 0;
+    private long discards = 0;
+
+    /**
+     * @param host the CWB server name.
+     * @param port the CWB server port.
+     * @param maxConnections the most connections open (leased or idle) at once.
+     * @param keepAliveMillis how long an idle connection is kept open.
+     */
+    public CWBDataServerPool(String host, int port, int maxConnections, long keepAliveMillis) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be 1 or more, maxConnections=" + maxConnections);
+        }
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Lease a connection, waiting if maxConnections are already leased.  The
+     * connection is opened by its first query.
+     *
+     * A connection closed by the server while idle can still look healthy
+     * here, its query() then reconnects once when the first read fails.
+     *
+     * @return an idle connection if there is a healthy one, otherwise a new one.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized CWBDataServerMSEED lease() throws InterruptedException {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("The pool for " + host + ":" + port + " is closed.");
+            }
+            expireIdle();
+            while (!idle.isEmpty()) {
+                // Most recently used first, it is the least likely to have been dropped.
+                CWBDataServerMSEED server = idle.removeLast().server;
+                if (server.isConnected()) {
+                    leased++;
+                    leases++;
+                    reuses++;
+                    return server;
+                }
+                server.close();
+                discards++;
+            }
+            if (leased < maxConnections) {
+                CWBDataServerMSEED server = new CWBDataServerMSEED(host, port);
+                server.setKeepAlive(true);
+                server.quiet();
+                leased++;
+                leases++;
+                return server;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Return a leased connection.  It is kept for reuse only if it is healthy
+     * and its query was read to the end; otherwise it is closed.
+     *
+     * @param server the connection from lease().
+     */
+    public synchronized void release(CWBDataServerMSEED server) {
+        leased--;
+        if (!closed && server.isConnected() && !server.hasNext()) {
+            idle.addLast(new IdleConnection(server, System.currentTimeMillis()));
+        } else {
+            server.close();
+            discards++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Return a leased connection that must not be reused.
+     *
+     * @param server the connection from lease().
+     */
+    public synchronized void discard(CWBDataServerMSEED server) {
+        leased--;
+        server.close();
+        discards++;
+        notifyAll();
+    }
+
+    /**
+     * Close idle connections that have been idle for longer than keepAliveMillis.
+     */
+    private void expireIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<IdleConnection> it = idle.iterator(); it.hasNext();) {
+            IdleConnection connection = it.next();
+            if (now - connection.since > keepAliveMillis) {
+                it.remove();
+                connection.server.close();
+                logger.finer("Closed idle connection to " + host + ":" + port);
+            }
+        }
+    }
+
+    /**
+     * Close all the idle connections.  Leased connections are closed as they are released.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (IdleConnection connection : idle) {
+            connection.server.close();
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getLeasedCount() {
+        return leased;
+    }
+
+    /**
+     * @return the number of leases, the number of those that reused an open
+     * connection and the number of connections closed as unhealthy.
+     */
+    @Override
+    public synchronized String toString() {
+        return host + ":" + port + " leased=" + leased + " idle=" + idle.size() + " max=" + maxConnections +
+                " #leases=" + leases + " #reused=" + reuses + " #discarded=" + discards;
+    }
+
+    private static class IdleConnection {
+
+        final CWBDataServerMSEED server;
+        final long since;
+
+        IdleConnection(CWBDataServerMSEED server, long since) {
+            this.server = server;
+            this.since = since;
+        }
+    }
+}
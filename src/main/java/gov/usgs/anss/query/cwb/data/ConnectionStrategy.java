@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.query.QueryProperties;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Opens a connection to a CWB server.  Each attempt has a connect timeout;
+ * a failed attempt moves on to the next host in the failover order and after
+ * every host has failed it waits for an exponentially growing, jittered
+ * backoff before starting again.  Once the retry budget of attempts is used
+ * up connect() fails rather than retrying forever.
+ *
+ * Typical usage would look like:
+ *
+ * Socket ds = ConnectionStrategy.forHost(host, port).connect();
+ *
+ * @author geoffc
+ */
+public class ConnectionStrategy {
+
+    private static final Logger logger = Logger.getLogger(ConnectionStrategy.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private final List<Endpoint> endpoints;
+    private final int connectTimeout;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int retryBudget;
+    private final Random random = new Random();
+    private Endpoint connected = null;
+
+    /**
+     * @param endpoints the hosts to try, in order.
+     * @param connectTimeout the connect timeout for each attempt in ms, 0 for none.
+     * @param initialBackoff the wait in ms after the first round of failures.
+     * @param maxBackoff the longest wait in ms between rounds.
+     * @param retryBudget the most connection attempts, over all hosts.
+     */
+    public ConnectionStrategy(List<Endpoint> endpoints, int connectTimeout, long initialBackoff,
+            long maxBackoff, int retryBudget) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one host is needed.");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<Endpoint>(endpoints));
+        this.connectTimeout = connectTimeout;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.retryBudget = Math.max(1, retryBudget);
+    }
+
+    /**
+     * The strategy from the properties for a host.  If the host is one of the
+     * configured CWB servers the others follow it in the failover order,
+     * otherwise only the host is tried.
+     *
+     * @param host the CWB server name.
+     * @param port the CWB server port.
+     * @return
+     */
+    public static ConnectionStrategy forHost(String host, int port) {
+        Endpoint requested = new Endpoint(host, port);
+        List<Endpoint> failover = new ArrayList<Endpoint>();
+        for (String name : QueryProperties.getCwbFailover()) {
+            failover.add(new Endpoint(QueryProperties.getCwbIP(name), QueryProperties.getCwbPort(name)));
+        }
+
+        List<Endpoint> endpoints = new ArrayList<Endpoint>();
+        endpoints.add(requested);
+        if (failover.contains(requested)) {
+            for (Endpoint endpoint : failover) {
+                if (!endpoints.contains(endpoint)) {
+                    endpoints.add(endpoint);
+                }
+            }
+        }
+        return new ConnectionStrategy(endpoints, QueryProperties.getCwbConnectTimeout(),
+                QueryProperties.getCwbBackoffInitial(), QueryProperties.getCwbBackoffMax(),
+                QueryProperties.getCwbRetryBudget());
+    }
+
+    /**
+     * Connect to the first host that answers.
+     *
+     * @return the connected socket.
+     * @throws IOException if the retry budget is used up or the thread is interrupted.
+     */
+    public Socket connect() throws IOException {
+        IOException last = null;
+        int attempts = 0;
+        for (int round = 0; ; round++) {
+            for (Endpoint endpoint : endpoints) {
+                if (attempts >= retryBudget) {
+                    throw new IOException("Could not connect to " + endpoints + " in " + attempts +
+                            " attempts, last error=" + last);
+                }
+                attempts++;
+                Socket ds = new Socket();
+                try {
+                    ds.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), connectTimeout);
+                    if (endpoint != endpoints.get(0)) {
+                        logger.warning("Failed over to " + endpoint + " from " + endpoints.get(0));
+                    }
+                    connected = endpoint;
+                    return ds;
+                } catch (IOException ex) {
+                    last = ex;
+                    logger.warning("Problem connecting to " + endpoint + " e=" + ex);
+                    try {
+                        ds.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+            if (attempts >= retryBudget) {
+                continue;       // Fail with the message above.
+            }
+            long wait = backoff(round);
+            logger.warning("Could not connect to " + endpoints + ", trying again in " + wait + " ms");
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting to reconnect to " + endpoints);
+            }
+        }
+    }
+
+    /**
+     * The wait before the next round of attempts: between half and all of
+     * initialBackoff * 2^round, capped at maxBackoff.  The jitter stops many
+     * clients all retrying a recovering server at once.
+     *
+     * @param round the number of rounds that have failed, less one.
+     * @return the wait in ms.
+     */
+    long backoff(int round) {
+        long base = initialBackoff << Math.min(round, 30);
+        if (base <= 0 || base > maxBackoff) {
+            base = maxBackoff;
+        }
+        long half = base / 2;
+        return half + (long) (random.nextDouble() * (base - half));
+    }
+
+    /**
+     * @return the hosts tried, in order.
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return the host of the last successful connect(), or null.
+     */
+    public Endpoint getConnected() {
+        return connected;
+    }
+
+    /**
+     * A CWB server host and port.
+     */
+    public static class Endpoint {
+
+        private final String host;
+        private final int port;
+
+        public Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Endpoint)) {
+                return false;
+            }
+            Endpoint other = (Endpoint) obj;
+            return host.equalsIgnoreCase(other.host) && port == other.port;
+        }
+
+        @Override
+        public int hashCode() {
+            return host.toLowerCase().hashCode() * 31 + port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the MiniSEED records in a buffer of bytes read from a CWB server.
+ * The record length comes from blockette 1000 in the raw header so a record
+ * is only turned into a MiniSeed once, when all of it has been read.
+ *
+ * @author geoffc
+ */
+public class MiniSeedFramer {
+
+    /** More bytes are needed to frame the next record. */
+    public static final int NEED_MORE = 0;
+    /** The next bytes are the end of response marker. */
+    public static final int EOR = -1;
+    /** The record length when there is no blockette 1000. */
+    public static final int DEFAULT_LENGTH = 512;
+    private static final int FIXED_HEADER = 48;
+    private final int fixedLength;
+
+    /**
+     * @param fixedLength the length of every record (e.g. 64 for the gaps only
+     * headers), or 0 to take each length from its blockette 1000.
+     */
+    public MiniSeedFramer(int fixedLength) {
+        this.fixedLength = fixedLength;
+    }
+
+    /**
+     * Frame the record starting at the position of buf.  The buffer is not
+     * changed.
+     *
+     * @param buf a buffer ready for reading (flipped).
+     * @return the length of the record if all of it is in buf, NEED_MORE or EOR.
+     */
+    public int frame(ByteBuffer buf) {
+        int pos = buf.position();
+        int available = buf.remaining();
+        if (available < 5) {
+            return NEED_MORE;
+        }
+        if (buf.get(pos) == '<' && buf.get(pos + 1) == 'E' && buf.get(pos + 2) == 'O' &&
+                buf.get(pos + 3) == 'R' && buf.get(pos + 4) == '>') {
+            return EOR;
+        }
+        int length = fixedLength;
+        if (length <= 0) {
+            length = recordLength(buf, pos, available);
+            if (length == NEED_MORE) {
+                return NEED_MORE;
+            }
+        }
+        return (available >= length ? length : NEED_MORE);
+    }
+
+    /**
+     * The record length from the blockette 1000 of the header at pos.
+     *
+     * @return the record length, or NEED_MORE if the blockettes are not all
+     * in the available bytes yet.
+     */
+    public static int recordLength(ByteBuffer buf, int pos, int available) {
+        if (available < FIXED_HEADER) {
+            return NEED_MORE;
+        }
+        // The year is never this large or small when read with the wrong byte order.
+        int year = u16(buf, pos + 20, false);
+        boolean swap = (year < 1900 || year > 2100);
+        int nblockettes = buf.get(pos + 39) & 0xff;
+        int offset = u16(buf, pos + 46, swap);
+        for (int i = 0; i < nblockettes && offset >= FIXED_HEADER && offset < DEFAULT_LENGTH; i++) {
+            if (offset + 8 > available) {
+                return NEED_MORE;
+            }
+            int type = u16(buf, pos + offset, swap);
+            if (type == 1000) {
+                int power = buf.get(pos + offset + 6) & 0xff;
+                if (power < 7 || power > 16) {
+                    return DEFAULT_LENGTH;
+                }
+                return 1 << power;
+            }
+            int next = u16(buf, pos + offset + 2, swap);
+            if (next <= offset) {
+                break;
+            }
+            offset = next;
+        }
+        return DEFAULT_LENGTH;
+    }
+
+    private static int u16(ByteBuffer buf, int i, boolean swap) {
+        if (swap) {
+            return (buf.get(i) & 0xff) | ((buf.get(i + 1) & 0xff) << 8);
+        }
+        return ((buf.get(i) & 0xff) << 8) | (buf.get(i + 1) & 0xff);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+/**
+ * Reads fields straight from the 48 byte fixed header of a raw MiniSEED
+ * record without making a MiniSeed.  Either byte order is handled.
+ *
+ * @author geoffc
+ */
+public class MiniSeedHeader {
+
+    /** Length of the fixed section of the data header. */
+    public static final int FIXED_HEADER = 48;
+
+    private MiniSeedHeader() {
+    }
+
+    /**
+     * @return true if the header at off is little endian.
+     */
+    public static boolean isSwapped(byte[] b, int off) {
+        // The year is never this large or small when read with the wrong byte order.
+        int year = ((b[off + 20] & 0xff) << 8) | (b[off + 21] & 0xff);
+        return (year < 1900 || year > 2100);
+    }
+
+    /**
+     * @return the seedname in NNSSSSSCCCLL order as MiniSeed.getSeedName().
+     */
+    public static String getSeedName(byte[] b, int off) {
+        char[] c = new char[12];
+        c[0] = (char) b[off + 18];                       // network
+        c[1] = (char) b[off + 19];
+        for (int i = 0; i < 5; i++) {
+            c[2 + i] = (char) b[off + 8 + i];           // station
+        }
+        for (int i = 0; i < 3; i++) {
+            c[7 + i] = (char) b[off + 15 + i];          // channel
+        }
+        c[10] = (char) b[off + 13];                      // location
+        c[11] = (char) b[off + 14];
+        return new String(c);
+    }
+
+    /**
+     * @return the sequence number, or -1 if it is not numeric.
+     */
+    public static int getSequence(byte[] b, int off) {
+        int seq = 0;
+        for (int i = 0; i < 6; i++) {
+            int d = b[off + i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            seq = seq * 10 + d;
+        }
+        return seq;
+    }
+
+    /**
+     * @return the start time in epoch milliseconds, including the time
+     * correction unless the header says it has already been applied.
+     */
+    public static long getStartMillis(byte[] b, int off) {
+        return getStartTenthMillis(b, off) / 10;
+    }
+
+    /**
+     * @return the start time in units of 0.0001 s since the epoch, the
+     * resolution of the header.
+     */
+    public static long getStartTenthMillis(byte[] b, int off) {
+        boolean swap = isSwapped(b, off);
+        int year = u16(b, off + 20, swap);
+        int doy = u16(b, off + 22, swap);
+        int hour = b[off + 24] & 0xff;
+        int minute = b[off + 25] & 0xff;
+        int second = b[off + 26] & 0xff;
+        int ticks = u16(b, off + 28, swap);
+        long days = daysBeforeYear(year) + doy - 1;
+        long t = (((days * 24 + hour) * 60 + minute) * 60 + second) * 10000L + ticks;
+        if ((b[off + 36] & 0x02) == 0) {
+            t += i32(b, off + 40, swap);        // time correction not applied yet
+        }
+        return t;
+    }
+
+    /**
+     * @return the start time in epoch microseconds, the header time plus the
+     * microseconds of a blockette 1001 if there is one.
+     */
+    public static long getStartMicros(byte[] b, int off) {
+        long t = getStartTenthMillis(b, off) * 100;
+        boolean swap = isSwapped(b, off);
+        int next = u16(b, off + 46, swap);
+        while (next >= FIXED_HEADER && off + next + 6 <= b.length) {
+            if (u16(b, off + next, swap) == 1001) {
+                return t + b[off + next + 5];         // signed microseconds
+            }
+            int after = u16(b, off + next + 2, swap);
+            if (after <= next) {
+                break;
+            }
+            next = after;
+        }
+        return t;
+    }
+
+    /**
+     * @return the days from 1970-01-01 to the start of year.
+     */
+    static long daysBeforeYear(int year) {
+        int y = year - 1;
+        return 365L * (year - 1970) + (y / 4 - y / 100 + y / 400) - (1969 / 4 - 1969 / 100 + 1969 / 400);
+    }
+
+    public static int getNsamp(byte[] b, int off) {
+        return u16(b, off + 30, isSwapped(b, off));
+    }
+
+    /**
+     * @return the sample rate in Hz from the rate factor and multiplier, 0 if there is none.
+     */
+    public static double getRate(byte[] b, int off) {
+        boolean swap = isSwapped(b, off);
+        int factor = (short) u16(b, off + 32, swap);
+        int mult = (short) u16(b, off + 34, swap);
+        double rate;
+        if (factor > 0) {
+            rate = factor;
+        } else if (factor < 0) {
+            rate = -1. / factor;
+        } else {
+            return 0.;
+        }
+        if (mult > 0) {
+            rate *= mult;
+        } else if (mult < 0) {
+            rate /= -mult;
+        }
+        return rate;
+    }
+
+    /**
+     * @return the offset of the data from the start of the record, 0 if there is none.
+     */
+    public static int getDataOffset(byte[] b, int off) {
+        return u16(b, off + 44, isSwapped(b, off));
+    }
+
+    /**
+     * @return the two character quality indicator (e.g. "D ") as MiniSeed.getIndicator().
+     */
+    public static String getIndicator(byte[] b, int off) {
+        return new String(new char[]{(char) b[off + 6], (char) b[off + 7]});
+    }
+
+    static int u16(byte[] b, int i, boolean swap) {
+        if (swap) {
+            return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8);
+        }
+        return ((b[i] & 0xff) << 8) | (b[i + 1] & 0xff);
+    }
+
+    static int i32(byte[] b, int i, boolean swap) {
+        if (swap) {
+            return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+        }
+        return (b[i] << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+}
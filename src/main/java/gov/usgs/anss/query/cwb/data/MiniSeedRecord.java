@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.edge.IllegalSeednameException;
+import gov.usgs.anss.query.NSCL;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.Arrays;
+
+/**
+ * A raw MiniSEED record read from the fixed header as it is needed.  Routing
+ * a block by seedname and time, checking its quality or writing it out only
+ * needs the header, so these are read from the record with MiniSeedHeader
+ * and no MiniSeed, with its blockettes and calendars, is made.  toMiniSeed()
+ * makes one, once, for the outputs that need the blockettes or the data.
+ *
+ * @author geoffc
+ */
+public class MiniSeedRecord implements Comparable<MiniSeedRecord> {
+
+    private final byte[] buf;
+    private NSCL nscl;
+    private long start = Long.MIN_VALUE;
+    private MiniSeed ms;
+
+    /**
+     * Copy a record.
+     *
+     * @param b the record.
+     * @param off the offset of the record in b.
+     * @param len the length of the record.
+     */
+    public MiniSeedRecord(byte[] b, int off, int len) {
+        if (len < MiniSeedHeader.FIXED_HEADER) {
+            throw new IllegalArgumentException("Record of " + len + " bytes is shorter than a header.");
+        }
+        buf = Arrays.copyOfRange(b, off, off + len);
+    }
+
+    private MiniSeedRecord(MiniSeed ms) {
+        this.buf = (ms.getBuf().length == ms.getBlockSize() ? ms.getBuf() :
+                Arrays.copyOf(ms.getBuf(), ms.getBlockSize()));
+        this.ms = ms;
+    }
+
+    /**
+     * @return a record for a MiniSeed already made, sharing its buffer where it can.
+     */
+    public static MiniSeedRecord wrap(MiniSeed ms) {
+        return new MiniSeedRecord(ms);
+    }
+
+    /**
+     * @return the record, which must not be changed.
+     */
+    public byte[] getBuf() {
+        return buf;
+    }
+
+    public int getBlockSize() {
+        return buf.length;
+    }
+
+    /**
+     * @return the interned seedname.
+     */
+    public NSCL getNSCL() {
+        if (nscl == null) {
+            nscl = NSCL.fromRecord(buf, 0);
+        }
+        return nscl;
+    }
+
+    /**
+     * @return the seedname in NNSSSSSCCCLL order as MiniSeed.getSeedName().
+     */
+    public String getSeedName() {
+        return MiniSeedHeader.getSeedName(buf, 0);
+    }
+
+    /**
+     * @return the start time in units of 0.0001 s since the epoch.
+     */
+    public long getStartTenthMillis() {
+        if (start == Long.MIN_VALUE) {
+            start = MiniSeedHeader.getStartTenthMillis(buf, 0);
+        }
+        return start;
+    }
+
+    /**
+     * @return the start time in epoch milliseconds.
+     */
+    public long getStartMillis() {
+        return getStartTenthMillis() / 10;
+    }
+
+    public int getNsamp() {
+        return MiniSeedHeader.getNsamp(buf, 0);
+    }
+
+    public double getRate() {
+        return MiniSeedHeader.getRate(buf, 0);
+    }
+
+    public String getIndicator() {
+        return MiniSeedHeader.getIndicator(buf, 0);
+    }
+
+    /**
+     * @return true if the quality indicator is below "D ", so the block has been zapped.
+     */
+    public boolean isZapped() {
+        return getIndicator().compareTo("D ") < 0;
+    }
+
+    /**
+     * @return the MiniSeed for this record, made the first time it is asked for.
+     * @throws IllegalSeednameException
+     */
+    public MiniSeed toMiniSeed() throws IllegalSeednameException {
+        if (ms == null) {
+            ms = new MiniSeed(buf, 0, buf.length);
+        }
+        return ms;
+    }
+
+    /**
+     * Records are ordered by seedname then start time.
+     */
+    public int compareTo(MiniSeedRecord other) {
+        if (getNSCL() != other.getNSCL()) {
+            int result = getSeedName().compareTo(other.getSeedName());
+            if (result != 0) {
+                return result;
+            }
+        }
+        long a = getStartTenthMillis();
+        long b = other.getStartTenthMillis();
+        return (a < b ? -1 : (a == b ? 0 : 1));
+    }
+
+    @Override
+    public String toString() {
+        return getSeedName() + " " + getStartMillis() + " ns=" + getNsamp() + " rt=" + getRate() +
+                " len=" + getBlockSize();
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.edge.IllegalSeednameException;
+import gov.usgs.anss.query.cwb.formatter.CWBQueryFormatter;
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.joda.time.DateTime;
+
+/**
+ * Runs many queries at once from a single thread using non-blocking
+ * SocketChannels.  Each query has its own connection and a direct read ahead
+ * buffer; records are framed in the buffer (see MiniSeedFramer) and handed to
+ * the query's Listener on the selector thread as they complete.
+ *
+ * Typical usage would look like:
+ *
+ * selector = new MiniSeedSelector(65536);
+ * selector.start();
+ * selector.query("cwb.geonet.org.nz", 2061, begin, duration, nscl, listener);
+ * ...
+ * selector.close();
+ *
+ * or see CWBDataServerMSEED.setSelector() which queues the records for getNext().
+ *
+ * @author geoffc
+ */
+public class MiniSeedSelector implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(MiniSeedSelector.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+
+    /**
+     * Receives the records of one query.  The methods are called on the
+     * selector thread so should hand the work off rather than block.
+     */
+    public interface Listener {
+
+        /**
+         * @param ms the next record of the query.
+         */
+        void block(MiniSeed ms);
+
+        /**
+         * @param complete true if the end of response marker was read, false
+         * if the connection failed or was closed first.
+         */
+        void end(boolean complete);
+    }
+    /** The smallest read ahead buffer, large enough for a 4096 byte record. */
+    public static final int MIN_READ_AHEAD = 4096;
+    private final int readAhead;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<StreamQuery> pending = new ConcurrentLinkedQueue<StreamQuery>();
+    private volatile boolean running = true;
+    private volatile int active = 0;
+    private Thread thread = null;
+
+    /**
+     * @param readAhead the size of the direct read buffer for each query.
+     * @throws IOException if the selector cannot be opened.
+     */
+    public MiniSeedSelector(int readAhead) throws IOException {
+        this.readAhead = Math.max(readAhead, MIN_READ_AHEAD);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start the selector thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "MiniSeedSelector");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Start a miniSEED query.
+     *
+     * @param host the CWB server name.
+     * @param port the CWB server port.
+     * @param begin the start time for the data query.
+     * @param duration the duration in seconds to extract data for.
+     * @param nsclSelectString the network, station, channel, and location data to query for.
+     * @param listener receives the records.
+     */
+    public void query(String host, int port, DateTime begin, Double duration, String nsclSelectString,
+            Listener listener) {
+        query(host, port, CWBQueryFormatter.miniSEED(begin, duration, nsclSelectString), 0, listener);
+    }
+
+    /**
+     * Start a query.
+     *
+     * @param host the CWB server name.
+     * @param port the CWB server port.
+     * @param command the query as sent to the server.
+     * @param fixedLength the length of every record (64 for -gaps), or 0 for
+     * full records.
+     * @param listener receives the records.
+     */
+    public void query(String host, int port, String command, int fixedLength, Listener listener) {
+        if (!running) {
+            throw new IllegalStateException("The selector is closed.");
+        }
+        // Resolve the host here rather than on the selector thread.
+        pending.add(new StreamQuery(new InetSocketAddress(host, port), command, fixedLength, listener));
+        selector.wakeup();
+    }
+
+    /**
+     * @return the number of queries started and not yet ended.
+     */
+    public int getActiveCount() {
+        return active;
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Selector failed.", ex);
+                break;
+            }
+            StreamQuery query;
+            while ((query = pending.poll()) != null) {
+                open(query);
+            }
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                SelectionKey key = it.next();
+                it.remove();
+                query = (StreamQuery) key.attachment();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isConnectable()) {
+                        if (query.channel.finishConnect()) {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        }
+                    } else if (key.isWritable()) {
+                        query.channel.write(query.request);
+                        if (!query.request.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } else if (key.isReadable()) {
+                        read(query);
+                    }
+                } catch (IOException ex) {
+                    logger.warning("Query to " + query.address + " failed e=" + ex);
+                    end(query, false);
+                } catch (RuntimeException ex) {
+                    logger.log(Level.SEVERE, "Query to " + query.address + " failed in its listener.", ex);
+                    end(query, false);
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            end((StreamQuery) key.attachment(), false);
+        }
+        StreamQuery query;
+        while ((query = pending.poll()) != null) {
+            query.listener.end(false);
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Failed to close selector.", ex);
+        }
+    }
+
+    private void open(StreamQuery query) {
+        try {
+            query.channel = SocketChannel.open();
+            query.channel.configureBlocking(false);
+            if (query.channel.connect(query.address)) {
+                query.key = query.channel.register(selector, SelectionKey.OP_WRITE, query);
+            } else {
+                query.key = query.channel.register(selector, SelectionKey.OP_CONNECT, query);
+            }
+            active++;
+        } catch (IOException ex) {
+            logger.warning("Failed to connect to " + query.address + " e=" + ex);
+            closeChannel(query);
+            query.listener.end(false);
+        }
+    }
+
+    /**
+     * Read what is available and pass on every complete record.
+     */
+    private void read(StreamQuery query) throws IOException {
+        int n = query.channel.read(query.in);
+        query.in.flip();
+        int len;
+        while ((len = query.framer.frame(query.in)) > 0) {
+            // The record is copied out of the direct buffer into the query's scratch
+            // array, and from there into its MiniSeed.  The gaps only headers are
+            // short, MiniSeed expects at least a 512 byte buffer.
+            int length = Math.max(len, MiniSeedFramer.DEFAULT_LENGTH);
+            if (length > query.record.length) {
+                query.record = new byte[length];
+            }
+            query.in.get(query.record, 0, len);
+            Arrays.fill(query.record, len, length, (byte) 0);
+            try {
+                query.listener.block(new MiniSeed(query.record, 0, length));
+            } catch (IllegalSeednameException ex) {
+                logger.severe("Seedname exception making a seed record e=" + ex.getMessage());
+            }
+        }
+        query.in.compact();
+        if (len == MiniSeedFramer.EOR) {
+            end(query, true);
+        } else if (n < 0) {
+            logger.warning("Connection to " + query.address + " closed before the end of the query.");
+            end(query, false);
+        } else if (query.in.position() == query.in.capacity()) {
+            logger.severe("Record longer than the " + readAhead + " byte read ahead from " + query.address);
+            end(query, false);
+        }
+    }
+
+    private void end(StreamQuery query, boolean complete) {
+        if (query.channel == null) {
+            return;
+        }
+        if (complete) {
+            try {
+                // End of queries marker, best effort as the connection is closed next.
+                query.channel.write(ByteBuffer.wrap("\n".getBytes()));
+            } catch (IOException ex) {
+                logger.log(Level.FINE, "Failed when attempting to close connection.", ex);
+            }
+        }
+        closeChannel(query);
+        active--;
+        try {
+            query.listener.end(complete);
+        } catch (RuntimeException ex) {
+            logger.log(Level.SEVERE, "Listener failed at end of query.", ex);
+        }
+    }
+
+    private void closeChannel(StreamQuery query) {
+        if (query.key != null) {
+            query.key.cancel();
+        }
+        if (query.channel != null) {
+            try {
+                query.channel.close();
+            } catch (IOException ex) {
+                logger.log(Level.FINE, "Failed to close channel.", ex);
+            }
+            query.channel = null;
+        }
+    }
+
+    /**
+     * Stop the selector thread, ending any queries still running as incomplete.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private class StreamQuery {
+
+        final InetSocketAddress address;
+        final ByteBuffer request;
+        final ByteBuffer in;
+        final MiniSeedFramer framer;
+        final Listener listener;
+        SocketChannel channel = null;
+        SelectionKey key = null;
+        byte[] record = new byte[MIN_READ_AHEAD];
+
+        StreamQuery(InetSocketAddress address, String command, int fixedLength, Listener listener) {
+            this.address = address;
+            this.request = ByteBuffer.wrap(command.getBytes());
+            this.in = ByteBuffer.allocateDirect(readAhead);
+            this.framer = new MiniSeedFramer(fixedLength);
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.query.cwb.messages.MessageFormatter;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import nz.org.geonet.HashCodeUtil;
+import org.joda.time.DateTime;
+
+/**
+ * A CWBDataServer that leases a connection from a CWBDataServerPool for each
+ * query and releases it once the query has been read to the end.  Use one per
+ * thread (e.g. per SacFileFactory) with a shared pool.
+ *
+ * @author geoffc
+ */
+public class PooledCWBDataServer implements CWBDataServer {
+
+    private static final Logger logger = Logger.getLogger(PooledCWBDataServer.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private final CWBDataServerPool pool;
+    private CWBDataServerMSEED server = null;
+    private boolean quiet = false;
+    private long connectMillis = 0;
+
+    /**
+     * @param pool the pool to lease connections from.
+     */
+    public PooledCWBDataServer(CWBDataServerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Runs a query against the server on a leased connection.  If a reused
+     * connection turns out to have been dropped the leased server reconnects
+     * itself, see CWBDataServerMSEED.query().
+     *
+     * @param begin the start time for the data query.
+     * @param duration the duration in seconds to extract data for.
+     * @param nsclSelectString the network, station, channel, and location data to query for.
+     */
+    public void query(DateTime begin, Double duration, String nsclSelectString) {
+        release();
+        try {
+            server = pool.lease();
+            server.query(begin, duration, nsclSelectString);
+            connectMillis = server.getConnectMillis();
+        } catch (InterruptedException ex) {
+            logger.warning("Interrupted waiting for a connection to " + getHost() + ":" + getPort());
+            Thread.currentThread().interrupt();
+            release();
+        }
+    }
+
+    /**
+     * Returns the next data record.  This is equivalent to the data for a fully
+     * qualified NSCL.  The connection is released after the last one.
+     *
+     * @return
+     */
+    public TreeSet<MiniSeed> getNext() {
+        if (server == null) {
+            return new TreeSet<MiniSeed>();
+        }
+        TreeSet<MiniSeed> blks = server.getNext();
+        if (!quiet) {
+            logger.info(MessageFormatter.miniSeedSummary(new DateTime(), blks));
+        }
+        if (!server.hasNext()) {
+            release();
+        }
+        return blks;
+    }
+
+    public boolean hasNext() {
+        return server != null && server.hasNext();
+    }
+
+    /**
+     * Return the connection to the pool now, e.g. when not reading a query to
+     * the end.  A connection with unread data is closed rather than reused.
+     */
+    public void release() {
+        if (server != null) {
+            pool.release(server);
+            server = null;
+        }
+    }
+
+    /**
+     * @return the time taken to connect for the last query, 0 if a pooled
+     * connection was reused.
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public void quiet() {
+        this.quiet = true;
+    }
+
+    public String getHost() {
+        return pool.getHost();
+    }
+
+    public int getPort() {
+        return pool.getPort();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (obj.getClass() == this.getClass()) {
+            final PooledCWBDataServer other = (PooledCWBDataServer) obj;
+            if (getHost().equals(other.getHost()) &&
+                    getPort() == other.getPort()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = HashCodeUtil.SEED;
+        result = HashCodeUtil.hash(result, getHost());
+        result = HashCodeUtil.hash(result, getPort());
+        return result;
+    }
+}
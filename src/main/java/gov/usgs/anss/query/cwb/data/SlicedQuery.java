@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import org.joda.time.DateTime;
+
+/**
+ * Splits a long query into time slices and fetches them over several
+ * connections in parallel.  The slices are returned in time order and at most
+ * one slice per connection is fetched ahead of the caller, so the memory held
+ * here depends on the slice length and not the whole duration.
+ *
+ * Typical usage would look like:
+ *
+ * sliced = new SlicedQuery("cwb.geonet.org.nz", 80, 4);
+ * sliced.query(begin, duration, nscl, 86400.0);
+ * while (sliced.hasNext()) {
+ *     for (TreeSet<MiniSeed> blks : sliced.next()) {
+ *         ...
+ *     }
+ * }
+ * sliced.close();
+ *
+ * @author geoffc
+ */
+public class SlicedQuery {
+
+    private static final Logger logger = Logger.getLogger(SlicedQuery.class.getName());
+
+    static {
+        logger.fine("$Id$");
+    }
+    private final String host;
+    private final int port;
+    private final int threads;
+    private ExecutorService executor = null;
+    private final LinkedList<Future<ArrayList<TreeSet<MiniSeed>>>> inFlight =
+            new LinkedList<Future<ArrayList<TreeSet<MiniSeed>>>>();
+    private final LinkedList<Long> inFlightEnd = new LinkedList<Long>();
+    private String nsclSelectString;
+    private long begin;
+    private long end;
+    private long sliceMillis;
+    private long nextSlice;
+    private ArrayList<MiniSeed> carried = new ArrayList<MiniSeed>();
+    private long carriedEnd = Long.MIN_VALUE;
+    private int nslices = 0;
+    private int ndups = 0;
+    private MiniSeedSelector selector = null;
+
+    /**
+     * @param host the CWB server name.
+     * @param port the CWB server port.
+     * @param threads the number of connections to fetch slices over.
+     */
+    public SlicedQuery(String host, int port, int threads) {
+        this.host = host;
+        this.port = port;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Read the slices on a selector rather than on a blocking connection per
+     * fetching thread.  See CWBDataServerMSEED.setSelector().
+     *
+     * @param selector the started selector, or null for blocking connections.
+     */
+    public void setSelector(MiniSeedSelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Starts fetching the slices of a query.
+     *
+     * @param begin the start time for the data query.
+     * @param duration the duration in seconds to extract data for.
+     * @param nsclSelectString the network, station, channel, and location data to query for.
+     * @param slice the length of each slice in seconds.
+     */
+    public void query(DateTime begin, Double duration, String nsclSelectString, double slice) {
+        if (slice <= 0.) {
+            throw new IllegalArgumentException("slice must be positive, slice=" + slice);
+        }
+        close();
+        this.nsclSelectString = nsclSelectString;
+        this.begin = begin.getMillis();
+        this.end = this.begin + Math.round(duration * 1000.);
+        this.sliceMillis = Math.max(1, Math.round(slice * 1000.));
+        this.nextSlice = this.begin;
+        carried.clear();
+        carriedEnd = Long.MIN_VALUE;
+        nslices = 0;
+        ndups = 0;
+        executor = Executors.newFixedThreadPool(threads);
+        while (inFlight.size() < threads && submitNext()) {
+        }
+    }
+
+    /**
+     * Queue the next slice for fetching.
+     * @return false if there are no more slices.
+     */
+    private boolean submitNext() {
+        if (nextSlice >= end) {
+            return false;
+        }
+        final DateTime sliceBegin = new DateTime(nextSlice);
+        final long sliceEnd = Math.min(nextSlice + sliceMillis, end);
+        final Double sliceDuration = (sliceEnd - nextSlice) / 1000.;
+        inFlight.add(executor.submit(new Callable<ArrayList<TreeSet<MiniSeed>>>() {
+
+            public ArrayList<TreeSet<MiniSeed>> call() {
+                return fetch(sliceBegin, sliceDuration);
+            }
+        }));
+        inFlightEnd.add(sliceEnd);
+        nextSlice = sliceEnd;
+        return true;
+    }
+
+    /**
+     * Run one slice on its own connection.  Called on the fetching threads,
+     * overridden by the tests to fetch without a server.
+     */
+    ArrayList<TreeSet<MiniSeed>> fetch(DateTime sliceBegin, Double sliceDuration) {
+        ArrayList<TreeSet<MiniSeed>> result = new ArrayList<TreeSet<MiniSeed>>();
+        CWBDataServerMSEED server = new CWBDataServerMSEED(host, port);
+        server.quiet();
+        server.setSelector(selector);
+        try {
+            server.query(sliceBegin, sliceDuration, nsclSelectString);
+            while (server.hasNext()) {
+                TreeSet<MiniSeed> blks = server.getNext();
+                if (!blks.isEmpty()) {
+                    result.add(blks);
+                }
+            }
+        } finally {
+            server.close();
+        }
+        return result;
+    }
+
+    public boolean hasNext() {
+        return !inFlight.isEmpty();
+    }
+
+    /**
+     * Returns the next slice in time order, waiting for it to be fetched if
+     * need be.  Blocks which were returned at the end of the previous slice
+     * because they span the boundary are removed.
+     *
+     * @return the blocks of the slice, one TreeSet per channel.
+     * @throws IOException if the slice could not be fetched, or the wait for
+     * it was interrupted.  The slices still being fetched are abandoned.
+     */
+    public ArrayList<TreeSet<MiniSeed>> next() throws IOException {
+        if (inFlight.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Future<ArrayList<TreeSet<MiniSeed>>> future = inFlight.removeFirst();
+        long sliceEnd = inFlightEnd.removeFirst();
+        ArrayList<TreeSet<MiniSeed>> slice;
+        try {
+            slice = future.get();
+        } catch (InterruptedException ex) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for slice.");
+        } catch (ExecutionException ex) {
+            close();
+            throw new IOException("Slice query failed.", ex.getCause());
+        }
+        submitNext();
+        nslices++;
+
+        ArrayList<MiniSeed> nextCarried = new ArrayList<MiniSeed>();
+        for (Iterator<TreeSet<MiniSeed>> it = slice.iterator(); it.hasNext();) {
+            TreeSet<MiniSeed> blks = it.next();
+            for (Iterator<MiniSeed> blk = blks.iterator(); blk.hasNext();) {
+                MiniSeed ms = blk.next();
+                if (ms.getTimeInMillis() < carriedEnd && isCarried(ms)) {
+                    blk.remove();
+                    ndups++;
+                    continue;
+                }
+                if (ms.getNextExpectedTimeInMillis() > sliceEnd) {
+                    nextCarried.add(ms);
+                }
+            }
+            if (blks.isEmpty()) {
+                it.remove();
+            }
+        }
+        carried = nextCarried;
+        carriedEnd = sliceEnd;
+
+        if (inFlight.isEmpty()) {
+            close();
+        }
+        return slice;
+    }
+
+    /**
+     * @return true if ms was in the previous slice.
+     */
+    private boolean isCarried(MiniSeed ms) {
+        for (int i = carried.size() - 1; i >= 0; i--) {
+            if (ms.isDuplicate(carried.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of slices returned so far.
+     */
+    public int getSliceCount() {
+        return nslices;
+    }
+
+    /**
+     * @return the number of boundary duplicates removed so far.
+     */
+    public int getDuplicateCount() {
+        return ndups;
+    }
+
+    /**
+     * Stops fetching.  Slices already being fetched are abandoned.
+     */
+    public void close() {
+        if (executor != null) {
+            for (Future<ArrayList<TreeSet<MiniSeed>>> future : inFlight) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+            inFlightEnd.clear();
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
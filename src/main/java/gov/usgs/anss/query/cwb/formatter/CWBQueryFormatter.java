@@ -53,4 +53,16 @@ public class CWBQueryFormatter {
     public static String miniSEED(DateTime begin, Double duration, String nsclSelectString) {
         return String.format("'-b' '%s' '-s' '%s' '-d' '%s'\t", parseBeginFormat.withZone(DateTimeZone.UTC).print(begin), nsclSelectString, duration);
     }
+
+    /**
+     * String for a query that returns only the first 64 bytes of each block.
+     *
+     * @param begin
+     * @param duration
+     * @param nsclSelectString
+     * @return
+     */
+    public static String miniSEEDHeaders(DateTime begin, Double duration, String nsclSelectString) {
+        return String.format("'-b' '%s' '-s' '%s' '-d' '%s' '-gaps'\t", parseBeginFormat.withZone(DateTimeZone.UTC).print(begin), nsclSelectString, duration);
+    }
 }
@@ -21,6 +21,8 @@ package gov.usgs.anss.query.filefactory;
 import edu.sc.seis.TauP.SacTimeSeries;
 import gov.usgs.anss.query.CustomEvent;
 import gov.usgs.anss.query.NSCL;
+import gov.usgs.anss.query.SampleSpan;
+import gov.usgs.anss.query.SpanPool;
 import gov.usgs.anss.query.ZeroFilledSpan;
 import gov.usgs.anss.query.cwb.data.CWBDataServer;
 import gov.usgs.anss.query.metadata.ChannelMetaData;
@@ -185,31 +187,63 @@ public class SacFileFactory {
         start.setTimeInMillis(begin.getMillis());
 
         // build the zero filled area (either with exact limits or with all blocks)
-        ZeroFilledSpan span = new ZeroFilledSpan(new ArrayList(miniSeed), start, duration, fill);
-        if (span.getRate() <= 0.00) {
-            return null;         // There is no real data to put in SAC
-        }
+        ZeroFilledSpan span = new ZeroFilledSpan(new ArrayList(miniSeed), start, duration, fill,
+                ZeroFilledSpan.getDecodeExecutor(), SpanPool.getShared());
+        try {
+            if (span.getRate() <= 0.00) {
+                return null;         // There is no real data to put in SAC
+            }
 
-        NSCL nscl = NSCL.stringToNSCL(miniSeed.first().getSeedName());
+            NSCL nscl = NSCL.fromRecord(miniSeed.first().getBuf(), 0);
 
-        logger.fine("ZeroSpan=" + span.toString());
+            logger.fine("ZeroSpan=" + span.toString());
 
-        int noval = span.getNMissingData();
+            int noval = span.getNMissingData();
 
-        if (!gaps && span.hasGapsBeforeEnd()) {
-            logger.warning("  ** " + nscl.toString() + " has gaps - discarded # missing =" + noval);
-            return null;
+            if (!gaps && span.hasGapsBeforeEnd()) {
+                logger.warning("  ** " + nscl.toString() + " has gaps - discarded # missing =" + noval);
+                return null;
+            }
+
+            //ZeroFilledSpan span = new ZeroFilledSpan(blks);
+
+            int nodata = span.getNMissingData();
+            if (nodata > 0) {
+                logger.finest("#No data points = " + nodata + " fill=" + fill + " npts=" + span.getNsamp());
+            }
+
+            return makeTimeSeries(span, nscl, begin, fill, trim);
+        } finally {
+            span.release();     // the samples are copied into the SAC file
         }
+    }
 
-        //ZeroFilledSpan span = new ZeroFilledSpan(blks);
+    /**
+     * Make a SAC time series from a span already populated, a ZeroFilledSpan
+     * or a MappedSpan.
+     *
+     * @return the time series, null if the span has too many samples for SAC.
+     */
+    public SacTimeSeries makeTimeSeries(
+            SampleSpan span,
+            NSCL nscl,
+            DateTime begin,
+            Integer fill,
+            boolean trim) {
+        if (span.getSampleCount() > Integer.MAX_VALUE) {
+            logger.severe("  ** " + nscl.toString() + " has " + span.getSampleCount() +
+                    " samples, too many for a SAC file - discarded");
+            return null;
+        }
+        int nsamp = (int) span.getSampleCount();
 
         SacTimeSeries sac = new SacTimeSeries();
-        sac.npts = span.getNsamp();
+        sac.npts = nsamp;
 
         // Set the byteOrder based on native architecture and sac statics
         sac.nvhdr = 6;                // Only format supported
         sac.b = 0.;           // beginning time offsed
-        sac.e = ((span.getNsamp() - 1) / span.getRate());
+        sac.e = ((nsamp - 1) / span.getRate());
         sac.iftype = SacTimeSeries.ITIME;
         sac.leven = SacTimeSeries.TRUE;
         sac.delta = (1. / span.getRate());
@@ -229,17 +263,18 @@ public class SacFileFactory {
         sac.khole = nscl.getLocation().replaceAll("_", "").trim();
 
         logger.finer("Sac stla=" + sac.stla + " stlo=" + sac.stlo + " stel=" + sac.stel + " cmpaz=" + sac.cmpaz + " cmpinc=" + sac.cmpinc + " stdp=" + sac.stdp);
-        sac.y = new double[span.getNsamp()];   // allocate space for data
-        int nodata = 0;
-        for (int i = 0; i < span.getNsamp(); i++) {
-            sac.y[i] = span.getData(i);
-            if (sac.y[i] == fill) {
-                nodata++;
-                //if(nodata <3) logger.finest(i+" nodata len="+span.getNsamp());
+        sac.y = new double[nsamp];   // allocate space for data
+        int[] data = SpanPool.getShared().borrow(65536);
+        try {
+            for (int at = 0; at < nsamp;) {
+                int n = span.getData(data, at, data.length);
+                for (int i = 0; i < n; i++) {
+                    sac.y[at + i] = data[i];
+                }
+                at += n;
             }
-        }
-        if (nodata > 0) {
-            logger.finest("#No data points = " + nodata + " fill=" + fill + " npts=" + sac.npts);
+        } finally {
+            SpanPool.getShared().giveBack(data);
         }
         if (trim) {
             int trimmed = sac.trimNodataEnd(fill);
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class BlockFilterChainTest {
+
+    /**
+     * A 512 byte record starting at second sec of 2010-02-01 with nsamp samples.
+     */
+    private static MiniSeed block(int sec, int nsamp) throws Exception {
+        byte[] b = new byte[512];
+        System.arraycopy("000001D ".getBytes(), 0, b, 0, 8);
+        System.arraycopy("WEL  10HHZNZ".getBytes(), 0, b, 8, 12);
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[26] = (byte) sec;
+        b[31] = (byte) nsamp;
+        return new MiniSeed(b, 0, 512);
+    }
+
+    private static int second(MiniSeed ms) {
+        return (int) (MiniSeedHeader.getStartMillis(ms.getBuf(), 0) / 1000L % 60);
+    }
+
+    /** Drops blocks with no samples, read from the raw header. */
+    private static BlockFilter noSamples() {
+        return new BlockFilter() {
+
+            public String getName() {
+                return "nosamples";
+            }
+
+            public boolean accept(MiniSeed ms) {
+                return MiniSeedHeader.getNsamp(ms.getBuf(), 0) > 0;
+            }
+        };
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        System.out.println("filter");
+        ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>();
+        blks.add(block(1, 100));
+        blks.add(block(2, 0));
+        blks.add(block(1, 100));        // duplicate
+        blks.add(block(3, 100));
+        blks.add(block(4, 0));
+        blks.add(block(3, 100));        // duplicate
+        blks.add(block(5, 100));
+
+        BlockFilterChain chain = new BlockFilterChain()
+                .add(noSamples())
+                .add(BlockFilters.unique(new DuplicateIndex()));
+        assertEquals("removed", 4, chain.filter(blks));
+        assertEquals("kept", 3, blks.size());
+        assertEquals("first", 1, second(blks.get(0)));
+        assertEquals("second", 3, second(blks.get(1)));
+        assertEquals("third", 5, second(blks.get(2)));
+
+        assertEquals("nosamples", 2, chain.getDropped("nosamples"));
+        assertEquals("duplicate", 2, chain.getDropped("duplicate"));
+        assertEquals("total", 4, chain.getDropped());
+        assertEquals("toString", "nosamples=2 duplicate=2", chain.toString());
+
+        chain.reset();
+        assertEquals("reset", 0, chain.getDropped());
+        assertEquals("unknown", 0, chain.getDropped("quality"));
+    }
+
+    @Test
+    public void testAccept() throws Exception {
+        System.out.println("accept");
+        // A block dropped by an earlier filter never reaches the later ones.
+        DuplicateIndex dups = new DuplicateIndex();
+        BlockFilterChain chain = new BlockFilterChain()
+                .add(noSamples())
+                .add(BlockFilters.unique(dups));
+        assertFalse("no samples", chain.accept(block(1, 0)));
+        assertEquals("not indexed", 0, dups.size());
+        assertTrue("kept", chain.accept(block(1, 100)));
+        assertFalse("duplicate", chain.accept(block(1, 100)));
+        assertEquals("indexed", 1, dups.size());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Compares sorting the blocks of a channel with Collections.sort and with a
+ * TreeSet, as the outputters and CWBDataServerMSEED did, against BlockList,
+ * for blocks in order, in order but for a few late ones, and shuffled.  Not
+ * run as a test:
+ * <pre>
+ * java -cp ... gov.usgs.anss.query.BlockListBenchmark [file.ms] [passes]
+ * </pre>
+ * The file must hold 512 byte records of one channel; the default is the
+ * NZAPZ HHZ10 test data.
+ *
+ * @author geoffc
+ */
+public class BlockListBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args.length > 0 ? args[0] :
+            "target/test-classes/gov/usgs/anss/query/cwb/messages/NZAPZ__HHZ10.ms");
+        int passes = (args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+        byte[] buf = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(buf);
+        in.close();
+
+        ArrayList<MiniSeed> sorted = new ArrayList<MiniSeed>(buf.length / 512);
+        for (int off = 0; off + 512 <= buf.length; off += 512) {
+            sorted.add(new MiniSeed(buf, off, 512));
+        }
+        Collections.sort(sorted);
+
+        // One block in fifty arrives ten blocks late, as from a server merging files.
+        ArrayList<MiniSeed> late = new ArrayList<MiniSeed>(sorted);
+        for (int i = 0; i + 10 < late.size(); i += 50) {
+            late.add(i + 10, late.remove(i));
+        }
+        ArrayList<MiniSeed> shuffled = new ArrayList<MiniSeed>(sorted);
+        Collections.shuffle(shuffled, new Random(1));
+
+        String[] names = {"in order", "late", "shuffled"};
+        ArrayList<ArrayList<MiniSeed>> orders = new ArrayList<ArrayList<MiniSeed>>();
+        orders.add(sorted);
+        orders.add(late);
+        orders.add(shuffled);
+
+        // Warm all the paths up before timing them.
+        for (int round = 0; round < 2; round++) {
+            for (int o = 0; o < orders.size(); o++) {
+                ArrayList<MiniSeed> blks = orders.get(o);
+
+                long start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    ArrayList<MiniSeed> list = new ArrayList<MiniSeed>(blks.size());
+                    for (MiniSeed ms : blks) {
+                        list.add(ms);
+                    }
+                    Collections.sort(list);
+                }
+                long collections = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    TreeSet<MiniSeed> set = new TreeSet<MiniSeed>();
+                    for (MiniSeed ms : blks) {
+                        set.add(ms);
+                    }
+                }
+                long treeSet = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    BlockList list = new BlockList(blks.size());
+                    for (MiniSeed ms : blks) {
+                        list.add(ms);
+                    }
+                    list.sort();
+                }
+                long blockList = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    BlockList list = new BlockList(blks.size());
+                    for (MiniSeed ms : blks) {
+                        list.add(ms);
+                    }
+                    list.toTreeSet();
+                }
+                long blockListSet = System.nanoTime() - start;
+
+                if (round > 0) {
+                    double n = (double) blks.size() * passes;
+                    System.out.println(names[o] + ": " + blks.size() + " blocks x " + passes + " passes");
+                    System.out.println("  Collections.sort     " + (long) (n / collections * 1.e9) + " blocks/s");
+                    System.out.println("  TreeSet              " + (long) (n / treeSet * 1.e9) + " blocks/s");
+                    System.out.println("  BlockList.sort       " + (long) (n / blockList * 1.e9) + " blocks/s");
+                    System.out.println("  BlockList.toTreeSet  " + (long) (n / blockListSet * 1.e9) + " blocks/s");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class BlockListTest {
+
+    /**
+     * A 512 byte record with sequence number seq starting at second sec of 2010-02-01.
+     */
+    private static MiniSeed block(int seq, int sec) throws Exception {
+        byte[] b = new byte[512];
+        System.arraycopy((String.valueOf(1000000 + seq).substring(1) + "D ").getBytes(), 0, b, 0, 8);
+        System.arraycopy("APZ  10HHZNZ".getBytes(), 0, b, 8, 12);
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[26] = (byte) sec;
+        b[31] = 100;
+        return new MiniSeed(b, 0, 512);
+    }
+
+    private static BlockList list(int... secs) throws Exception {
+        BlockList blks = new BlockList();
+        for (int i = 0; i < secs.length; i++) {
+            blks.add(block(i, secs[i]));
+        }
+        return blks;
+    }
+
+    private static int second(MiniSeed ms) {
+        return (int) (MiniSeedHeader.getStartMillis(ms.getBuf(), 0) / 1000L % 60);
+    }
+
+    private static void assertOrdered(String message, ArrayList<MiniSeed> blks) {
+        for (int i = 1; i < blks.size(); i++) {
+            assertTrue(message + " at " + i, second(blks.get(i - 1)) <= second(blks.get(i)));
+        }
+    }
+
+    @Test
+    public void testSorted() throws Exception {
+        System.out.println("sorted");
+        BlockList blks = list(1, 2, 3, 3, 4);
+        assertTrue("in order", blks.isSorted());
+        blks.add(block(9, 2));
+        assertFalse("tail out of order", blks.isSorted());
+        blks.remove(blks.size() - 1);
+        assertTrue("tail removed", blks.isSorted());
+        blks.remove(1);
+        assertTrue("removed from the middle", blks.isSorted());
+    }
+
+    @Test
+    public void testSort() throws Exception {
+        System.out.println("sort");
+        BlockList blks = list(1, 2, 5, 7, 3, 4, 9, 0, 8, 6, 6, 2);
+        blks.sort();
+        assertTrue("sorted", blks.isSorted());
+        assertEquals("size", 12, blks.size());
+        assertOrdered("sort", blks);
+
+        // Equal blocks keep the order they were added in.
+        assertEquals("stable 2", 1, seq(blks.get(2)));
+        assertEquals("stable 2 again", 11, seq(blks.get(3)));
+        assertEquals("stable 6", 9, seq(blks.get(7)));
+        assertEquals("stable 6 again", 10, seq(blks.get(8)));
+    }
+
+    private static int seq(MiniSeed ms) {
+        return MiniSeedHeader.getSequence(ms.getBuf(), 0);
+    }
+
+    @Test
+    public void testSet() throws Exception {
+        System.out.println("set");
+        BlockList blks = list(1, 2, 3, 4, 5);
+        blks.set(2, block(9, 3));
+        assertTrue("same place", blks.isSorted());
+        blks.set(1, block(9, 7));
+        assertFalse("out of place", blks.isSorted());
+        blks.sort();
+        assertOrdered("set", blks);
+
+        blks = list(1, 2, 4);
+        blks.add(2, block(9, 3));
+        assertTrue("insert in place", blks.isSorted());
+        blks.add(0, block(9, 5));
+        assertFalse("insert out of place", blks.isSorted());
+    }
+
+    @Test
+    public void testSortList() throws Exception {
+        System.out.println("sortList");
+        ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>(list(3, 1, 2));
+        BlockList.sort(blks);
+        assertOrdered("plain list", blks);
+    }
+
+    @Test
+    public void testToTreeSet() throws Exception {
+        System.out.println("toTreeSet");
+        BlockList blks = list(3, 1, 2, 1, 4);
+        TreeSet<MiniSeed> set = blks.toTreeSet();
+        assertEquals("size", 4, set.size());
+        assertEquals("first", 1, second(set.first()));
+        assertEquals("first kept", 1, seq(set.first()));
+        assertEquals("last", 4, second(set.last()));
+        assertTrue("contains", set.contains(block(99, 2)));
+    }
+}
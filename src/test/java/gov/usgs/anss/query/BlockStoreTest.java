@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class BlockStoreTest {
+
+    /**
+     * A 512 byte record header for NZ WEL HHZ 10.
+     */
+    private static byte[] record(String station, int year, int doy, int hour, int min, int sec, int ticks,
+            int nsamp, int rate, boolean swap) {
+        byte[] b = new byte[512];
+        System.arraycopy("000001D ".getBytes(), 0, b, 0, 8);
+        System.arraycopy((station + "10HHZNZ").getBytes(), 0, b, 8, 12);
+        put16(b, 20, year, swap);
+        put16(b, 22, doy, swap);
+        b[24] = (byte) hour;
+        b[25] = (byte) min;
+        b[26] = (byte) sec;
+        put16(b, 28, ticks, swap);
+        put16(b, 30, nsamp, swap);
+        put16(b, 32, rate, swap);
+        put16(b, 34, 1, swap);
+        b[36] = 0x02;           // time correction applied
+        return b;
+    }
+
+    private static void put16(byte[] b, int i, int value, boolean swap) {
+        if (swap) {
+            b[i] = (byte) value;
+            b[i + 1] = (byte) (value >> 8);
+        } else {
+            b[i] = (byte) (value >> 8);
+            b[i + 1] = (byte) value;
+        }
+    }
+
+    @Test
+    public void testHeader() {
+        System.out.println("header");
+        BlockStore store = new BlockStore();
+        store.add(record("WEL  ", 2010, 32, 1, 2, 3, 4567, 101, 100, false), 0, 512);
+        store.add(record("SNZO ", 2012, 61, 0, 0, 0, 0, 1, 50, true), 0, 512);
+
+        assertEquals("size", 2, store.size());
+        assertEquals("seedname", "NZWEL  HHZ10", store.getSeedName(0));
+        assertEquals("start", 1264986123456L, store.getStartMillis(0));
+        assertEquals("end", 1264986124456L, store.getEndMillis(0));
+        assertEquals("nsamp", 101, store.getNsamp(0));
+        assertEquals("rate", 100., store.getRate(0), 0.);
+        assertEquals("swapped leap year start", 1330560000000L, store.getStartMillis(1));
+        assertEquals("swapped rate", 50., store.getRate(1), 0.);
+    }
+
+    @Test
+    public void testSortAndWrite() throws IOException {
+        System.out.println("sortAndWrite");
+        BlockStore store = new BlockStore(1024);
+        store.add(record("WEL  ", 2010, 32, 1, 0, 10, 0, 100, 100, false), 0, 512);
+        store.add(record("BFZ  ", 2010, 32, 1, 0, 10, 0, 100, 100, false), 0, 512);
+        store.add(record("WEL  ", 2010, 32, 1, 0, 0, 0, 100, 100, false), 0, 512);
+
+        int[] order = store.sortByEndTime();
+        assertEquals("earliest", 2, order[0]);
+        assertEquals("same time by name", 1, order[1]);
+        assertEquals("last", 0, order[2]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i : order) {
+            store.write(i, out);
+        }
+        assertEquals("written", 3 * 512, out.size());
+        assertEquals("first written", 0, out.toByteArray()[26]);
+
+        long heap = store.getHeapBytes();
+        store.clear();
+        assertEquals("cleared", 0, store.size());
+        store.add(record("WEL  ", 2010, 32, 1, 0, 0, 0, 100, 100, false), 0, 512);
+        assertEquals("slabs reused", heap, store.getHeapBytes());
+    }
+}
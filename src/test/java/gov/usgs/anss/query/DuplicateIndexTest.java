@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class DuplicateIndexTest {
+
+    /**
+     * A 512 byte record starting at second sec of 2010-02-01 with data from 64.
+     */
+    private static byte[] record(String seq, int sec, int nsamp, int fill) {
+        byte[] b = new byte[512];
+        System.arraycopy((seq + "D ").getBytes(), 0, b, 0, 8);
+        System.arraycopy("WEL  10HHZNZ".getBytes(), 0, b, 8, 12);
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[26] = (byte) sec;
+        b[31] = (byte) nsamp;
+        b[45] = 64;             // data offset
+        for (int i = 64; i < 512; i++) {
+            b[i] = (byte) (fill + i);
+        }
+        return b;
+    }
+
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        DuplicateIndex dups = new DuplicateIndex();
+        assertTrue("first", dups.add(record("000001", 0, 100, 0), 0, 512));
+        assertTrue("next", dups.add(record("000002", 1, 100, 1), 0, 512));
+        assertFalse("same data, other sequence", dups.add(record("000009", 0, 100, 0), 0, 512));
+        assertTrue("same time, other data", dups.add(record("000001", 0, 100, 7), 0, 512));
+        assertTrue("same time, other nsamp", dups.add(record("000001", 0, 99, 0), 0, 512));
+        assertEquals("size", 4, dups.size());
+
+        byte[] buf = new byte[1024];
+        System.arraycopy(record("000002", 1, 100, 1), 0, buf, 512, 512);
+        assertFalse("at an offset", dups.add(buf, 512, 512));
+
+        dups.clear();
+        assertTrue("after clear", dups.add(record("000001", 0, 100, 0), 0, 512));
+    }
+}
@@ -41,6 +41,74 @@ public class EdgeQueryOptionsTest {
 		assertTrue("File mode should return true", instance.isFileMode());
 	}
 
+	/**
+	 * Test of the -pipeline flag in file mode.
+	 */
+	@Test
+	public void testPipeline() {
+		System.out.println("pipeline");
+		EdgeQueryOptions instance = new EdgeQueryOptions(new String[]{"-f", "file.txt"});
+		assertEquals("default pipeline depth", 1, instance.pipeline);
+		instance = new EdgeQueryOptions(new String[]{"-f", "file.txt", "-pipeline", "8"});
+		assertEquals("pipeline depth", 8, instance.pipeline);
+		assertTrue("-pipeline should be consumed in file mode", instance.isValid());
+		instance = new EdgeQueryOptions(new String[]{"-pipeline", "0", "-f", "file.txt"});
+		assertFalse("pipeline depth must be positive", instance.isValid());
+	}
+
+	/**
+	 * Test of the -threads and -perf flags in file mode.
+	 */
+	@Test
+	public void testThreads() {
+		System.out.println("threads");
+		EdgeQueryOptions instance = new EdgeQueryOptions(new String[]{"-f", "file.txt"});
+		assertEquals("default threads", 1, instance.threads);
+		assertFalse("default perf", instance.perfMonitor);
+		instance = new EdgeQueryOptions(new String[]{"-threads", "4", "-f", "file.txt", "-perf"});
+		assertEquals("threads", 4, instance.threads);
+		assertTrue("perf", instance.perfMonitor);
+		assertTrue("-threads should be consumed in file mode", instance.isValid());
+		instance = new EdgeQueryOptions(new String[]{"-f", "file.txt", "-threads", "0"});
+		assertFalse("threads must be positive", instance.isValid());
+	}
+
+	/**
+	 * Test of the -slice and -slicethreads flags.
+	 */
+	@Test
+	public void testSlice() {
+		System.out.println("slice");
+		EdgeQueryOptions instance = new EdgeQueryOptions(new String[]{
+			"-s", "NZWEL..HHZ10", "-b", "2010/02/25 00:00:00", "-d", "30d", "-t", "ms"});
+		assertFalse("slicing is off by default", instance.isSliced());
+		instance = new EdgeQueryOptions(new String[]{
+			"-s", "NZWEL..HHZ10", "-b", "2010/02/25 00:00:00", "-d", "30d", "-t", "ms",
+			"-slice", "86400", "-slicethreads", "8"});
+		assertEquals("slicethreads", 8, instance.sliceThreads);
+		assertTrue("30 days in 1 day slices", instance.isSliced());
+		instance = new EdgeQueryOptions(new String[]{
+			"-s", "NZWEL..HHZ10", "-b", "2010/02/25 00:00:00", "-d", "3600", "-t", "ms",
+			"-slice", "86400"});
+		assertFalse("shorter than one slice", instance.isSliced());
+	}
+
+	/**
+	 * Test of the -outqueue flag in both modes.
+	 */
+	@Test
+	public void testOutQueue() {
+		System.out.println("outQueue");
+		EdgeQueryOptions instance = new EdgeQueryOptions(new String[]{"-f", "file.txt", "-outqueue", "4"});
+		assertEquals("file mode outqueue", 4, instance.outQueue);
+		assertTrue("-outqueue should be consumed in file mode", instance.isValid());
+		instance = new EdgeQueryOptions(new String[]{
+			"-s", "NZWEL..HHZ10", "-b", "2010/02/25 00:00:00", "-t", "dcc", "-outqueue", "2"});
+		assertEquals("line mode outqueue", 2, instance.outQueue);
+		instance = new EdgeQueryOptions(new String[]{"-f", "file.txt", "-outqueue", "-1"});
+		assertFalse("outqueue must not be negative", instance.isValid());
+	}
+
 	/**
 	 * Test of isListQuery method, of class EdgeQueryOptions.
 	 */
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class EpochMicrosTest {
+
+    private static final long T0 = new DateTime(2010, 2, 1, 0, 0, 5, 0, DateTimeZone.UTC).getMillis() * 1000;
+
+    /**
+     * A 512 byte record at 2010-02-01T00:00:sec plus ticks of 0.0001 s and
+     * usec of a blockette 1001, with 100 samples at 100 Hz.
+     */
+    private static MiniSeed record(int sec, int ticks, int usec) throws Exception {
+        byte[] b = new byte[512];
+        System.arraycopy("000001D WEL  10HHZNZ".getBytes(), 0, b, 0, 20);
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[26] = (byte) sec;
+        b[28] = (byte) (ticks >> 8);
+        b[29] = (byte) ticks;
+        b[31] = 100;
+        b[33] = 100;    // rate factor
+        b[35] = 1;      // rate multiplier
+        b[39] = 2;      // blockettes
+        b[45] = 64;     // data offset
+        b[47] = 48;     // first blockette
+        b[48] = (byte) (1000 >> 8);
+        b[49] = (byte) 1000;
+        b[51] = 56;
+        b[52] = 11;     // Steim II
+        b[53] = 1;
+        b[54] = 9;
+        b[56] = (byte) (1001 >> 8);
+        b[57] = (byte) 1001;
+        b[61] = (byte) usec;
+        b[63] = 7;
+        return new MiniSeed(b);
+    }
+
+    @Test
+    public void testStart() throws Exception {
+        System.out.println("start");
+        assertEquals("seconds", T0, EpochMicros.start(record(5, 0, 0)));
+        assertEquals("ticks", T0 + 1234500, EpochMicros.start(record(6, 2345, 0)));
+        assertEquals("usec", T0 + 1234567, EpochMicros.start(record(6, 2345, 67)));
+        assertEquals("negative usec", T0 - 3, EpochMicros.start(record(5, 0, -3)));
+        assertEquals("end", T0 + 1000000, EpochMicros.end(record(5, 0, 0), T0));
+    }
+
+    @Test
+    public void testMillis() {
+        System.out.println("millis");
+        assertEquals("after", 1234, EpochMicros.toMillis(1234999));
+        assertEquals("before", -1235, EpochMicros.toMillis(-1234001));
+        assertEquals("exact", -1234, EpochMicros.toMillis(-1234000));
+        assertEquals("calendar", 1234, EpochMicros.toCalendar(1234567).getTimeInMillis());
+    }
+
+    @Test
+    public void testRunContiguity() throws Exception {
+        System.out.println("runContiguity");
+        // Half a sample is 5 ms at 100 Hz, so the next block must start within 5 ms of the end.
+        Run run = new Run(record(5, 0, 0));
+        assertEquals("end", T0 + 1000000, run.getEndMicros());
+        assertFalse("5 ms late", run.add(record(6, 50, 0)));
+        assertTrue("4.999 ms late", run.add(record(6, 49, 99)));
+        assertEquals("end", T0 + 2004999, run.getEndMicros());
+        assertEquals("blocks", 2, run.getNBlocks());
+        assertEquals("start", T0, run.getStartMicros());
+        assertEquals("length", 2.004999, run.getLength(), 1e-9);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.io.File;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class InventoryOutputerTest {
+
+    /** 2010-02-01T00:00:00Z in units of 0.0001 s. */
+    private static final long START = 1264982400000L * 10;
+    private File tempDir;
+
+    @Before
+    public void setUp() {
+        tempDir = new File(FileUtils.getTempDirectory(), "InventoryOutputerTest");
+        tempDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(tempDir);
+    }
+
+    private InventoryOutputer outputer(String seedname, String begin, String mask) {
+        EdgeQueryOptions options = new EdgeQueryOptions("-s \"" + seedname + "\" -b \"" + begin +
+                "\" -d 86400 -t inv -q -o " + new File(tempDir, mask).getPath());
+        return new InventoryOutputer(options);
+    }
+
+    @Test
+    public void testFilemaskExpanded() throws Exception {
+        System.out.println("filemaskExpanded");
+        InventoryOutputer day1 = outputer("NZWEL  HHZ10", "2010/02/01 00:00:00", "%s.%y.%j.csv");
+        day1.getInventory().add("NZWEL  HHZ10", START, 100, 100.);
+        day1.writeInventory();
+        InventoryOutputer day2 = outputer("NZWEL  HHZ10", "2010/02/02 00:00:00", "%s.%y.%j.csv");
+        day2.getInventory().add("NZWEL  HHZ10", START + 864000000L, 100, 100.);
+        day2.writeInventory();
+
+        // Filename pads the station with underscores as it does for the other outputters.
+        assertTrue("first day", new File(tempDir, "WEL__.2010.032.csv").exists());
+        assertTrue("second day", new File(tempDir, "WEL__.2010.033.csv").exists());
+        assertFalse("mask used literally", new File(tempDir, "%s.%y.%j.csv").exists());
+        List<String> lines = FileUtils.readLines(new File(tempDir, "WEL__.2010.033.csv"));
+        assertEquals("lines", 2, lines.size());
+        assertTrue("second day row " + lines.get(1), lines.get(1).contains("2010-02-02T00:00:00.000Z"));
+    }
+
+    @Test
+    public void testSameFileAppends() throws Exception {
+        System.out.println("sameFileAppends");
+        InventoryOutputer wel = outputer("NZWEL  HHZ10", "2010/02/01 00:00:00", "batch.csv");
+        wel.getInventory().add("NZWEL  HHZ10", START, 100, 100.);
+        wel.writeInventory();
+        InventoryOutputer bfz = outputer("NZBFZ  HHZ10", "2010/02/01 00:00:00", "batch.csv");
+        bfz.getInventory().add("NZBFZ  HHZ10", START, 50, 50.);
+        bfz.writeInventory();
+
+        List<String> lines = FileUtils.readLines(new File(tempDir, "batch.csv"));
+        assertEquals("both lines' channels", 3, lines.size());
+        assertTrue("BFZ " + lines.get(1), lines.get(1).startsWith("NZ,BFZ,"));
+        assertTrue("WEL " + lines.get(2), lines.get(2).startsWith("NZ,WEL,"));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class InventoryTest {
+
+    /** 2010-02-01T00:00:00Z in units of 0.0001 s. */
+    private static final long START = 1264982400000L * 10;
+
+    private static Inventory inventory() {
+        Inventory inventory = new Inventory();
+        // 100 Hz blocks of 1 s, out of order, with an overlap and then a 10 s gap.
+        inventory.add("NZWEL  HHZ10", START + 10000, 100, 100.);
+        inventory.add("NZWEL  HHZ10", START, 100, 100.);
+        inventory.add("NZWEL  HHZ10", START + 15000, 100, 100.);
+        inventory.add("NZWEL  HHZ10", START + 125000, 100, 100.);
+        inventory.add("NZBFZ  HHZ10", START, 50, 50.);
+        return inventory;
+    }
+
+    @Test
+    public void testSegments() {
+        System.out.println("segments");
+        Inventory inventory = inventory();
+        assertEquals("channels", 2, inventory.getChannels().size());
+        Inventory.Channel wel = inventory.getChannel("NZWEL  HHZ10");
+        assertEquals("blocks", 4, wel.getBlocks());
+        assertEquals("samples", 400, wel.getSamples());
+        assertEquals("rates", 1, wel.getRates().length);
+
+        List<Inventory.Segment> segments = wel.getSegments();
+        assertEquals("segments", 2, segments.size());
+        assertEquals("first start", START / 10, segments.get(0).getStart());
+        assertEquals("first end", START / 10 + 2500, segments.get(0).getEnd());
+        assertEquals("first blocks", 3, segments.get(0).getBlocks());
+        assertEquals("second start", START / 10 + 12500, segments.get(1).getStart());
+        assertEquals("second blocks", 1, segments.get(1).getBlocks());
+    }
+
+    @Test
+    public void testCSV() throws IOException {
+        System.out.println("csv");
+        StringWriter out = new StringWriter();
+        inventory().writeCSV(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals("lines", 4, lines.length);
+        assertEquals("header", "network,station,channel,location,rate,start,end,blocks,samples", lines[0]);
+        assertEquals("first row", "NZ,BFZ,HHZ,10,50.0,2010-02-01T00:00:00.000Z,2010-02-01T00:00:01.000Z,1,50", lines[1]);
+    }
+
+    @Test
+    public void testJSON() throws IOException {
+        System.out.println("json");
+        StringWriter out = new StringWriter();
+        inventory().writeJSON(out);
+        String json = out.toString();
+        assertTrue("object", json.startsWith("{\"channels\":["));
+        assertTrue("channel", json.contains("{\"network\":\"NZ\",\"station\":\"WEL\",\"channel\":\"HHZ\"," +
+                "\"location\":\"10\",\"blocks\":4,\"samples\":400,\"rates\":[100.0],\"segments\":[{"));
+        assertTrue("end", json.endsWith("]}\n"));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class MSOutputerTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("MSOutputerTest", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Without -heapbudget the re-sort is still bounded.
+     */
+    @Test
+    public void testSortBudget() {
+        System.out.println("sortBudget");
+        EdgeQueryOptions options = new EdgeQueryOptions();
+        assertTrue("default budget", MSOutputer.getSortBudget(options) > 0);
+        assertTrue("within the heap", MSOutputer.getSortBudget(options) < Runtime.getRuntime().maxMemory());
+        options.heapBudget = 1024 * 1024;
+        assertEquals("-heapbudget", 1024 * 1024, MSOutputer.getSortBudget(options));
+    }
+
+    /**
+     * Blocks streamed in reverse are sorted when the channel ends, through
+     * runs on disk when they are over the budget.
+     */
+    @Test
+    public void testStreamOutOfOrder() throws Exception {
+        System.out.println("streamOutOfOrder");
+        ArrayList<MiniSeed> blks = MiniSeedTestUtil.blocks();
+        Collections.reverse(blks);
+        EdgeQueryOptions options = new EdgeQueryOptions();
+        options.heapBudget = 20 * (512 + SpillingAccumulator.BLOCK_OVERHEAD);
+        MSOutputer out = new MSOutputer(options);
+        NSCL nscl = NSCL.stringToNSCL("NZAPZ  HHZ10");
+        out.beginChannel(nscl, new File(dir, "NZAPZ__HHZ10").getPath());
+        for (MiniSeed ms : blks) {
+            out.acceptBlock(ms);
+        }
+        out.endChannel();
+        byte[] written = FileUtils.readFileToByteArray(new File(dir, "NZAPZ__HHZ10.ms"));
+        assertTrue("sorted", Arrays.equals(MiniSeedTestUtil.read(), written));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class MappedSpanTest {
+
+    private static final int FILL = 2147000000;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The NZAPZ HHZ10 test records less two runs of them, with a copy of
+     * every 50th starting half a second away and X0 changed so it overlaps
+     * its neighbours with different samples.
+     */
+    private static ArrayList<MiniSeed> blocks() throws Exception {
+        return MiniSeedTestUtil.overlapped(50, 100, 101, 102, 300);
+    }
+
+    @Test
+    public void testSameAsSpan() throws Exception {
+        System.out.println("sameAsSpan");
+        ArrayList<MiniSeed> blks = blocks();
+        GregorianCalendar trim = new GregorianCalendar();
+        trim.setTimeInMillis(blks.get(0).getGregorianCalendar().getTimeInMillis() + 12345);
+        ZeroFilledSpan span = new ZeroFilledSpan(blks, trim, 1810., FILL);
+        // Small chunks so the samples are over many mappings.
+        MappedSpan mapped = new MappedSpan(blks.iterator(), trim, 1810., FILL, folder.getRoot(), 10);
+        try {
+            assertEquals("nsamp", span.getSampleCount(), mapped.getSampleCount());
+            assertEquals("start", span.getStart().getTimeInMillis(), mapped.getStart().getTimeInMillis());
+            assertEquals("rate", span.getRate(), mapped.getRate(), 0.);
+            assertEquals("min", span.getMin(), mapped.getMin());
+            assertEquals("max", span.getMax(), mapped.getMax());
+            assertEquals("missing", span.getNMissingData(), mapped.getNMissingData());
+            assertTrue("gaps", mapped.hasGaps());
+
+            for (long i = 0; i < mapped.getSampleCount(); i++) {
+                assertEquals("at " + i, span.getData(i), mapped.getData(i));
+            }
+            int[] d = new int[3000];
+            int[] z = new int[3000];
+            for (long off = 0; off < mapped.getSampleCount(); off += 2999) {
+                int n = mapped.getData(d, off, d.length);
+                assertEquals("n at " + off, span.getData(z, off, z.length), n);
+                assertArrayEquals("chunk at " + off, Arrays.copyOf(z, n), Arrays.copyOf(d, n));
+            }
+            assertEquals("past end", 0, mapped.getData(d, mapped.getSampleCount(), d.length));
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        System.out.println("close");
+        File dir = folder.newFolder("mapped");
+        ArrayList<MiniSeed> blks = blocks();
+        GregorianCalendar trim = new GregorianCalendar();
+        trim.setTimeInMillis(blks.get(0).getGregorianCalendar().getTimeInMillis());
+        MappedSpan mapped = new MappedSpan(blks.iterator(), trim, 100., FILL, dir);
+        assertEquals("file", 1, dir.list().length);
+        assertEquals("one chunk", 10000, mapped.getSampleCount());
+        mapped.close();
+        assertEquals("deleted", 0, dir.list().length);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Loads the NZAPZ HHZ10 test data, 423 Steim II 512 byte records of one run
+ * of compression at 100 Hz, for the span, decoder and connection tests.
+ *
+ * @author geoffc
+ */
+public class MiniSeedTestUtil {
+
+    static final String NZAPZ = "/gov/usgs/anss/query/cwb/messages/NZAPZ__HHZ10.ms";
+
+    private MiniSeedTestUtil() {
+    }
+
+    /**
+     * @return the raw records.
+     */
+    public static byte[] read() throws IOException {
+        InputStream in = MiniSeedTestUtil.class.getResourceAsStream(NZAPZ);
+        if (in == null) {
+            throw new IOException("Test data " + NZAPZ + " not found");
+        }
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param missing the indexes of records to leave out.
+     * @return the records in time order without those in missing.
+     */
+    static ArrayList<MiniSeed> blocks(int... missing) throws Exception {
+        return overlapped(0, missing);
+    }
+
+    /**
+     * @param every if not 0 every record whose index is a multiple of it is
+     * followed by a copy starting half a second later or earlier with X0
+     * changed, so the copy overlaps the records either side with different
+     * samples.
+     * @param missing the indexes of records to leave out.
+     * @return the records in time order.
+     */
+    static ArrayList<MiniSeed> overlapped(int every, int... missing) throws Exception {
+        byte[] buf = read();
+        ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>();
+        next:
+        for (int off = 0; off < buf.length; off += 512) {
+            int i = off / 512;
+            for (int m : missing) {
+                if (i == m) {
+                    continue next;
+                }
+            }
+            blks.add(new MiniSeed(buf, off, 512));
+            if (every > 0 && i % every == 0) {
+                byte[] b = Arrays.copyOfRange(buf, off, off + 512);
+                int tenths = ((b[28] & 0xff) << 8) | (b[29] & 0xff);
+                tenths += (tenths < 5000 ? 5000 : -5000);
+                b[28] = (byte) (tenths >> 8);
+                b[29] = (byte) tenths;
+                b[(((b[44] & 0xff) << 8) | (b[45] & 0xff)) + 7]++;        // X0 of the first frame
+                blks.add(new MiniSeed(b));
+            }
+        }
+        Collections.sort(blks);
+        return blks;
+    }
+}
@@ -21,6 +21,7 @@ package gov.usgs.anss.query;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import java.util.HashMap;
 import static org.junit.Assert.*;
 
 /**
@@ -164,4 +165,82 @@ public class NSCLTest {
 		assertEquals(input, nscl.toString());
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Test of hashCode method, of class NSCL.
+	 */
+	@Test
+	public void testHashCode() {
+		System.out.println("hashCode");
+		NSCL a = NSCL.stringToNSCL("NZWEL  HHZ10");
+		NSCL b = new NSCL("NZ", "WEL  ", "HHZ", "10");
+		assertEquals("equal NSCLs", a.hashCode(), b.hashCode());
+
+		HashMap<NSCL, String> map = new HashMap<NSCL, String>();
+		map.put(a, "WEL");
+		assertEquals("map key", "WEL", map.get(b));
+	}
+
+	/**
+	 * Test of fromRecord and intern methods, of class NSCL.
+	 */
+	@Test
+	public void testIntern() {
+		System.out.println("intern");
+		byte[] record = new byte[64];
+		System.arraycopy("WEL  10HHZNZ".getBytes(), 0, record, 8, 12);
+		NSCL nscl = NSCL.fromRecord(record, 0);
+		assertEquals("from record", NSCL.stringToNSCL("NZWEL  HHZ10"), nscl);
+		assertSame("same instance", nscl, NSCL.fromRecord(record, 0));
+		assertSame("same as intern", nscl, NSCL.intern("NZWEL  HHZ10"));
+		assertNotSame("other channel", nscl, NSCL.intern("NZWEL  HHN10"));
+
+		// Enough channels to grow the table.
+		for (int i = 0; i < 1000; i++) {
+			NSCL.intern("NZ" + (10000 + i) + "HHZ10");
+		}
+		assertSame("after growing", nscl, NSCL.intern("NZWEL  HHZ10"));
+		assertEquals("grown", "NZ10999HHZ10", NSCL.intern("NZ10999HHZ10").toString());
+	}
+
+	/**
+	 * An interned NSCL is shared so can not be changed.
+	 */
+	@Test(expected=UnsupportedOperationException.class)
+	public void testInternImmutable() {
+		System.out.println("internImmutable");
+		NSCL.intern("NZWEL  HHZ10").setLocation("20");
+	}
+
+	/**
+	 * Test the comparators, which work on the packed codes, against comparing the codes.
+	 */
+	@Test
+	public void testComparators() {
+		System.out.println("comparators");
+		String[] names = {"NZWEL  HHZ10", "NZWEL  HHZ20", "NZWEL  HHN10", "NZWELL HHZ10",
+			"NZWE   HHZ10", "AUWEL  HHZ10", "NZBFZ  BNE20", "nzWEL  HHZ10", "NZWEL  HH110"};
+		for (String a : names) {
+			for (String b : names) {
+				NSCL n1 = NSCL.stringToNSCL(a);
+				NSCL n2 = NSCL.intern(b);
+				assertEquals("network " + a + " " + b, Integer.signum(a.substring(0, 2).compareTo(b.substring(0, 2))),
+						Integer.signum(NSCL.NetworkComparator.compare(n1, n2)));
+				assertEquals("station " + a + " " + b, Integer.signum(a.substring(0, 7).compareTo(b.substring(0, 7))),
+						Integer.signum(NSCL.StationComparator.compare(n1, n2)));
+				assertEquals("channel " + a + " " + b, Integer.signum(a.substring(0, 10).compareTo(b.substring(0, 10))),
+						Integer.signum(NSCL.ChannelComparator.compare(n1, n2)));
+				assertEquals("location " + a + " " + b, Integer.signum(a.compareTo(b)),
+						Integer.signum(NSCL.LocationComparator.compare(n1, n2)));
+			}
+		}
+
+		// Short codes are padded as the getters pad them.
+		assertEquals("padded", 0, NSCL.LocationComparator.compare(new NSCL("NZ", "WEL", "HHZ", "10"),
+				NSCL.stringToNSCL("NZWEL  HHZ10")));
+
+		NSCL nscl = NSCL.stringToNSCL("NZWEL  HHZ10");
+		nscl.setLocation("20");
+		assertEquals("after set", 0, NSCL.LocationComparator.compare(nscl, NSCL.stringToNSCL("NZWEL  HHZ20")));
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class OutputStageTest {
+
+    /**
+     * Logs the start and end of each channel, taking longer over the channels
+     * submitted first so they finish last.
+     */
+    private static class SlowOutputer extends Outputer {
+
+        public void makeFile(NSCL nscl, String filename, ArrayList<MiniSeed> blks) throws IOException {
+            logger.info("begin " + nscl);
+            try {
+                Thread.sleep(20 * (8 - (nscl.getLocation().charAt(1) - '0')));
+            } catch (InterruptedException ex) {
+                throw new IOException("interrupted");
+            }
+            logger.info("end " + nscl);
+        }
+    }
+
+    /**
+     * With several threads each channel's messages are still logged together
+     * and in the order the channels were submitted.
+     */
+    @Test
+    public void testLogOrder() throws Exception {
+        System.out.println("logOrder");
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        Handler handler = new Handler() {
+
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        EdgeQueryOptions options = new EdgeQueryOptions("-s NZAPZ..HHZ1. -b \"2010/02/01 00:00:00\" -d 10") {
+
+            @Override
+            public Outputer getOutputter() {
+                return new SlowOutputer();
+            }
+        };
+        ArrayList<MiniSeed> blks = MiniSeedTestUtil.blocks();
+        Outputer out = options.getOutputter();
+        ArrayList<NSCL> channels = new ArrayList<NSCL>();
+        Outputer.logger.addHandler(handler);
+        try {
+            OutputStage stage = new OutputStage(8, 4);
+            for (int i = 0; i < 8; i++) {
+                NSCL nscl = NSCL.stringToNSCL("NZAPZ  HHZ1" + i);
+                channels.add(nscl);
+                stage.submit(options, out, nscl, new ArrayList<MiniSeed>(blks.subList(i * 10, i * 10 + 10)));
+            }
+            stage.endLine(out);
+            stage.finish();
+        } finally {
+            Outputer.logger.removeHandler(handler);
+        }
+        assertEquals("messages", 16, messages.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals("begin " + i, "begin " + channels.get(i), messages.get(2 * i));
+            assertEquals("end " + i, "end " + channels.get(i), messages.get(2 * i + 1));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs a command file over two connections to a local server which answers
+ * every query with no data.
+ *
+ * @author geoffc
+ */
+public class ParallelQueryTest {
+
+    private ServerSocket server;
+    private final AtomicInteger queries = new AtomicInteger();
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("ParallelQueryTest", "");
+        dir.delete();
+        dir.mkdir();
+        server = new ServerSocket(0);
+        new Thread("ParallelQueryTest server") {
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        answer(server.accept());
+                    }
+                } catch (Exception ex) {
+                    // Closed by tearDown.
+                }
+            }
+        }.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Answer each query, which ends with a tab, with the end of response
+     * marker until the end of queries marker.
+     */
+    private void answer(final Socket s) {
+        new Thread("ParallelQueryTest connection") {
+
+            @Override
+            public void run() {
+                try {
+                    InputStream in = s.getInputStream();
+                    OutputStream out = s.getOutputStream();
+                    byte[] marker = new byte[512];
+                    System.arraycopy("<EOR>".getBytes(), 0, marker, 0, 5);
+                    int c;
+                    while ((c = in.read()) >= 0 && c != '\n') {
+                        if (c == '\t') {
+                            queries.incrementAndGet();
+                            out.write(marker);
+                            out.flush();
+                        }
+                    }
+                    s.close();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * The invalid lines fail on their own and every valid line is still run,
+     * whichever connection reads them.
+     */
+    @Test
+    public void testInvalidLine() throws Exception {
+        System.out.println("invalidLine");
+        String valid = "-s NZWEL..HHZ10 -b \"2010/02/01 00:00:00\" -d 10 -t ms -o " + dir + "/%N.ms";
+        String invalid = "-b \"2010/02/01 00:00:00\" -d 10 -t ms -o " + dir + "/%N.ms";
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= 8; i++) {
+            lines.append(i == 1 || i == 5 ? invalid : valid).append('\n');
+        }
+
+        EdgeQueryOptions options = new EdgeQueryOptions();
+        options.host = "localhost";
+        options.port = server.getLocalPort();
+        options.threads = 2;
+        options.quiet = true;
+        QueryReport report = new ParallelQuery(options).run(new CommandSource(new StringReader(lines.toString())));
+
+        assertEquals("every line reported", 8, report.getResults().size());
+        assertEquals("failed", 2, report.getFailedCount());
+        for (QueryReport.LineResult result : report.getResults()) {
+            assertEquals("line " + result.getLine(), result.getLine() != 1 && result.getLine() != 5, result.isOk());
+        }
+        assertEquals("valid lines sent", 6, queries.get());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.io.StringReader;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class QueryReportTest {
+
+    /**
+     * Results added out of order are reported in line order.
+     */
+    @Test
+    public void testOrdering() {
+        System.out.println("ordering");
+        QueryReport report = new QueryReport();
+        report.add(3, "-s NZWEL..HHZ10", 30, 0, 10, true);
+        report.add(1, "-s NZBFZ..HHZ10", 10, 2, 10, true);
+        report.add(2, "-s bad", 0, 0, 0, false);
+
+        List<QueryReport.LineResult> results = report.getResults();
+        assertEquals("results", 3, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("line order", i + 1, results.get(i).getLine());
+        }
+        assertEquals("total blocks", 40, report.getTotalBlocks());
+        assertEquals("failed", 1, report.getFailedCount());
+    }
+
+    /**
+     * Short lines are skipped and the rest numbered from one.
+     */
+    @Test
+    public void testCommandSource() throws Exception {
+        System.out.println("commandSource");
+        CommandSource source = new CommandSource(new StringReader("-s NZWEL..HHZ10\n\n-s NZBFZ..HHZ10\n"));
+        CommandSource.CommandLine line = source.next();
+        assertEquals("first line", 1, line.getNumber());
+        assertEquals("first text", "-s NZWEL..HHZ10", line.getText());
+        line = source.next();
+        assertEquals("blank lines are not counted", 2, line.getNumber());
+        assertNull("end of source", source.next());
+        assertEquals("line count", 2, source.getLineCount());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class SpanPoolTest {
+
+    private static final int FILL = 2147000000;
+
+    @Test
+    public void testReuse() {
+        System.out.println("reuse");
+        SpanPool pool = new SpanPool(1000);
+        int[] a = pool.borrow(100);
+        assertEquals("length", 100, a.length);
+        assertNotSame("none to reuse", a, pool.borrow(100));
+        pool.giveBack(a);
+        assertEquals("held", 400, pool.getHeldBytes());
+        assertNotSame("other capacity", a, pool.borrow(101));
+        assertSame("reused", a, pool.borrow(100));
+        assertEquals("held", 0, pool.getHeldBytes());
+
+        pool.giveBack(new int[200]);
+        pool.giveBack(new int[100]);
+        assertEquals("over budget", 800, pool.getHeldBytes());
+        pool.giveBack(null);
+        assertEquals("null", 800, pool.getHeldBytes());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        System.out.println("concurrent");
+        final SpanPool pool = new SpanPool(1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 4; t++) {
+            final int mark = t;
+            futures.add(executor.submit(new Runnable() {
+
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        int[] a = pool.borrow(64 + i % 3);
+                        a[0] = mark;
+                        Thread.yield();
+                        assertEquals("not shared", mark, a[0]);
+                        pool.giveBack(a);
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertTrue("held", pool.getHeldBytes() <= 4 * 3 * 4 * 66);
+    }
+
+    @Test
+    public void testSpan() throws Exception {
+        System.out.println("span");
+        checkSpan(FILL);
+    }
+
+    @Test
+    public void testSpanZeroFill() throws Exception {
+        System.out.println("spanZeroFill");
+        checkSpan(0);
+    }
+
+    /**
+     * A span from a dirtied pooled array must have fill, not the old samples, in its gaps.
+     */
+    private static void checkSpan(int fill) throws Exception {
+        ArrayList<MiniSeed> blks = MiniSeedTestUtil.blocks(200);
+        GregorianCalendar trim = new GregorianCalendar();
+        trim.setTimeInMillis(blks.get(0).getGregorianCalendar().getTimeInMillis());
+
+        SpanPool pool = new SpanPool(1 << 24);
+        ZeroFilledSpan fresh = new ZeroFilledSpan(blks, trim, 1000., fill);
+        ZeroFilledSpan first = new ZeroFilledSpan(blks, trim, 1000., fill, null, pool);
+        int[] data = first.getData();
+        assertArrayEquals("first", fresh.getData(), data);
+
+        // Dirty the array, the next span must not see it.
+        Arrays.fill(data, 12345);
+        first.release();
+        ZeroFilledSpan second = new ZeroFilledSpan(blks, trim, 1000., fill, null, pool);
+        assertSame("reused", data, second.getData());
+        assertArrayEquals("second", fresh.getData(), second.getData());
+        ZeroFilledSpan.Gap gap = second.getGaps().get(0);
+        for (int i = gap.start; i < gap.end; i++) {
+            assertEquals("fill at " + i, fill, second.getData(i));
+        }
+        assertEquals("missing", fresh.getNMissingData(), second.getNMissingData());
+        second.release();
+        assertEquals("held", 4L * data.length, pool.getHeldBytes());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.query.cwb.data.MiniSeedHeader;
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.File;
+import java.util.ArrayList;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class SpillingAccumulatorTest {
+
+    private File tempDir;
+
+    @Before
+    public void setUp() {
+        tempDir = new File(FileUtils.getTempDirectory(), "SpillingAccumulatorTest");
+        tempDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(tempDir);
+    }
+
+    /**
+     * A 512 byte record starting at second sec of 2010-02-01.
+     */
+    private static MiniSeed block(int sec) throws Exception {
+        byte[] b = new byte[512];
+        System.arraycopy("000001D ".getBytes(), 0, b, 0, 8);
+        System.arraycopy("WEL  10HHZNZ".getBytes(), 0, b, 8, 12);
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[26] = (byte) sec;
+        b[31] = 100;
+        return new MiniSeed(b, 0, 512);
+    }
+
+    private static int second(MiniSeed ms) {
+        return (int) (MiniSeedHeader.getStartMillis(ms.getBuf(), 0) / 1000L % 60);
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        System.out.println("inMemory");
+        SpillingAccumulator blks = new SpillingAccumulator(0, tempDir);
+        for (int sec : new int[]{5, 1, 3, 2, 4}) {
+            blks.add(block(sec));
+        }
+        assertFalse("spilled", blks.isSpilled());
+        ArrayList<MiniSeed> list = blks.toList();
+        assertEquals("size", 5, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals("order " + i, i + 1, second(list.get(i)));
+        }
+        blks.close();
+    }
+
+    @Test
+    public void testSpillAndMerge() throws Exception {
+        System.out.println("spillAndMerge");
+        // Room for three blocks before spilling.
+        SpillingAccumulator blks = new SpillingAccumulator(3 * (512 + SpillingAccumulator.BLOCK_OVERHEAD), tempDir);
+        int[] secs = {30, 12, 45, 3, 58, 21, 7, 40, 33, 1, 19, 50};
+        for (int sec : secs) {
+            blks.add(block(sec));
+        }
+        assertTrue("spilled", blks.isSpilled());
+        assertEquals("runs", 3, blks.getRunCount());
+        assertEquals("size", secs.length, blks.size());
+        assertEquals("run files", 3, tempDir.listFiles().length);
+
+        SpillingAccumulator.Merge merge = blks.merge();
+        int n = 0;
+        int last = -1;
+        while (merge.hasNext()) {
+            int sec = second(merge.next());
+            assertTrue("sorted at " + n, sec > last);
+            last = sec;
+            n++;
+        }
+        merge.close();
+        assertEquals("merged", secs.length, n);
+        assertEquals("first", 1, second(blks.getFirst()));
+        assertEquals("last", 58, second(blks.getLast()));
+
+        blks.close();
+        assertEquals("runs deleted", 0, tempDir.listFiles().length);
+    }
+}
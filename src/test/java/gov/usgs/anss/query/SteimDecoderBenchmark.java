@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import edu.iris.Fissures.codec.Steim2;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+/**
+ * Compares the decode throughput of ZeroFilledSpan's old path, a frames
+ * copy and a Steim2.decode into a new array for each block then a copy into
+ * the span, with SteimDecoder decoding from the record into the span.  Not
+ * run as a test:
+ * <pre>
+ * java -cp ... gov.usgs.anss.query.SteimDecoderBenchmark [file.ms] [passes]
+ * </pre>
+ * The file must hold 512 byte Steim II records; the default is the NZAPZ
+ * HHZ10 test data.
+ *
+ * @author geoffc
+ */
+public class SteimDecoderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args.length > 0 ? args[0] :
+            "target/test-classes/gov/usgs/anss/query/cwb/messages/NZAPZ__HHZ10.ms");
+        int passes = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        byte[] buf = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(buf);
+        in.close();
+
+        int nblks = buf.length / 512;
+        int[] nsamps = new int[nblks];
+        int[] dataOffsets = new int[nblks];
+        int[] offsets = new int[nblks];
+        int total = 0;
+        for (int i = 0; i < nblks; i++) {
+            nsamps[i] = ((buf[i * 512 + 30] & 0xff) << 8) | (buf[i * 512 + 31] & 0xff);
+            dataOffsets[i] = ((buf[i * 512 + 44] & 0xff) << 8) | (buf[i * 512 + 45] & 0xff);
+            offsets[i] = total;
+            total += nsamps[i];
+        }
+        int[] data = new int[total];
+        SteimDecoder steim = new SteimDecoder();
+
+        // Warm both paths up before timing them.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                for (int i = 0; i < nblks; i++) {
+                    byte[] frames = new byte[512 - dataOffsets[i]];
+                    System.arraycopy(buf, i * 512 + dataOffsets[i], frames, 0, frames.length);
+                    int[] samples = Steim2.decode(frames, nsamps[i], false, 0);
+                    System.arraycopy(samples, 0, data, offsets[i], nsamps[i]);
+                }
+            }
+            long old = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                for (int i = 0; i < nblks; i++) {
+                    steim.decode(11, buf, i * 512 + dataOffsets[i], 512 - dataOffsets[i], nsamps[i], false, 0,
+                            0, data, offsets[i], nsamps[i]);
+                }
+            }
+            long now = System.nanoTime() - start;
+
+            if (round > 0) {
+                double samples = (double) total * passes;
+                System.out.println(nblks + " blocks " + total + " samples x " + passes + " passes");
+                System.out.println("Steim2.decode + copy  " + (long) (samples / old * 1.e9) + " samples/s");
+                System.out.println("SteimDecoder in place " + (long) (samples / now * 1.e9) + " samples/s");
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class SteimDecoderTest {
+
+    /**
+     * One frame with the nibbles, X0, Xn and then the data words.
+     */
+    private static byte[] frame(int nibbles, int x0, int xn, int... words) {
+        ByteBuffer bb = ByteBuffer.allocate(64);
+        bb.putInt(nibbles).putInt(x0).putInt(xn);
+        for (int w : words) {
+            bb.putInt(w);
+        }
+        return bb.array();
+    }
+
+    @Test
+    public void testSteim1() throws Exception {
+        System.out.println("steim1");
+        // word 3 four bytes (0, 1, 2, -3), word 4 two halves (1000, -1000)
+        byte[] frames = frame(0x01 << 24 | 0x02 << 22, 10, 10, 0x000102fd, 1000 << 16 | (-1000 & 0xffff));
+        SteimDecoder steim = new SteimDecoder();
+        assertArrayEquals("samples", new int[]{10, 11, 13, 10, 1010, 10},
+                steim.decode(10, frames, 6, false, 0));
+        assertFalse("reverse", steim.hadReverseError());
+        assertFalse("count", steim.hadSampleCountError());
+
+        assertArrayEquals("bias", new int[]{5, 6, 8, 5}, steim.decode(10, frames, 4, false, 5));
+        assertTrue("reverse error", steim.hadReverseError());
+
+        steim.decode(10, frames, 7, false, 0);
+        assertTrue("count error", steim.hadSampleCountError());
+        assertFalse("no reverse check", steim.hadReverseError());
+    }
+
+    @Test
+    public void testSteim2() throws Exception {
+        System.out.println("steim2");
+        // word 3 seven 4 bit differences, word 4 one 30 bit difference
+        int seven = 2 << 30 | 0x0123456f;
+        int one = 1 << 30 | (-100000 & 0x3fffffff);
+        byte[] frames = frame(0x03 << 24 | 0x02 << 22, -7, 12 - 100000, seven, one);
+        SteimDecoder steim = new SteimDecoder();
+        int[] samples = steim.decode(11, frames, 8, false, 0);
+        assertArrayEquals("samples", new int[]{-7, -5, -2, 2, 7, 13, 12, -99988}, samples);
+        assertFalse("reverse", steim.hadReverseError());
+        steim.decode(11, frames, 7, false, 0);
+        assertTrue("reverse error", steim.hadReverseError());
+        steim.decode(11, frames, 8, false, 0);
+        assertFalse("cleared", steim.hadReverseError());
+    }
+
+    @Test
+    public void testSwapped() throws Exception {
+        System.out.println("swapped");
+        byte[] big = frame(0x01 << 24, 10, 16, 0x00010203);
+        byte[] little = new byte[64];
+        for (int i = 0; i < 64; i += 4) {
+            for (int j = 0; j < 4; j++) {
+                little[i + j] = big[i + 3 - j];
+            }
+        }
+        SteimDecoder steim = new SteimDecoder();
+        assertArrayEquals("samples", steim.decode(10, big, 4, false, 0), steim.decode(10, little, 4, true, 0));
+        assertFalse("reverse", steim.hadReverseError());
+    }
+
+    @Test
+    public void testRecords() throws Exception {
+        System.out.println("records");
+        // 423 Steim II 512 byte records of NZAPZ HHZ10, one run of compression.
+        byte[] buf = MiniSeedTestUtil.read();
+
+        SteimDecoder steim = new SteimDecoder();
+        int[] part = new int[100];
+        for (int off = 0; off < buf.length; off += 512) {
+            int nsamp = ((buf[off + 30] & 0xff) << 8) | (buf[off + 31] & 0xff);
+            int dataOffset = ((buf[off + 44] & 0xff) << 8) | (buf[off + 45] & 0xff);
+            int[] samples = steim.decode(buf[off + 52], Arrays.copyOfRange(buf, off + dataOffset, off + 512),
+                    nsamp, false, 0);
+            assertFalse("reverse " + off, steim.hadReverseError());
+            assertFalse("count " + off, steim.hadSampleCountError());
+
+            // In place and in part, without the first sample, as a span trims a block.
+            Arrays.fill(part, 0);
+            assertEquals("put", 10, steim.decode(buf[off + 52], buf, off + dataOffset, 512 - dataOffset, nsamp,
+                    false, 0, 5, part, 3, 10));
+            assertArrayEquals("part " + off, Arrays.copyOfRange(samples, 5, 15), Arrays.copyOfRange(part, 3, 13));
+            assertFalse("no reverse check", steim.hadReverseError());
+        }
+    }
+}
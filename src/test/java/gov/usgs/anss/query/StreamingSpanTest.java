@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class StreamingSpanTest {
+
+    private static final int FILL = 2147000000;
+
+    /**
+     * The NZAPZ HHZ10 test records less two runs of them, with a copy of
+     * every 50th starting half a second away and X0 changed so it overlaps
+     * its neighbours with different samples.
+     */
+    private static ArrayList<MiniSeed> blocks() throws Exception {
+        return MiniSeedTestUtil.overlapped(50, 100, 101, 102, 300);
+    }
+
+    private static void check(ArrayList<MiniSeed> blks, long trimOffset, double duration, int size) {
+        GregorianCalendar trim = new GregorianCalendar();
+        trim.setTimeInMillis(blks.get(0).getGregorianCalendar().getTimeInMillis() + trimOffset);
+        ZeroFilledSpan span = new ZeroFilledSpan(blks, trim, duration, FILL);
+        StreamingSpan stream = new StreamingSpan(blks.iterator(), trim, duration, FILL);
+
+        String msg = "trim=" + trimOffset + " window=" + size + " ";
+        assertEquals(msg + "nsamp", span.getNsamp(), stream.getNsamp());
+        assertEquals(msg + "start", span.getStart().getTimeInMillis(), stream.getStart().getTimeInMillis());
+        assertEquals(msg + "rate", span.getRate(), stream.getRate(), 0.);
+
+        int[] window = new int[size];
+        int at = 0;
+        for (int n = stream.next(window); n > 0; n = stream.next(window)) {
+            assertTrue(msg + "window", n == size || at + n == span.getNsamp());
+            assertArrayEquals(msg + "at " + at, Arrays.copyOfRange(span.getData(), at, at + n),
+                    Arrays.copyOf(window, n));
+            at += n;
+        }
+        assertEquals(msg + "all", span.getNsamp(), at);
+        assertEquals(msg + "missing", span.getNMissingData(), stream.getNMissingData());
+    }
+
+    @Test
+    public void testSameAsSpan() throws Exception {
+        System.out.println("sameAsSpan");
+        ArrayList<MiniSeed> blks = blocks();
+        for (int size : new int[]{7, 1000, 12000, 200000}) {
+            check(blks, 0, 1810., size);
+            check(blks, 12345, 600., size);
+            check(blks, -5000, 100., size);
+        }
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        System.out.println("noData");
+        GregorianCalendar trim = new GregorianCalendar();
+        StreamingSpan stream = new StreamingSpan(new ArrayList<MiniSeed>().iterator(), trim, 100., FILL);
+        assertEquals("rate", 0., stream.getRate(), 0.);
+        assertEquals("nsamp", 0, stream.getNsamp());
+        assertEquals("next", 0, stream.next(new int[10]));
+        assertEquals("start", trim.getTimeInMillis(), stream.getStart().getTimeInMillis());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class ZeroFilledSpanGapsTest {
+
+    private static final int FILL = 2147000000;
+
+    /**
+     * The NZAPZ HHZ10 test records without the ones in missing.
+     */
+    private static ArrayList<MiniSeed> blocks(int... missing) throws Exception {
+        return MiniSeedTestUtil.blocks(missing);
+    }
+
+    private static GregorianCalendar start(ArrayList<MiniSeed> blks) {
+        GregorianCalendar start = new GregorianCalendar();
+        start.setTimeInMillis(blks.get(0).getGregorianCalendar().getTimeInMillis());
+        return start;
+    }
+
+    @Test
+    public void testGaps() throws Exception {
+        System.out.println("gaps");
+        ArrayList<MiniSeed> blks = blocks(100, 101, 300);
+        // Run on past the last block for a gap at the end.
+        ZeroFilledSpan span = new ZeroFilledSpan(blks, start(blks), 1810., FILL);
+
+        List<ZeroFilledSpan.Gap> gaps = span.getGaps();
+        assertEquals("gaps", 3, gaps.size());
+        assertTrue("hasGaps", span.hasGaps());
+        int missing = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        int g = 0;
+        for (int i = 0; i < span.getNsamp(); i++) {
+            boolean inGap = (g < gaps.size() && i >= gaps.get(g).start);
+            assertEquals("fill at " + i, inGap, span.getData(i) == FILL);
+            if (inGap) {
+                missing++;
+                if (i == gaps.get(g).end - 1) {
+                    g++;
+                }
+            }
+            min = Math.min(min, span.getData(i));
+            max = Math.max(max, span.getData(i));
+        }
+        assertEquals("missing", missing, span.getNMissingData());
+        assertEquals("end", span.getNsamp(), gaps.get(2).end);
+        assertEquals("min", min, span.getMin());
+        assertEquals("max", FILL, span.getMax());
+        assertEquals("max", max, span.getMax());
+        assertTrue("gaps before end", span.hasGapsBeforeEnd());
+        assertEquals("not trimmed", gaps.get(2).end, span.getNsamp());
+    }
+
+    @Test
+    public void testTrimEnd() throws Exception {
+        System.out.println("trimEnd");
+        ArrayList<MiniSeed> blks = blocks();
+        ZeroFilledSpan span = new ZeroFilledSpan(blks, start(blks), 1810., FILL);
+        assertEquals("gaps", 1, span.getGaps().size());
+        int filled = span.getGaps().get(0).start;
+        assertEquals("max", FILL, span.getMax());
+
+        assertFalse("no gaps before end", span.hasGapsBeforeEnd());
+        assertEquals("trimmed", filled, span.getNsamp());
+        assertFalse("hasGaps", span.hasGaps());
+        assertEquals("missing", 0, span.getNMissingData());
+        assertTrue("max without fill", span.getMax() < FILL);
+    }
+}
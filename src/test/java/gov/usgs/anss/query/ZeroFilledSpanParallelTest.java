@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class ZeroFilledSpanParallelTest {
+
+    /**
+     * The 423 NZAPZ HHZ10 test records and, if copies, for every tenth a copy
+     * starting half a second later or earlier with X0 changed, so the copies
+     * overlap the records either side with different samples.
+     */
+    private static ArrayList<MiniSeed> blocks(boolean copies) throws Exception {
+        return MiniSeedTestUtil.overlapped(copies ? 10 : 0);
+    }
+
+    @Test
+    public void testSameAsSerial() throws Exception {
+        System.out.println("sameAsSerial");
+        ArrayList<MiniSeed> blks = blocks(true);
+        GregorianCalendar trim = new GregorianCalendar();
+        trim.setTimeInMillis(blks.get(0).getGregorianCalendar().getTimeInMillis() + 10000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ZeroFilledSpan serial = new ZeroFilledSpan(blks, trim, 1700., 2147000000);
+            ZeroFilledSpan parallel = new ZeroFilledSpan(blks, trim, 1700., 2147000000, executor);
+            assertEquals("nsamp", serial.getNsamp(), parallel.getNsamp());
+            assertEquals("start", serial.getStart().getTimeInMillis(), parallel.getStart().getTimeInMillis());
+            assertArrayEquals("data", serial.getData(), parallel.getData());
+            assertFalse("filled", serial.hasGaps());
+
+            // Earlier blocks win where they overlap, so some copies are in the span.
+            assertFalse("overlaps", Arrays.equals(serial.getData(),
+                    new ZeroFilledSpan(blocks(false), trim, 1700., 2147000000, executor).getData()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
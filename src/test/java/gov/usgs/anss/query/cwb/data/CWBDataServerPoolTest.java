@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.query.MiniSeedTestUtil;
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.TreeSet;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the pool book keeping, and reuse against a local server.
+ * @author geoffc
+ */
+public class CWBDataServerPoolTest {
+
+    /**
+     * Leases are capped and a connection that was never opened is not kept.
+     */
+    @Test
+    public void testLeaseRelease() throws Exception {
+        System.out.println("leaseRelease");
+        final CWBDataServerPool pool = new CWBDataServerPool("localhost", 2061, 2, 60000);
+        CWBDataServerMSEED a = pool.lease();
+        CWBDataServerMSEED b = pool.lease();
+        assertNotSame("new connections", a, b);
+        assertEquals("leased", 2, pool.getLeasedCount());
+
+        final CWBDataServerMSEED[] waited = new CWBDataServerMSEED[1];
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    waited[0] = pool.lease();
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(200);
+        assertNull("lease waits at maxConnections", waited[0]);
+
+        pool.release(a);
+        waiter.join(5000);
+        assertNotNull("lease after release", waited[0]);
+        assertEquals("unopened connections are not kept", 0, pool.getIdleCount());
+
+        pool.release(b);
+        pool.release(waited[0]);
+        assertEquals("leased", 0, pool.getLeasedCount());
+        pool.close();
+    }
+
+    /**
+     * A kept connection which the server closed while it was idle still looks
+     * healthy when leased, so its query is run again on a new connection.
+     */
+    @Test
+    public void testServerClosedIdle() throws Exception {
+        System.out.println("serverClosedIdle");
+        final byte[] records = Arrays.copyOf(MiniSeedTestUtil.read(), 20 * 512);
+        final ServerSocket server = new ServerSocket(0);
+        final int[] accepted = {0};
+        Thread t = new Thread("CWBDataServerPoolTest server") {
+
+            @Override
+            public void run() {
+                try {
+                    // Answer one query on each connection, then close it as if idle too long.
+                    for (int i = 0; i < 2; i++) {
+                        Socket s = server.accept();
+                        accepted[0]++;
+                        try {
+                            InputStream in = s.getInputStream();
+                            OutputStream out = s.getOutputStream();
+                            int c;
+                            while ((c = in.read()) >= 0 && c != '\t') {
+                            }
+                            out.write(records);
+                            byte[] marker = new byte[512];
+                            System.arraycopy("<EOR>".getBytes(), 0, marker, 0, 5);
+                            out.write(marker);
+                            out.flush();
+                        } finally {
+                            s.close();
+                        }
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        };
+        t.start();
+
+        CWBDataServerPool pool = new CWBDataServerPool("localhost", server.getLocalPort(), 1, 60000);
+        DateTime begin = new DateTime(2010, 2, 1, 0, 0, 0, 0);
+        for (int i = 0; i < 2; i++) {
+            CWBDataServerMSEED cwb = pool.lease();
+            TreeSet<MiniSeed> blks = new TreeSet<MiniSeed>();
+            try {
+                cwb.query(begin, 3600., "NZAPZ  HHZ10");
+                while (cwb.hasNext()) {
+                    blks.addAll(cwb.getNext());
+                }
+            } finally {
+                pool.release(cwb);
+            }
+            assertEquals("records from query " + i, 20, blks.size());
+            // Wait for the server to close the connection.
+            Thread.sleep(100);
+        }
+        t.join(10000);
+        server.close();
+        assertEquals("reconnected", 2, accepted[0]);
+        assertTrue("the kept connection was leased " + pool, pool.toString().contains("#reused=1"));
+        pool.close();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.query.QueryProperties;
+import gov.usgs.anss.query.cwb.data.ConnectionStrategy.Endpoint;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class ConnectionStrategyTest {
+
+    @Test
+    public void testFailoverOrder() {
+        System.out.println("failoverOrder");
+        List<Endpoint> endpoints = ConnectionStrategy.forHost(QueryProperties.getNeicCwbIP(),
+                QueryProperties.getNeicCwbPort()).getEndpoints();
+        assertEquals("requested host first", new Endpoint(QueryProperties.getNeicCwbIP(), QueryProperties.getNeicCwbPort()), endpoints.get(0));
+        assertEquals("then the failover host", new Endpoint(QueryProperties.getGeoNetCwbIP(), QueryProperties.getGeoNetCwbPort()), endpoints.get(1));
+        assertEquals("hosts", 2, endpoints.size());
+
+        endpoints = ConnectionStrategy.forHost("localhost", 2061).getEndpoints();
+        assertEquals("no failover from an unknown host", 1, endpoints.size());
+    }
+
+    @Test
+    public void testBackoff() {
+        System.out.println("backoff");
+        ConnectionStrategy strategy = new ConnectionStrategy(Arrays.asList(new Endpoint("localhost", 2061)),
+                1000, 1000, 60000, 10);
+        for (int round = 0; round < 40; round++) {
+            long base = Math.min(1000L << Math.min(round, 30), 60000);
+            long wait = strategy.backoff(round);
+            assertTrue("at least half of " + base + " was " + wait, wait >= base / 2);
+            assertTrue("at most " + base + " was " + wait, wait <= base);
+        }
+    }
+
+    @Test
+    public void testRetryBudget() {
+        System.out.println("retryBudget");
+        // Nothing listens on port 1, so every attempt is refused.
+        ConnectionStrategy strategy = new ConnectionStrategy(Arrays.asList(
+                new Endpoint("127.0.0.1", 1), new Endpoint("localhost", 1)), 1000, 1, 2, 3);
+        try {
+            strategy.connect();
+            fail("connect should fail once the budget is used");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("3 attempts") > 0);
+        }
+        assertNull("not connected", strategy.getConnected());
+    }
+}
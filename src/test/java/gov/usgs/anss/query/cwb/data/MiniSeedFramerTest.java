@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class MiniSeedFramerTest {
+
+    /**
+     * A header with a blockette 1000 at 48 for a record of 2^power bytes.
+     */
+    private static byte[] header(int power, boolean swap) {
+        byte[] b = new byte[1 << power];
+        put16(b, 20, 2010, swap);     // year
+        b[39] = 1;                    // number of blockettes
+        put16(b, 46, 48, swap);       // first blockette
+        put16(b, 48, 1000, swap);
+        put16(b, 50, 0, swap);
+        b[52] = 11;                   // steim2
+        b[53] = (byte) (swap ? 0 : 1);
+        b[54] = (byte) power;
+        return b;
+    }
+
+    private static void put16(byte[] b, int i, int value, boolean swap) {
+        if (swap) {
+            b[i] = (byte) value;
+            b[i + 1] = (byte) (value >> 8);
+        } else {
+            b[i] = (byte) (value >> 8);
+            b[i + 1] = (byte) value;
+        }
+    }
+
+    @Test
+    public void testFrame() {
+        System.out.println("frame");
+        MiniSeedFramer framer = new MiniSeedFramer(0);
+        assertEquals("512", 512, framer.frame(ByteBuffer.wrap(header(9, false))));
+        assertEquals("4096", 4096, framer.frame(ByteBuffer.wrap(header(12, false))));
+        assertEquals("4096 swapped", 4096, framer.frame(ByteBuffer.wrap(header(12, true))));
+
+        ByteBuffer partial = ByteBuffer.wrap(header(12, false), 0, 1000).slice();
+        assertEquals("partial record", MiniSeedFramer.NEED_MORE, framer.frame(partial));
+        partial = ByteBuffer.wrap(header(12, false), 0, 40).slice();
+        assertEquals("partial header", MiniSeedFramer.NEED_MORE, framer.frame(partial));
+
+        assertEquals("eor", MiniSeedFramer.EOR, framer.frame(ByteBuffer.wrap("<EOR>".getBytes())));
+    }
+
+    @Test
+    public void testFixedLength() {
+        System.out.println("fixedLength");
+        MiniSeedFramer framer = new MiniSeedFramer(64);
+        ByteBuffer buf = ByteBuffer.wrap(header(12, false), 0, 200);
+        assertEquals("gaps only header", 64, framer.frame(buf));
+        buf.position(buf.position() + 64);
+        assertEquals("next header", 64, framer.frame(buf));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.query.NSCL;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author geoffc
+ */
+public class MiniSeedRecordTest {
+
+    /**
+     * A 512 byte record at 2010-02-01T00:00:sec with 100 samples at 100 Hz.
+     */
+    private static byte[] record(String indicator, String seedname, int sec) {
+        byte[] b = new byte[512];
+        System.arraycopy(("000001" + indicator).getBytes(), 0, b, 0, 8);
+        System.arraycopy(seedname.getBytes(), 0, b, 8, 12);
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[26] = (byte) sec;
+        b[31] = 100;
+        b[33] = 100;    // rate factor
+        b[35] = 1;      // rate multiplier
+        return b;
+    }
+
+    @Test
+    public void testHeader() {
+        System.out.println("header");
+        byte[] buf = new byte[1024];
+        System.arraycopy(record("D ", "WEL  10HHZNZ", 5), 0, buf, 512, 512);
+        MiniSeedRecord rec = new MiniSeedRecord(buf, 512, 512);
+        assertEquals("size", 512, rec.getBlockSize());
+        assertEquals("seedname", "NZWEL  HHZ10", rec.getSeedName());
+        assertEquals("nscl", NSCL.stringToNSCL("NZWEL  HHZ10"), rec.getNSCL());
+        assertSame("interned", rec.getNSCL(), new MiniSeedRecord(buf, 512, 512).getNSCL());
+        assertEquals("start", new DateTime(2010, 2, 1, 0, 0, 5, 0, DateTimeZone.UTC).getMillis(), rec.getStartMillis());
+        assertEquals("nsamp", 100, rec.getNsamp());
+        assertEquals("rate", 100., rec.getRate(), 0.);
+        assertFalse("zapped", rec.isZapped());
+
+        buf[512 + 31] = 0;      // the record is copied
+        assertEquals("copied", 100, rec.getNsamp());
+    }
+
+    @Test
+    public void testZapped() {
+        System.out.println("zapped");
+        assertTrue("A", new MiniSeedRecord(record("A ", "WEL  10HHZNZ", 0), 0, 512).isZapped());
+        assertFalse("Q", new MiniSeedRecord(record("Q ", "WEL  10HHZNZ", 0), 0, 512).isZapped());
+    }
+
+    @Test
+    public void testCompareTo() {
+        System.out.println("compareTo");
+        MiniSeedRecord a = new MiniSeedRecord(record("D ", "WEL  10HHZNZ", 1), 0, 512);
+        MiniSeedRecord b = new MiniSeedRecord(record("D ", "WEL  10HHZNZ", 2), 0, 512);
+        MiniSeedRecord c = new MiniSeedRecord(record("D ", "APZ  10HHZNZ", 9), 0, 512);
+        assertTrue("time", a.compareTo(b) < 0);
+        assertTrue("time reversed", b.compareTo(a) > 0);
+        assertEquals("same", 0, a.compareTo(new MiniSeedRecord(record("D ", "WEL  10HHZNZ", 1), 0, 512)));
+        assertTrue("seedname first", c.compareTo(a) < 0);
+    }
+}
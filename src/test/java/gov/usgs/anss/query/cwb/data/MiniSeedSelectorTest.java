@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.query.MiniSeedTestUtil;
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs queries on a MiniSeedSelector against a local server which writes the
+ * NZAPZ HHZ10 records (423 of 512 bytes) in pieces that split records and
+ * that hold several records at once.
+ *
+ * @author geoffc
+ */
+public class MiniSeedSelectorTest {
+
+    /** The sizes of the writes, in turn, so records are both split and coalesced. */
+    private static final int[] CHUNKS = {7, 41, 1000, 3 * 512, 5000};
+    private byte[] records;
+    private ServerSocket server;
+    private MiniSeedSelector selector;
+
+    @Before
+    public void setUp() throws Exception {
+        records = MiniSeedTestUtil.read();
+        server = new ServerSocket(0);
+        selector = new MiniSeedSelector(MiniSeedSelector.MIN_READ_AHEAD);
+        selector.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        selector.close();
+        server.close();
+    }
+
+    /**
+     * Answer the next query with data, followed by the end of response marker
+     * if eor, then close the connection.
+     */
+    private Thread serve(final byte[] data, final boolean eor) {
+        Thread t = new Thread("MiniSeedSelectorTest server") {
+
+            @Override
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    try {
+                        InputStream in = s.getInputStream();
+                        OutputStream out = s.getOutputStream();
+                        // A query ends with a tab.
+                        int c;
+                        while ((c = in.read()) >= 0 && c != '\t') {
+                        }
+                        int off = 0;
+                        for (int i = 0; off < data.length; i++) {
+                            int len = Math.min(CHUNKS[i % CHUNKS.length], data.length - off);
+                            out.write(data, off, len);
+                            out.flush();
+                            off += len;
+                            Thread.sleep(1);
+                        }
+                        if (eor) {
+                            byte[] marker = new byte[512];
+                            System.arraycopy("<EOR>".getBytes(), 0, marker, 0, 5);
+                            out.write(marker);
+                            out.flush();
+                            // Wait for the end of queries marker and the close.
+                            while (in.read() >= 0) {
+                            }
+                        }
+                    } finally {
+                        s.close();
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /**
+     * All the records come back whole and in order through CWBDataServerMSEED,
+     * the same as from its blocking connection.
+     */
+    @Test
+    public void testSelectedQuery() throws Exception {
+        System.out.println("selectedQuery");
+        DateTime begin = new DateTime(2010, 2, 1, 0, 0, 0, 0);
+        ArrayList<TreeSet<MiniSeed>> channels = new ArrayList<TreeSet<MiniSeed>>();
+        for (int pass = 0; pass < 2; pass++) {
+            Thread t = serve(records, true);
+            CWBDataServerMSEED cwb = new CWBDataServerMSEED("localhost", server.getLocalPort());
+            cwb.quiet();
+            if (pass == 0) {
+                cwb.setSelector(selector);
+            }
+            cwb.query(begin, 3600., "NZAPZ  HHZ10");
+            while (cwb.hasNext()) {
+                channels.add(cwb.getNext());
+            }
+            cwb.close();
+            t.join(10000);
+        }
+        assertEquals("one channel from each pass", 2, channels.size());
+        TreeSet<MiniSeed> selected = channels.get(0);
+        assertEquals("records", records.length / 512, selected.size());
+        int off = 0;
+        for (MiniSeed ms : selected) {
+            assertTrue("record at " + off, Arrays.equals(Arrays.copyOfRange(records, off, off + 512), ms.getBuf()));
+            off += 512;
+        }
+        assertEquals("same as blocking", channels.get(1).size(), selected.size());
+        assertEquals("no queries left", 0, selector.getActiveCount());
+    }
+
+    /**
+     * A connection closed part way through a record ends the query as
+     * incomplete, after the whole records.
+     */
+    @Test
+    public void testConnectionLost() throws Exception {
+        System.out.println("connectionLost");
+        Thread t = serve(Arrays.copyOf(records, 10 * 512 + 100), false);
+        final List<MiniSeed> blks = Collections.synchronizedList(new ArrayList<MiniSeed>());
+        final boolean[] complete = {true};
+        final CountDownLatch ended = new CountDownLatch(1);
+        selector.query("localhost", server.getLocalPort(), "query\t", 0, new MiniSeedSelector.Listener() {
+
+            public void block(MiniSeed ms) {
+                blks.add(ms);
+            }
+
+            public void end(boolean c) {
+                complete[0] = c;
+                ended.countDown();
+            }
+        });
+        assertTrue("ended", ended.await(10, TimeUnit.SECONDS));
+        t.join(10000);
+        assertFalse("incomplete", complete[0]);
+        assertEquals("whole records", 10, blks.size());
+    }
+}
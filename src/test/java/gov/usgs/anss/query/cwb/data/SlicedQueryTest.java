@@ -0,0 +1,202 @@
+/*
+ * Copyright 2010, Institute of Geological & Nuclear Sciences Ltd or
+ * third-party contributors as indicated by the @author tags.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package gov.usgs.anss.query.cwb.data;
+
+import gov.usgs.anss.seed.MiniSeed;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeSet;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the slicing, the boundary duplicate removal and the ordering of a
+ * SlicedQuery without a server, fetching each slice from a list of blocks.
+ * @author geoffc
+ */
+public class SlicedQueryTest {
+
+    private static final DateTime T0 = new DateTime(2010, 2, 1, 0, 0, 0, 0, DateTimeZone.UTC);
+
+    /**
+     * A 512 byte record of 100 samples at 100 Hz starting ms after 2010-02-01T00:00:00.
+     */
+    private static MiniSeed block(String station, long ms) throws Exception {
+        byte[] b = new byte[512];
+        System.arraycopy("000001D ".getBytes(), 0, b, 0, 8);
+        System.arraycopy((station + "  10HHZNZ").getBytes(), 0, b, 8, 12);
+        int ticks = (int) (ms % 1000L) * 10;
+        b[20] = (byte) (2010 >> 8);
+        b[21] = (byte) 2010;
+        b[23] = 32;
+        b[24] = (byte) (ms / 3600000L);
+        b[25] = (byte) (ms / 60000L % 60);
+        b[26] = (byte) (ms / 1000L % 60);
+        b[28] = (byte) (ticks >> 8);
+        b[29] = (byte) ticks;
+        b[31] = 100;
+        b[33] = 100;    // rate factor
+        b[35] = 1;      // rate multiplier
+        return new MiniSeed(b, 0, 512);
+    }
+
+    /**
+     * Answers each slice as a server would, with every block of each channel
+     * overlapping the slice.  Earlier slices take longer, so they finish after
+     * the later ones.
+     */
+    private static class ListQuery extends SlicedQuery {
+
+        private final ArrayList<MiniSeed> blks;
+        final ArrayList<Long> sliceBegins = new ArrayList<Long>();
+
+        ListQuery(ArrayList<MiniSeed> blks, int threads) {
+            super("localhost", 2061, threads);
+            this.blks = blks;
+        }
+
+        @Override
+        ArrayList<TreeSet<MiniSeed>> fetch(DateTime sliceBegin, Double sliceDuration) {
+            long begin = sliceBegin.getMillis();
+            long end = begin + Math.round(sliceDuration * 1000.);
+            synchronized (sliceBegins) {
+                sliceBegins.add(begin - T0.getMillis());
+            }
+            try {
+                Thread.sleep(Math.max(0, 200 - (begin - T0.getMillis()) / 50));
+            } catch (InterruptedException ex) {
+            }
+            ArrayList<TreeSet<MiniSeed>> result = new ArrayList<TreeSet<MiniSeed>>();
+            TreeSet<MiniSeed> channel = null;
+            for (MiniSeed ms : blks) {
+                if (ms.getTimeInMillis() >= end || ms.getNextExpectedTimeInMillis() <= begin) {
+                    continue;
+                }
+                if (channel == null || !channel.first().getSeedName().equals(ms.getSeedName())) {
+                    channel = new TreeSet<MiniSeed>();
+                    result.add(channel);
+                }
+                channel.add(ms);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * One second blocks starting half way through each second of 10 s, for each station.
+     */
+    private static ArrayList<MiniSeed> blocks(String... stations) throws Exception {
+        ArrayList<MiniSeed> blks = new ArrayList<MiniSeed>();
+        for (String station : stations) {
+            for (int i = 0; i < 10; i++) {
+                blks.add(block(station, i * 1000L + 500));
+            }
+        }
+        return blks;
+    }
+
+    @Test
+    public void testSliceBoundaries() throws Exception {
+        System.out.println("sliceBoundaries");
+        ListQuery sliced = new ListQuery(blocks("WEL"), 4);
+        sliced.query(T0, 10.5, "NZWEL..HHZ10", 3.);
+        int nslices = 0;
+        while (sliced.hasNext()) {
+            sliced.next();
+            nslices++;
+        }
+        assertEquals("slices", 4, nslices);
+        assertEquals("slice count", 4, sliced.getSliceCount());
+        ArrayList<Long> begins = new ArrayList<Long>(sliced.sliceBegins);
+        Collections.sort(begins);
+        assertEquals("slice begins", "[0, 3000, 6000, 9000]", begins.toString());
+    }
+
+    @Test
+    public void testDuplicatesAtSeams() throws Exception {
+        System.out.println("duplicatesAtSeams");
+        ListQuery sliced = new ListQuery(blocks("WEL", "WAZ"), 2);
+        sliced.query(T0, 10.5, "NZ.....HHZ10", 3.);
+        int n = 0;
+        while (sliced.hasNext()) {
+            for (TreeSet<MiniSeed> blks : sliced.next()) {
+                n += blks.size();
+            }
+        }
+        // The blocks at 2.5, 5.5 and 8.5 s span a boundary and are returned by two slices.
+        assertEquals("duplicates", 6, sliced.getDuplicateCount());
+        assertEquals("blocks", 20, n);
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        System.out.println("order");
+        ListQuery sliced = new ListQuery(blocks("WEL", "WAZ"), 4);
+        sliced.query(T0, 10.5, "NZ.....HHZ10", 1.);
+        long last = Long.MIN_VALUE;
+        long lastWaz = Long.MIN_VALUE;
+        while (sliced.hasNext()) {
+            for (TreeSet<MiniSeed> blks : sliced.next()) {
+                for (MiniSeed ms : blks) {
+                    if (ms.getSeedName().startsWith("NZWAZ")) {
+                        assertTrue("WAZ in time order", ms.getTimeInMillis() > lastWaz);
+                        lastWaz = ms.getTimeInMillis();
+                    } else {
+                        assertTrue("WEL in time order", ms.getTimeInMillis() > last);
+                        last = ms.getTimeInMillis();
+                    }
+                }
+            }
+        }
+        assertEquals("last WEL", T0.getMillis() + 9500, last);
+        assertEquals("last WAZ", T0.getMillis() + 9500, lastWaz);
+        assertEquals("slices", 11, sliced.getSliceCount());
+    }
+
+    /**
+     * A slice that fails is thrown as an IOException, so the line fails like
+     * any other, and the rest of the query is abandoned.
+     */
+    @Test
+    public void testSliceFails() throws Exception {
+        System.out.println("sliceFails");
+        ListQuery sliced = new ListQuery(blocks("WEL"), 2) {
+
+            @Override
+            ArrayList<TreeSet<MiniSeed>> fetch(DateTime sliceBegin, Double sliceDuration) {
+                if (sliceBegin.getMillis() - T0.getMillis() >= 3000) {
+                    throw new IllegalStateException("lost");
+                }
+                return super.fetch(sliceBegin, sliceDuration);
+            }
+        };
+        sliced.query(T0, 10.5, "NZWEL..HHZ10", 3.);
+        sliced.next();
+        try {
+            sliced.next();
+            fail("the second slice failed");
+        } catch (IOException ex) {
+            assertTrue("cause", ex.getCause() instanceof IllegalStateException);
+        }
+        assertFalse("abandoned", sliced.hasNext());
+    }
+}
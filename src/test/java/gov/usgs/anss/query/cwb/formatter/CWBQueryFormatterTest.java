@@ -65,4 +65,11 @@ public class CWBQueryFormatterTest {
         result = CWBQueryFormatter.miniSEED(begin.withMillisOfSecond(799), 300d, "NZMRZ..HHZ10");
         assertEquals("data query 1", "'-b' '2009/01/01 00:00:00.799' '-s' 'NZMRZ..HHZ10' '-d' '300.0'\t", result);
     }
+
+    @Test
+    public void testMiniSEEDHeadersQuery() {
+        DateTime begin = new DateTime(2009, 1, 1, 0, 0, 0, 0, tz);
+        String result = CWBQueryFormatter.miniSEEDHeaders(begin, 86400d, "NZ.....HHZ..");
+        assertEquals("headers query", "'-b' '2009/01/01 00:00:00.000' '-s' 'NZ.....HHZ..' '-d' '86400.0' '-gaps'\t", result);
+    }
 }
\ No newline at end of file